@@ -0,0 +1,110 @@
+package client;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The most inbound chat lines per second the terminal client can take off
+ * its socket: {@link ChatClient#readLines} feeding a {@link Renderer},
+ * against the old reader that printed and flushed every line itself.
+ * Output goes to a temporary file, so each flush is a real write call
+ * (a terminal is slower still); the input is an in-memory stream of
+ * {@value #LINES} typical lines.
+ *
+ * With the renderer the result is the reader's rate, since drawing is off
+ * its thread and capped; the lines per trial that were drawn and skipped
+ * are printed at the end.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RenderBenchmark {
+
+    private static final int LINES = 10_000;
+
+    private byte[] input;
+    private Path file;
+    private FileOutputStream sink;
+    private PrintStream out;
+    private Renderer renderer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        ByteArrayOutputStream lines = new ByteArrayOutputStream();
+        for (int i = 0; i < LINES; i++) {
+            lines.writeBytes(String.format("[12:%02d:%02d] Guest_%04d: message number %d in a busy room%n",
+                    i % 60, (i / 60) % 60, 1000 + i % 9000, i).getBytes(StandardCharsets.UTF_8));
+        }
+        input = lines.toByteArray();
+        file = Files.createTempFile("chat-render", ".out");
+        sink = new FileOutputStream(file.toFile());
+        out = new PrintStream(sink, true, StandardCharsets.UTF_8);
+        renderer = new Renderer(out);
+    }
+
+    /** Keeps the output file from growing across iterations. */
+    @Setup(Level.Iteration)
+    public void truncate() throws IOException {
+        synchronized (out) {
+            sink.getChannel().truncate(0).position(0);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        long shown = renderer.linesShown();
+        long skipped = renderer.linesSkipped();
+        renderer.close();
+        out.close();
+        Files.delete(file);
+        if (shown + skipped > 0) {
+            System.out.printf("%nrenderer: %d line(s) drawn, %d skipped to catch up (%.1f%%)%n",
+                    shown, skipped, 100.0 * skipped / (shown + skipped));
+        }
+    }
+
+    /** Bulk reads into the renderer. */
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void batched() throws IOException {
+        ChatClient.readLines(new ByteArrayInputStream(input), renderer::append);
+    }
+
+    /** Baseline: the old reader, println (and flush) per line on the reader's thread. */
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void perLine() throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+                new ByteArrayInputStream(input), StandardCharsets.UTF_8));
+        String line;
+        while ((line = in.readLine()) != null) {
+            out.println(line);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package protocol;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import org.junit.jupiter.api.Test;
+
+/** Per-frame deflate with the preset dictionary, and {@link Compression#inflate} undoing it. */
+class CompressionTest {
+
+    private static final byte[] LINE =
+            "[12:34:56] Guest_1234: thanks, I'm in #general – see you there lol".getBytes(StandardCharsets.UTF_8);
+
+    /** Compresses one payload the way the server does: fresh state, primed with the dictionary. */
+    private static byte[] deflate(byte[] payload, boolean dictionary) {
+        Deflater deflater = Compression.newDeflater(Deflater.BEST_SPEED);
+        try {
+            if (dictionary) deflater.setDictionary(Compression.DICTIONARY);
+            deflater.setInput(payload);
+            deflater.finish();
+            byte[] out = new byte[payload.length + 64];
+            int n = deflater.deflate(out);
+            assertTrue(deflater.finished());
+            return Arrays.copyOf(out, n);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Test
+    void roundTripWithTheDictionary() throws DataFormatException {
+        byte[] deflated = deflate(LINE, true);
+        Inflater inflater = Compression.newInflater();
+        byte[] out = new byte[BinaryProtocol.MAX_PAYLOAD_BYTES];
+
+        for (int i = 0; i < 2; i++) {                   // the inflater is reset between frames
+            int n = Compression.inflate(inflater, deflated, 0, deflated.length, out);
+            assertArrayEquals(LINE, Arrays.copyOf(out, n));
+        }
+        assertTrue(deflated.length < deflate(LINE, false).length);     // the dictionary pays off
+    }
+
+    @Test
+    void truncatedOrOversizedStreamsAreRefused() {
+        byte[] deflated = deflate(LINE, true);
+        Inflater inflater = Compression.newInflater();
+
+        assertThrows(DataFormatException.class, () ->
+                Compression.inflate(inflater, deflated, 0, deflated.length / 2, new byte[LINE.length]));
+        assertThrows(DataFormatException.class, () ->
+                Compression.inflate(inflater, deflated, 0, deflated.length, new byte[LINE.length - 1]));
+    }
+}
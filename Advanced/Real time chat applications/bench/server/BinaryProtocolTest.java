@@ -0,0 +1,83 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+import protocol.BinaryProtocol;
+
+/** {@link BinaryProtocol} frames as encoded, and as {@link LineReader} decodes them, up to the size limit. */
+class BinaryProtocolTest {
+
+    /** Hands out at most 1000 bytes per read, as a socket might. */
+    private static InputStream trickle(byte[] bytes) {
+        return new ByteArrayInputStream(bytes) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 1000));
+            }
+        };
+    }
+
+    private static byte[] bytes(ByteBuffer... buffers) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (ByteBuffer buffer : buffers) {
+            byte[] b = new byte[buffer.remaining()];
+            buffer.duplicate().get(b);
+            out.writeBytes(b);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    void largestFrameRoundTrips() throws IOException {
+        byte[] payload = new byte[BinaryProtocol.MAX_PAYLOAD_BYTES];
+        Arrays.fill(payload, (byte) 'x');
+        ByteBuffer frame = BinaryProtocol.frame(BinaryProtocol.MESSAGE, 42, payload, 0, payload.length);
+        assertEquals(BinaryProtocol.MAX_FRAME_BYTES, frame.remaining());
+        assertEquals(BinaryProtocol.MAX_FRAME_BYTES - 4, frame.getInt(0));
+
+        byte[] negotiate = (BinaryProtocol.NEGOTIATE + "\n").getBytes(StandardCharsets.US_ASCII);
+        byte[] ping = bytes(BinaryProtocol.frame(BinaryProtocol.PING, 0, new byte[0], 0, 0));
+        LineReader in = new LineReader(trickle(bytes(ByteBuffer.wrap(negotiate), frame, ByteBuffer.wrap(ping))));
+
+        assertTrue(in.readLine());                      // the text line before the switch carries over
+        assertEquals(BinaryProtocol.NEGOTIATE, new String(in.lineBuffer(), in.lineOffset(), in.lineLength(),
+                StandardCharsets.US_ASCII));
+        assertTrue(in.readFrame());
+        assertEquals(BinaryProtocol.MESSAGE, in.frameOpcode());
+        assertEquals(42, in.frameRoomId());
+        assertArrayEquals(payload, Arrays.copyOfRange(in.frameBuffer(), in.frameOffset(),
+                in.frameOffset() + in.frameLength()));
+        assertTrue(in.readFrame());
+        assertEquals(BinaryProtocol.PING, in.frameOpcode());
+        assertEquals(0, in.frameLength());
+        assertFalse(in.readFrame());
+    }
+
+    @Test
+    void framesOverTheLimitAreRefused() {
+        ByteBuffer header = ByteBuffer.allocate(BinaryProtocol.HEADER_BYTES);
+        BinaryProtocol.putHeader(header, BinaryProtocol.MESSAGE, 1, BinaryProtocol.MAX_PAYLOAD_BYTES + 1).flip();
+        LineReader in = new LineReader(trickle(bytes(header)));
+
+        assertThrows(IOException.class, in::readFrame);
+    }
+
+    @Test
+    void framesTooShortForAHeaderAreRefused() {
+        LineReader in = new LineReader(trickle(new byte[] {0, 0, 0, 4, BinaryProtocol.PING, 0, 0, 0}));
+
+        assertThrows(IOException.class, in::readFrame);
+    }
+}
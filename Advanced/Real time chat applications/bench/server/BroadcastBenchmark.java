@@ -0,0 +1,78 @@
+package server;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Room fan-out: one {@link ChatRoom#broadcast} to rooms of 10, 1k and 10k
+ * members backed by {@link StubConnection}s, either on the calling thread
+ * ({@code shards=0}) or handed to the room's shard. With a shard the time
+ * per broadcast is the shard's sustained rate, since the sender waits once
+ * the shard queue is full.
+ *
+ * At the end of each trial it prints how many bytes were charset-encoded
+ * per broadcast, which should stay at one message's worth regardless of
+ * the member count.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BroadcastBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    int members;
+
+    @Param({"0", "1"})
+    int shards;
+
+    private ChatRoom room;
+    private ClientHandler sender;
+    private long broadcasts;
+    private long encodedBytesAtStart;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        System.setProperty("chat.shards", String.valueOf(shards));
+        ServerContext context = new ServerContext(ServerConfig.load(0));
+        room = context.rooms.getOrCreate("bench");
+        for (int i = 0; i < members; i++) {
+            ClientHandler member = new ClientHandler(new StubConnection(), context);
+            room.addMember(member);
+            if (i == 0) sender = member;
+        }
+        encodedBytesAtStart = EncodedMessage.encodedBytes();
+    }
+
+    @Benchmark
+    public void broadcast() {
+        broadcasts++;
+        room.broadcast("[12:00:00] alice: the quick brown fox jumps over the lazy dog", sender);
+    }
+
+    @TearDown(Level.Trial)
+    public void report() throws InterruptedException {
+        CountDownLatch drained = new CountDownLatch(1);
+        room.execute(drained::countDown);
+        drained.await();
+        long encoded = EncodedMessage.encodedBytes() - encodedBytesAtStart;
+        System.out.printf("%n[members=%d, shards=%d] bytes encoded per broadcast: %.1f%n",
+                members, shards, (double) encoded / Math.max(1, broadcasts));
+    }
+}
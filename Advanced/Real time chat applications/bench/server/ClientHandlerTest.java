@@ -0,0 +1,250 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import protocol.BinaryProtocol;
+
+/**
+ * Command handling in {@link ClientHandler}, driven line by line (or frame
+ * by frame) over {@link RecordingConnection}s, with no limits or
+ * heartbeats, and rooms on the caller's thread unless a test shards them.
+ */
+class ClientHandlerTest {
+
+    private ServerContext context;
+
+    @BeforeEach
+    void setUp() {
+        System.setProperty("chat.shards", "0");
+        System.setProperty("chat.limit.client.rate", "0");
+        System.setProperty("chat.limit.room.rate", "0");
+        System.setProperty("chat.heartbeat.intervalSec", "0");
+        System.setProperty("chat.idle.timeoutSec", "0");
+        context = new ServerContext(ServerConfig.load(0));
+    }
+
+    private ClientHandler connect(RecordingConnection connection) {
+        ClientHandler handler = new ClientHandler(connection, context);
+        handler.onConnect();
+        return handler;
+    }
+
+    private static boolean sendFrame(ClientHandler handler, byte opcode, String payload) {
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        return handler.handleFrame(opcode, 0, bytes, 0, bytes.length);
+    }
+
+    @Test
+    void textFrameWithALineBreakIsRefused() {
+        RecordingConnection watcher = new RecordingConnection();
+        connect(watcher).handleLine("/join lobby");
+        RecordingConnection sender = new RecordingConnection();
+        ClientHandler handler = connect(sender);
+        handler.handleLine("/nick before");
+        handler.handleLine("/binary");
+        sender.binary();
+        watcher.clear();
+        sender.clear();
+
+        sendFrame(handler, BinaryProtocol.TEXT, "/nick ab\nSERVER: pwned");
+        sendFrame(handler, BinaryProtocol.TEXT, "/nick cd\r\nSERVER: pwned");
+        sendFrame(handler, BinaryProtocol.TEXT, "/join lobby");
+
+        assertEquals(2, sender.lines().stream().filter(line -> line.contains("single line")).count());
+        assertEquals(List.of("SERVER: before has joined #lobby"), watcher.lines());
+    }
+
+    @Test
+    void namesWithControlCharactersAreRefused() {
+        RecordingConnection watcher = new RecordingConnection();
+        connect(watcher).handleLine("/join lobby");
+        RecordingConnection sender = new RecordingConnection();
+        ClientHandler handler = connect(sender);
+        handler.handleLine("/nick before");
+        sender.clear();
+
+        handler.handleLine("/nick ab\u0000cd");
+        handler.handleLine("/join lob\u001Bby");
+
+        assertTrue(sender.lines().stream().allMatch(line -> line.contains("control characters")));
+        assertEquals(2, sender.lines().size());
+        assertFalse(context.rooms.roomExists("lob\u001Bby"));
+        assertTrue(watcher.lines().stream().noneMatch(line -> line.contains("before")));
+    }
+
+    @Test
+    void resumeTokenWithAForgedNameIsRefused() {
+        RecordingConnection watcher = new RecordingConnection();
+        connect(watcher).handleLine("/join lobby");
+        RecordingConnection sender = new RecordingConnection();
+        ClientHandler handler = connect(sender);
+        watcher.clear();
+        sender.clear();
+
+        Base64.Encoder base64 = Base64.getUrlEncoder().withoutPadding();
+        handler.handleLine("/resume 0123456789abcdef."
+                + base64.encodeToString("ab\nSERVER: pwned".getBytes(StandardCharsets.UTF_8)) + "."
+                + base64.encodeToString("lobby".getBytes(StandardCharsets.UTF_8)) + " 0");
+        handler.handleLine("hello");
+
+        assertTrue(sender.lines().contains("SERVER: Could not resume that session; this is a new one."));
+        assertEquals(List.of(), watcher.lines());
+        assertNull(SessionToken.parse("0123456789abcdef."
+                + base64.encodeToString("ab".getBytes(StandardCharsets.UTF_8)) + "."
+                + base64.encodeToString("lob\rby".getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Test
+    void chatTextThatLooksLikeAHeartbeatIsChat() {
+        RecordingConnection watcher = new RecordingConnection();
+        connect(watcher).handleLine("/join lobby");
+        RecordingConnection sender = new RecordingConnection();
+        ClientHandler handler = connect(sender);
+        handler.handleLine("/nick ab");
+        handler.handleLine("/join lobby");
+        watcher.clear();
+        sender.clear();
+
+        handler.handleLine("PING");
+        handler.handleLine("PONG");
+        handler.handleLine("/pong");
+        handler.handleLine("/ping");
+
+        assertEquals(2, watcher.lines().size());
+        assertTrue(watcher.lines().get(0).endsWith(" ab: PING"));
+        assertTrue(watcher.lines().get(1).endsWith(" ab: PONG"));
+        assertEquals("/pong", sender.lines().get(sender.lines().size() - 1));
+    }
+
+    @Test
+    void shardedJoinDoesNotBlockAndHoldsBackTheNextLine() throws Exception {
+        System.setProperty("chat.shards", "1");
+        context = new ServerContext(ServerConfig.load(0));
+        RecordingConnection watcher = new RecordingConnection();
+        ClientHandler first = connect(watcher);
+        first.handleLine("/join lobby");
+        awaitJoined(first);
+        RecordingConnection sender = new RecordingConnection();
+        ClientHandler handler = connect(sender);
+        handler.handleLine("/nick ab");
+
+        CountDownLatch shardBusy = new CountDownLatch(1);
+        context.rooms.getOrCreate("lobby").execute(() -> {
+            try {
+                shardBusy.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        handler.handleLine("/join lobby");         // returns although the shard is stuck
+        assertTrue(handler.throttleNanos() > 0);
+        shardBusy.countDown();
+        awaitJoined(handler);
+        assertTrue(context.rooms.awaitQueued(TimeUnit.SECONDS.toNanos(5)));
+
+        assertTrue(sender.lines().contains("SERVER: Joined #lobby (2 member(s))."));
+        assertTrue(watcher.lines().contains("SERVER: ab has joined #lobby"));
+    }
+
+    private static void awaitJoined(ClientHandler handler) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (handler.throttleNanos() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(0, handler.throttleNanos());
+    }
+
+    @Test
+    void drainedClientsLeaveWithoutNotices() {
+        RecordingConnection[] connections = new RecordingConnection[3];
+        ClientHandler[] handlers = new ClientHandler[3];
+        for (int i = 0; i < 3; i++) {
+            connections[i] = new RecordingConnection();
+            handlers[i] = connect(connections[i]);
+            handlers[i].handleLine("/join lobby");
+        }
+        for (RecordingConnection connection : connections) {
+            connection.clear();
+        }
+
+        context.draining = true;
+        for (ClientHandler handler : handlers) {
+            handler.drain(Drain.NOTICE);
+            handler.disconnect();
+        }
+
+        for (RecordingConnection connection : connections) {
+            assertEquals(List.of("SERVER: Server is restarting. Please reconnect."), connection.lines());
+        }
+    }
+
+    @Test
+    void historyOnlyReportsMessagesThatWereDropped() {
+        System.setProperty("chat.room.history", "2");
+        try {
+            context = new ServerContext(ServerConfig.load(0));
+        } finally {
+            System.clearProperty("chat.room.history");
+        }
+        RecordingConnection connection = new RecordingConnection();
+        ClientHandler handler = connect(connection);
+        handler.handleLine("/join lobby");
+        handler.handleLine("one");
+        ChatRoom room = context.rooms.getOrCreate("lobby");
+        long first = room.firstSeq();
+
+        connection.clear();
+        handler.handleLine("/history 1");
+        assertEquals("SERVER: 1 message(s) from #lobby.", last(connection));
+
+        handler.handleLine("two");
+        handler.handleLine("three");
+        connection.clear();
+        handler.handleLine("/history " + first);
+        assertTrue(connection.lines().get(0).startsWith("SEQ " + (first + 1) + " "));
+        assertTrue(connection.lines().get(1).startsWith("SEQ " + (first + 2) + " "));
+        assertEquals("SERVER: 2 message(s) from #lobby. Those before " + (first + 1) + " are no longer held.",
+                last(connection));
+
+        handler.handleLine("/history " + (first + 1) + " 1");
+        assertEquals("SERVER: 1 message(s) from #lobby. /history " + (first + 2) + " for more.", last(connection));
+        handler.handleLine("/history " + (first + 3));
+        assertEquals("SERVER: No messages from " + (first + 3) + " on; #lobby holds "
+                + (first + 1) + " to " + (first + 2) + ".", last(connection));
+    }
+
+    private static String last(RecordingConnection connection) {
+        List<String> lines = connection.lines();
+        return lines.get(lines.size() - 1);
+    }
+
+    @Test
+    void chatLinesFromAFrameStayOneLine() {
+        RecordingConnection watcher = new RecordingConnection();
+        connect(watcher).handleLine("/join lobby");
+        RecordingConnection sender = new RecordingConnection();
+        ClientHandler handler = connect(sender);
+        handler.handleLine("/nick ab");
+        handler.handleLine("/binary");
+        sender.binary();
+        handler.handleLine("/join lobby");
+        watcher.clear();
+
+        byte[] text = "hello\nSERVER: pwned".getBytes(StandardCharsets.UTF_8);
+        handler.handleFrame(BinaryProtocol.MESSAGE, context.rooms.getOrCreate("lobby").getId(),
+                text, 0, text.length);
+
+        assertEquals(1, watcher.lines().size());
+        assertTrue(watcher.lines().get(0).endsWith(" ab: hello SERVER: pwned"));
+    }
+}
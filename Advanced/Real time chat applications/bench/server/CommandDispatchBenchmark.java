@@ -0,0 +1,76 @@
+package server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Inbound line dispatch through {@link ClientHandler#handleLine} for the
+ * common commands and for a plain chat message, with the client sitting in
+ * a small room of stub members. Lines are handed over as bytes, the way
+ * the transports do. Run with {@code -prof gc} for the allocation per line.
+ *
+ * {@code online} adds connected clients outside the room, which only the
+ * server-wide commands (/msg, /whois, /who *) see; try
+ * {@code -p online=100000} to check those stay flat as the server fills.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CommandDispatchBenchmark {
+
+    private static final int ROOM_SIZE = 8;
+
+    @Param({"hello everyone, how is it going?", "/who", "/rooms", "/nick bench", "/stats", "/bogus",
+            "/msg member1 are you there?", "/whois member1", "/who *"})
+    String line;
+
+    /** Clients connected elsewhere on the server. */
+    @Param({"1000"})
+    int online;
+
+    /** Room shards; 0 keeps the whole message path on the benchmark thread. */
+    @Param({"0"})
+    int shards;
+
+    private ClientHandler handler;
+    private byte[] bytes;
+
+    @Setup
+    public void setUp() {
+        System.setProperty("chat.shards", String.valueOf(shards));
+        System.setProperty("chat.limit.client.rate", "0");    // measure dispatch, not the limits
+        System.setProperty("chat.limit.room.rate", "0");
+        ServerContext context = new ServerContext(ServerConfig.load(0));
+        for (int i = 0; i < ROOM_SIZE - 1; i++) {
+            ClientHandler other = new ClientHandler(new StubConnection(), context);
+            other.handleLine("/nick member" + i);
+            other.handleLine("/join lobby");
+        }
+        for (int i = 0; i < online; i++) {
+            new ClientHandler(new StubConnection(), context);
+        }
+        handler = new ClientHandler(new StubConnection(), context);
+        handler.handleLine("/join lobby");
+        bytes = line.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public boolean dispatch() {
+        return handler.handleLine(bytes, 0, bytes.length);
+    }
+}
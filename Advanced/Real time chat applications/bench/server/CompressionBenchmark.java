@@ -0,0 +1,129 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import protocol.BinaryProtocol;
+import protocol.Compression;
+
+/**
+ * CPU cost of compressing broadcasts for /binary deflate clients, per
+ * message (it is paid once per room, not per member), next to the cost of
+ * encoding the message at all. Messages cycle through a corpus of typical
+ * chat lines; the compression ratio over the corpus is printed at the end
+ * of each trial.
+ *
+ * {@code deflateAtLevel} compresses the same payloads at each {@code level}
+ * to show what a slower level would buy; the server uses
+ * {@link EncodedMessage#DEFLATE_LEVEL}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CompressionBenchmark {
+
+    private static final String[] TEXTS = {
+            "hi",
+            "lol",
+            "hello everyone, how is it going?",
+            "anyone around to review my pull request? it's the one about the build",
+            "thanks, that fixed it",
+            "https://www.example.com/watch?v=dQw4w9WgXcQ",
+            "I don't think that's right, the tests were green on my machine yesterday",
+            "brb, lunch",
+            "what time is the standup today?",
+            "ok sounds good",
+            "did you see the new release notes? the startup time is way better now",
+            "yes",
+    };
+
+    @Param({"1", "6"})
+    int level;
+
+    private String[] lines;
+    private byte[][] payloads;
+    private Deflater deflater;
+    private byte[] out;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        lines = new String[TEXTS.length * 4];
+        payloads = new byte[lines.length][];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = String.format("[12:%02d:%02d] Guest_%04d: %s",
+                    i % 60, (i * 7) % 60, 1000 + (i * 37) % 9000, TEXTS[i % TEXTS.length]);
+            payloads[i] = lines[i].getBytes(StandardCharsets.UTF_8);
+        }
+        deflater = Compression.newDeflater(level);
+        out = new byte[BinaryProtocol.MAX_FRAME_BYTES];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        long raw = 0;
+        long server = 0;
+        long atLevel = 0;
+        for (int i = 0; i < lines.length; i++) {
+            EncodedMessage message = EncodedMessage.forRoom(lines[i], BinaryProtocol.MESSAGE, 1);
+            raw += message.frame().remaining();
+            server += message.deflatedFrame().remaining();
+            atLevel += BinaryProtocol.HEADER_BYTES + 1 + deflate(payloads[i]);
+        }
+        System.out.printf("%nframe bytes over the corpus: %d plain, %d as sent (%.1f%%), %d at level %d (%.1f%%)%n",
+                raw, server, 100.0 * server / raw, atLevel, level, 100.0 * atLevel / raw);
+        deflater.end();
+    }
+
+    /** Baseline: encode a broadcast and take its plain frame. */
+    @Benchmark
+    public ByteBuffer frame() {
+        return EncodedMessage.forRoom(nextLine(), BinaryProtocol.MESSAGE, 1).frame();
+    }
+
+    /** Encode a broadcast and compress it, as for the first deflate member of the room. */
+    @Benchmark
+    public ByteBuffer deflatedFrame() {
+        return EncodedMessage.forRoom(nextLine(), BinaryProtocol.MESSAGE, 1).deflatedFrame();
+    }
+
+    /** Compression alone, at {@code level}. */
+    @Benchmark
+    public int deflateAtLevel() {
+        byte[] payload = payloads[next];
+        next = (next + 1) % payloads.length;
+        return deflate(payload);
+    }
+
+    private String nextLine() {
+        String line = lines[next];
+        next = (next + 1) % lines.length;
+        return line;
+    }
+
+    private int deflate(byte[] payload) {
+        deflater.reset();
+        deflater.setDictionary(Compression.DICTIONARY);
+        deflater.setInput(payload);
+        deflater.finish();
+        return deflater.deflate(out);
+    }
+}
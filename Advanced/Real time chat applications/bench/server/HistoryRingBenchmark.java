@@ -0,0 +1,90 @@
+package server;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import protocol.BinaryProtocol;
+
+/**
+ * A room's recent-message ring ({@link HistoryRing}) with four threads
+ * broadcasting into the same room at once, as when rooms are not sharded:
+ * the lock-free append against the synchronized ring it replaced, and a
+ * 20-message /history page read while nothing is appended.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class HistoryRingBenchmark {
+
+    private static final int CAPACITY = 256;
+    private static final int PAGE = 20;
+
+    private HistoryRing ring;
+    private LockedRing locked;
+    private HistoryRing full;
+    private EncodedMessage message;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        message = EncodedMessage.forRoom("[12:00:00] someone: a typical chat line in a busy room",
+                BinaryProtocol.MESSAGE, 1);
+        ring = new HistoryRing(CAPACITY, 1);
+        locked = new LockedRing(CAPACITY);
+        full = new HistoryRing(CAPACITY, 1);
+        for (int i = 0; i < CAPACITY; i++) {
+            full.append(EncodedMessage.forRoom("[12:00:00] someone: message " + i,
+                    BinaryProtocol.MESSAGE, 1));
+        }
+    }
+
+    /** Lock-free: one atomic increment and a release store. */
+    @Benchmark
+    public long append() {
+        return ring.append(message);
+    }
+
+    /** Baseline: the ring guarded by the room's lock. */
+    @Benchmark
+    public long appendLocked() {
+        return locked.append(message);
+    }
+
+    /** A /history page, handed over without copying. */
+    @Benchmark
+    public int readPage(Blackhole blackhole) {
+        return full.read(full.lastSeq() - PAGE + 1, PAGE, blackhole::consume);
+    }
+
+    /** The synchronized ring ChatRoom used before. */
+    static final class LockedRing {
+        private final EncodedMessage[] slots;
+        private long lastSeq;
+        private long count;
+
+        LockedRing(int capacity) {
+            slots = new EncodedMessage[capacity];
+        }
+
+        synchronized long append(EncodedMessage message) {
+            message.sequence(++lastSeq);
+            slots[(int) (count++ % slots.length)] = message;
+            return lastSeq;
+        }
+    }
+}
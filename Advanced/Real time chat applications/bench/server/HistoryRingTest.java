@@ -0,0 +1,63 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import protocol.BinaryProtocol;
+
+/** Numbering, wraparound and range reads of {@link HistoryRing}. */
+class HistoryRingTest {
+
+    private static final long FIRST = 1_000;
+
+    private static HistoryRing ringOf(int capacity, int messages) {
+        HistoryRing ring = new HistoryRing(capacity, FIRST);
+        for (int i = 0; i < messages; i++) {
+            ring.append(EncodedMessage.forRoom("[12:00:00] someone: message " + i, BinaryProtocol.MESSAGE, 1));
+        }
+        return ring;
+    }
+
+    /** The numbers of what a read passes on. */
+    private static List<Long> read(HistoryRing ring, long fromSeq, int max) {
+        List<Long> seqs = new ArrayList<>();
+        int count = ring.read(fromSeq, max, message -> seqs.add(message.seq()));
+        assertEquals(seqs.size(), count);
+        return seqs;
+    }
+
+    @Test
+    void messagesAreNumberedFromTheFirstSeq() {
+        HistoryRing ring = ringOf(4, 0);
+        assertEquals(FIRST - 1, ring.lastSeq());
+        assertEquals(FIRST, ring.oldestSeq());
+        assertEquals(List.of(), read(ring, 0, 10));
+
+        EncodedMessage message = EncodedMessage.forRoom("[12:00:00] someone: hi", BinaryProtocol.MESSAGE, 1);
+        assertEquals(FIRST, ring.append(message));
+        assertEquals(FIRST, message.seq());
+        assertEquals(FIRST + 1, ring.append(EncodedMessage.of("again")));
+        assertEquals(FIRST + 1, ring.lastSeq());
+    }
+
+    @Test
+    void wrappingAroundKeepsTheNewest() {
+        HistoryRing ring = ringOf(4, 10);
+
+        assertEquals(FIRST + 6, ring.oldestSeq());
+        assertEquals(FIRST + 9, ring.lastSeq());
+        assertEquals(List.of(FIRST + 6, FIRST + 7, FIRST + 8, FIRST + 9), read(ring, 0, 100));
+    }
+
+    @Test
+    void rangeReadsStartAtTheOldestHeldAndStopAtMax() {
+        HistoryRing ring = ringOf(4, 10);
+
+        assertEquals(List.of(FIRST + 6, FIRST + 7), read(ring, FIRST + 2, 2));   // older than held
+        assertEquals(List.of(FIRST + 8, FIRST + 9), read(ring, FIRST + 8, 5));
+        assertEquals(List.of(), read(ring, FIRST + 10, 5));                    // not yet produced
+        assertEquals(List.of(FIRST, FIRST + 1), read(ringOf(4, 2), 1, 5));      // before the first
+    }
+}
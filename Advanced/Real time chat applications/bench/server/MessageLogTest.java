@@ -0,0 +1,163 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** The per-room message log as rooms come and go, through {@link ClientHandler} commands. */
+class MessageLogTest {
+
+    @TempDir
+    Path dir;
+
+    private ServerContext context;
+
+    @BeforeEach
+    void setUp() {
+        System.setProperty("chat.shards", "0");
+        System.setProperty("chat.limit.client.rate", "0");
+        System.setProperty("chat.limit.room.rate", "0");
+        System.setProperty("chat.heartbeat.intervalSec", "0");
+        System.setProperty("chat.idle.timeoutSec", "0");
+        System.setProperty("chat.log.dir", dir.toString());
+        context = new ServerContext(ServerConfig.load(0));
+    }
+
+    @AfterEach
+    void tearDown() {
+        System.clearProperty("chat.log.dir");
+        System.clearProperty("chat.log.replay.count");
+        System.clearProperty("chat.log.segmentMb");
+    }
+
+    private ClientHandler connect(RecordingConnection connection) {
+        ClientHandler handler = new ClientHandler(connection, context);
+        handler.onConnect();
+        return handler;
+    }
+
+    private void flush() throws InterruptedException {
+        assertTrue(context.log.flush(TimeUnit.SECONDS.toNanos(5)));
+    }
+
+    private long directories() throws IOException {
+        try (Stream<Path> entries = Files.list(dir)) {
+            return entries.count();
+        }
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> entries = Files.walk(dir)) {
+            return entries.filter(p -> p.toString().endsWith(".log")).sorted().toList();
+        }
+    }
+
+    @Test
+    void roomsWithoutMessagesLeaveNothingBehind() throws Exception {
+        ClientHandler client = connect(new RecordingConnection());
+        for (int i = 0; i < 100; i++) {
+            client.handleLine("/join room-" + i);
+        }
+        client.handleLine("/leave");
+        flush();
+
+        assertEquals(0, directories());
+    }
+
+    @Test
+    void removedRoomIsReplayedWhenJoinedAgain() throws Exception {
+        ClientHandler first = connect(new RecordingConnection());
+        first.handleLine("/join lobby");
+        first.handleLine("hello");
+        first.handleLine("/leave");
+        flush();
+        assertEquals(1, directories());
+
+        RecordingConnection later = new RecordingConnection();
+        connect(later).handleLine("/join lobby");
+        flush();
+
+        assertTrue(later.lines().contains("SERVER: Last 1 message(s) in #lobby:"));
+        assertTrue(later.lines().stream().anyMatch(line -> line.endsWith(": hello")));
+    }
+
+    @Test
+    void tornLastRecordIsCutOffNotReplayed() throws Exception {
+        ClientHandler first = connect(new RecordingConnection());
+        first.handleLine("/join lobby");
+        first.handleLine("hello");
+        first.handleLine("/leave");
+        flush();
+        Path segment = segments().get(0);
+        Files.write(segment, new byte[] {0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);   // crashed mid-record
+
+        context = new ServerContext(ServerConfig.load(0));
+        RecordingConnection later = new RecordingConnection();
+        ClientHandler second = connect(later);
+        second.handleLine("/join lobby");
+        flush();
+        assertTrue(later.lines().contains("SERVER: Last 1 message(s) in #lobby:"));
+
+        second.handleLine("again");             // written where the torn record was
+        second.handleLine("/leave");
+        flush();
+        context = new ServerContext(ServerConfig.load(0));
+        RecordingConnection third = new RecordingConnection();
+        connect(third).handleLine("/join lobby");
+        flush();
+        assertTrue(third.lines().contains("SERVER: Last 2 message(s) in #lobby:"));
+        assertTrue(third.lines().stream().anyMatch(line -> line.endsWith(": again")));
+    }
+
+    @Test
+    void segmentsReplayCannotReachAreDeleted() throws Exception {
+        System.setProperty("chat.log.replay.count", "1");
+        System.setProperty("chat.log.segmentMb", "1");
+        context = new ServerContext(ServerConfig.load(0));
+        ClientHandler client = connect(new RecordingConnection());
+        client.handleLine("/join lobby");
+        String text = "x".repeat(200 * 1024);
+        for (int i = 0; i < 20; i++) {
+            client.handleLine(text + i);
+        }
+        flush();
+
+        List<Path> kept = segments();
+        assertTrue(kept.size() <= 2, kept.toString());
+        assertTrue(kept.get(kept.size() - 1).getFileName().toString().compareTo("0000000000000003.log") >= 0);
+
+        RecordingConnection later = new RecordingConnection();
+        connect(later).handleLine("/join lobby");
+        flush();
+        assertTrue(later.lines().stream().anyMatch(line -> line.endsWith(text + 19)));
+    }
+
+    @Test
+    void replayIsReadOnTheLogWriterNotTheShard() throws Exception {
+        System.setProperty("chat.shards", "1");
+        context = new ServerContext(ServerConfig.load(0));
+        ClientHandler first = connect(new RecordingConnection());
+        first.handleLine("/join lobby");
+        assertTrue(context.rooms.awaitQueued(TimeUnit.SECONDS.toNanos(5)));
+        first.handleLine("hello");
+        assertTrue(context.rooms.awaitQueued(TimeUnit.SECONDS.toNanos(5)));
+
+        String[] readOn = new String[1];
+        context.rooms.getOrCreate("lobby").replayLog(10, 0,
+                lines -> readOn[0] = Thread.currentThread().getName() + ":" + lines.size());
+        flush();
+
+        assertEquals("chat-log:1", readOn[0]);
+    }
+}
@@ -0,0 +1,69 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+/** The overflow policies of {@link OutboundQueue}. */
+class OutboundQueueTest {
+
+    private static ByteBuffer message(int i) {
+        return ByteBuffer.wrap(("line " + i + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<String> drain(OutboundQueue queue) {
+        ByteBuffer[] batch = new ByteBuffer[16];
+        int n = queue.drainTo(batch);
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            lines.add(StandardCharsets.UTF_8.decode(batch[i]).toString().trim());
+        }
+        return lines;
+    }
+
+    @Test
+    void dropOldestKeepsTheNewestMessages() {
+        OutboundQueue queue = new OutboundQueue(3, OutboundQueue.OverflowPolicy.DROP_OLDEST, new ServerStats());
+        for (int i = 1; i <= 5; i++) {
+            assertTrue(queue.offer(message(i)));
+        }
+
+        assertEquals(List.of("line 3", "line 4", "line 5"), drain(queue));
+        assertEquals(2, queue.droppedCount());
+        assertFalse(queue.isClosed());
+    }
+
+    @Test
+    void disconnectDropsEverythingAndClosesTheQueue() throws InterruptedException {
+        OutboundQueue queue = new OutboundQueue(2, OutboundQueue.OverflowPolicy.DISCONNECT, new ServerStats());
+        assertTrue(queue.offer(message(1)));
+        assertTrue(queue.offer(message(2)));
+
+        assertFalse(queue.offer(message(3)));
+        assertTrue(queue.isClosed());
+        assertEquals(3, queue.droppedCount());
+        assertTrue(queue.offer(message(4)));                    // ignored once closed
+        assertEquals(List.of(), drain(queue));
+        assertEquals(0, queue.takeBatch(new ByteBuffer[4], 0));
+    }
+
+    @Test
+    void closedQueueStillDrainsWhatItHolds() throws InterruptedException {
+        OutboundQueue queue = new OutboundQueue(4, OutboundQueue.OverflowPolicy.DROP_OLDEST, new ServerStats());
+        queue.offer(message(1));
+        queue.offer(message(2));
+        queue.close();
+        queue.offer(message(3));
+
+        ByteBuffer[] batch = new ByteBuffer[4];
+        assertEquals(2, queue.takeBatch(batch, 1_000_000));
+        assertEquals(0, queue.takeBatch(batch, 0));
+        assertEquals(0, queue.droppedCount());
+    }
+}
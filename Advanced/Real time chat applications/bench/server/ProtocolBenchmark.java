@@ -0,0 +1,88 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import protocol.BinaryProtocol;
+
+/**
+ * Chat messages per second on one core, text protocol vs binary protocol:
+ * from the bytes as they arrive off the wire (one line, or one frame),
+ * through dispatch and formatting, to the encoded output handed to every
+ * member of the room. All members use the protocol under test.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ProtocolBenchmark {
+
+    private static final String TEXT = "hello everyone, how is it going?";
+
+    @Param({"text", "binary"})
+    String protocol;
+
+    @Param({"1", "100"})
+    int members;
+
+    /** Room shards; 0 keeps the whole message path on the benchmark thread. */
+    @Param({"0"})
+    int shards;
+
+    private ClientHandler sender;
+    private byte[] wire;
+    private int roomId;
+
+    @Setup
+    public void setUp() {
+        System.setProperty("chat.shards", String.valueOf(shards));
+        System.setProperty("chat.limit.client.rate", "0");    // measure dispatch, not the limits
+        System.setProperty("chat.limit.room.rate", "0");
+        ServerContext context = new ServerContext(ServerConfig.load(0));
+        boolean binary = protocol.equals("binary");
+        for (int i = 0; i < members - 1; i++) {
+            join(new ClientHandler(new StubConnection(), context), binary);
+        }
+        sender = new ClientHandler(new StubConnection(), context);
+        join(sender, binary);
+        roomId = context.rooms.getOrCreate("lobby").getId();
+
+        byte[] text = TEXT.getBytes(StandardCharsets.UTF_8);
+        if (binary) {
+            ByteBuffer frame = BinaryProtocol.frame(BinaryProtocol.MESSAGE, roomId, text, 0, text.length);
+            wire = new byte[frame.remaining()];
+            frame.get(wire);
+        } else {
+            wire = (TEXT + "\n").getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void join(ClientHandler handler, boolean binary) {
+        if (binary) handler.handleLine(BinaryProtocol.NEGOTIATE);
+        handler.handleLine("/join lobby");
+    }
+
+    /** One inbound message as the transports hand it over: a decoded line, or frame bytes. */
+    @Benchmark
+    public boolean message() {
+        if (protocol.equals("binary")) {
+            return sender.handleFrame(wire[4], roomId, wire,
+                    BinaryProtocol.HEADER_BYTES, wire.length - BinaryProtocol.HEADER_BYTES);
+        }
+        return sender.handleLine(wire, 0, wire.length - 1);
+    }
+}
@@ -0,0 +1,73 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import protocol.BinaryProtocol;
+
+/**
+ * In-memory Connection for tests: keeps every line it is sent, the way a
+ * client would see them. Text output is split on '\n'; binary frames are
+ * recorded as their payload, one entry per frame.
+ */
+class RecordingConnection implements Connection {
+
+    private final List<String> lines = new ArrayList<>();
+    private boolean binary;
+    boolean closed;
+
+    /** Records what follows as frames instead of text lines. */
+    void binary() {
+        binary = true;
+    }
+
+    @Override
+    public synchronized void send(ByteBuffer message) {
+        byte[] bytes = new byte[message.remaining()];
+        message.duplicate().get(bytes);
+        if (binary) {
+            lines.add(new String(bytes, BinaryProtocol.HEADER_BYTES, bytes.length - BinaryProtocol.HEADER_BYTES,
+                    StandardCharsets.UTF_8));
+            return;
+        }
+        String text = new String(bytes, StandardCharsets.UTF_8);
+        for (String line : text.split("\n", -1)) {
+            if (!line.isEmpty()) lines.add(line);
+        }
+    }
+
+    /** Everything received so far. */
+    synchronized List<String> lines() {
+        return List.copyOf(lines);
+    }
+
+    synchronized void clear() {
+        lines.clear();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    @Override
+    public void abort() {
+        closed = true;
+    }
+
+    @Override
+    public String remoteAddress() {
+        return "test";
+    }
+
+    @Override
+    public boolean isLoopback() {
+        return true;
+    }
+
+    @Override
+    public long droppedMessages() {
+        return 0;
+    }
+}
@@ -0,0 +1,80 @@
+package server;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Room churn under contention: every operation joins a random room
+ * (creating it if needed), leaves it again and lets the manager drop it
+ * when empty. Fewer rooms means more threads fighting over the same keys.
+ * With {@code shards=1} every join is a round trip to the room's shard
+ * (which the benchmark waits for; the server does not).
+ *
+ * Override the thread count with {@code -t N}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class RoomManagerBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Shared {
+        @Param({"4", "1024"})
+        int rooms;
+
+        @Param({"0", "1"})
+        int shards;
+
+        ServerContext context;
+        RoomManager roomManager;
+        String[] names;
+
+        @Setup
+        public void setUp() {
+            System.setProperty("chat.shards", String.valueOf(shards));
+            context = new ServerContext(ServerConfig.load(0));
+            roomManager = context.rooms;
+            names = new String[rooms];
+            for (int i = 0; i < rooms; i++) {
+                names[i] = "room-" + i;
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+        ClientHandler handler;
+
+        @Setup
+        public void setUp(Shared shared) {
+            handler = new ClientHandler(new StubConnection(), shared.context);
+        }
+    }
+
+    @Benchmark
+    public ChatRoom joinAndLeave(Shared shared, Client client) {
+        String name = shared.names[ThreadLocalRandom.current().nextInt(shared.names.length)];
+        CompletableFuture<ChatRoom> joined = new CompletableFuture<>();
+        shared.roomManager.join(name, client.handler, joined::complete);
+        ChatRoom room = joined.join();
+        shared.roomManager.leave(room, client.handler);
+        return room;
+    }
+}
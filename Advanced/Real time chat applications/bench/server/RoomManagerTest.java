@@ -0,0 +1,62 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/** Room creation, removal and id reuse in {@link RoomManager}, with rooms on the caller's thread. */
+class RoomManagerTest {
+
+    private ServerContext context;
+    private RoomManager rooms;
+
+    @BeforeEach
+    void setUp() {
+        System.setProperty("chat.shards", "0");
+        System.setProperty("chat.heartbeat.intervalSec", "0");
+        System.setProperty("chat.idle.timeoutSec", "0");
+        context = new ServerContext(ServerConfig.load(0));
+        rooms = context.rooms;
+    }
+
+    /** Joins right away: rooms run on the caller's thread here. */
+    private ChatRoom join(String roomName, ClientHandler client) {
+        ChatRoom[] joined = new ChatRoom[1];
+        rooms.join(roomName, client, room -> joined[0] = room);
+        return joined[0];
+    }
+
+    @Test
+    void removedRoomsGiveTheirIdsBack() {
+        ClientHandler client = new ClientHandler(new RecordingConnection(), context);
+        for (int i = 0; i < 10_000; i++) {
+            ChatRoom room = join("room-" + i, client);
+            assertEquals(1, room.getId());
+            rooms.leave(room, client);
+        }
+        assertTrue(rooms.getAllRooms().isEmpty());
+        assertFalse(rooms.roomExists("room-0"));
+        assertNull(rooms.get(1));
+    }
+
+    @Test
+    void listsOnlyLiveRooms() {
+        ClientHandler alice = new ClientHandler(new RecordingConnection(), context);
+        ClientHandler bob = new ClientHandler(new RecordingConnection(), context);
+        ChatRoom lobby = join("lobby", alice);
+        ChatRoom games = join("games", bob);
+        rooms.leave(games, bob);
+        ChatRoom music = join("music", bob);
+
+        assertEquals(List.of(lobby, music), rooms.getAllRooms().stream()
+                .sorted((a, b) -> a.getId() - b.getId()).toList());
+        assertSame(music, rooms.get(games.getId()));
+        assertSame(lobby, rooms.getOrCreate("lobby"));
+    }
+}
@@ -0,0 +1,42 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.file.Path;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/** Per-node settings of an in-JVM loopback cluster. */
+class ServerConfigTest {
+
+    @AfterEach
+    void tearDown() {
+        System.clearProperty("chat.stats.file");
+        System.clearProperty("chat.log.dir");
+    }
+
+    @Test
+    void loopbackNodesGetTheirOwnFiles() {
+        System.setProperty("chat.stats.file", "out/stats.log");
+        System.setProperty("chat.log.dir", "out/log");
+        ServerConfig config = ServerConfig.load(5000);
+
+        ServerConfig first = config.forLoopbackNode(0);
+        ServerConfig second = config.forLoopbackNode(1);
+
+        assertEquals(5001, second.port);
+        assertEquals(Path.of("out/stats-node-1.log"), first.statsFile);
+        assertEquals(Path.of("out/stats-node-2.log"), second.statsFile);
+        assertEquals(Path.of("out/log/node-2"), second.logDir);
+    }
+
+    @Test
+    void statsFileWithoutExtensionOrAtAll() {
+        System.setProperty("chat.stats.file", "stats");
+        assertEquals(Path.of("stats-node-3"), ServerConfig.load(5000).forLoopbackNode(2).statsFile);
+
+        System.clearProperty("chat.stats.file");
+        assertNull(ServerConfig.load(5000).forLoopbackNode(2).statsFile);
+    }
+}
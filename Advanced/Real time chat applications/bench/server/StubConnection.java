@@ -0,0 +1,42 @@
+package server;
+
+import java.nio.ByteBuffer;
+
+/**
+ * In-memory Connection for benchmarks: counts the messages and bytes it
+ * is given instead of writing them.
+ */
+class StubConnection implements Connection {
+
+    long messages;
+    long bytes;
+
+    @Override
+    public void send(ByteBuffer message) {
+        messages++;
+        bytes += message.remaining();
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public void abort() {
+    }
+
+    @Override
+    public String remoteAddress() {
+        return "stub";
+    }
+
+    @Override
+    public boolean isLoopback() {
+        return true;
+    }
+
+    @Override
+    public long droppedMessages() {
+        return 0;
+    }
+}
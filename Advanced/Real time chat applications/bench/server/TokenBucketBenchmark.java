@@ -0,0 +1,53 @@
+package server;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of the rate-limit checks on the message path: a client's own bucket
+ * (one thread) and a room's bucket shared by every sender in the room.
+ * The rate is high enough that no call is ever refused.
+ *
+ * Override the thread count with {@code -t N}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class TokenBucketBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Room {
+        final TokenBucket bucket = new TokenBucket(Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+        final TokenBucket bucket = new TokenBucket(Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    @Benchmark
+    public long clientCheck(Client client) {
+        long now = System.nanoTime();
+        long wait = client.bucket.delayNanos(now);
+        client.bucket.acquire(now);
+        return wait;
+    }
+
+    @Benchmark
+    public long roomAdmit(Room room) {
+        return room.bucket.tryAcquire(System.nanoTime());
+    }
+}
@@ -0,0 +1,78 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+/** Refill, borrowing and concurrent use of {@link TokenBucket}, on a clock the test controls. */
+class TokenBucketTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    void burstThenOneTokenPerInterval() {
+        TokenBucket bucket = new TokenBucket(10, 2);        // a token every 100 ms
+        long now = System.nanoTime();
+
+        assertEquals(0, bucket.tryAcquire(now));
+        assertEquals(0, bucket.tryAcquire(now));
+        assertEquals(100 * MS, bucket.tryAcquire(now));
+        assertEquals(100 * MS, bucket.delayNanos(now));
+        assertEquals(40 * MS, bucket.tryAcquire(now + 60 * MS));
+        assertEquals(0, bucket.tryAcquire(now + 100 * MS));
+        assertEquals(0, bucket.delayNanos(now + 10_000 * MS));
+    }
+
+    @Test
+    void acquireBorrowsAndLaterCallersWait() {
+        TokenBucket bucket = new TokenBucket(10, 1);
+        long now = System.nanoTime();
+
+        bucket.acquire(now);
+        assertEquals(100 * MS, bucket.delayNanos(now));
+        bucket.acquire(now);                                // over budget: taken anyway
+        assertEquals(200 * MS, bucket.delayNanos(now));     // the borrowed token is paid back first
+        assertEquals(100 * MS, bucket.tryAcquire(now + 100 * MS));
+        assertEquals(0, bucket.tryAcquire(now + 200 * MS));
+    }
+
+    @Test
+    void noBucketWithoutARate() {
+        assertNull(TokenBucket.of(0, 20));
+    }
+
+    @Test
+    void racingThreadsShareTheBurstExactly() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(1000, 500);
+        long now = System.nanoTime();
+        AtomicInteger granted = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < 1000; i++) {
+                    if (bucket.tryAcquire(now) == 0) granted.incrementAndGet();
+                }
+            });
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+        }
+
+        assertEquals(500, granted.get());
+        assertTrue(bucket.delayNanos(now) > 0);
+        assertEquals(0, bucket.tryAcquire(now + 1000 * MS));
+    }
+}
@@ -0,0 +1,104 @@
+package server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import protocol.BinaryProtocol;
+
+/**
+ * Chat message fan-out in a 10k-member room where {@code subscribed}
+ * percent of the members filter on one of 100 #tags or their own @name
+ * (see {@link TopicIndex}). Messages alternate between untagged chatter,
+ * a #tag, and a mention. 0 is the unfiltered baseline.
+ *
+ * At the end of each trial it prints the deliveries (socket writes) and
+ * bytes handed to the members per message.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TopicFilterBenchmark {
+
+    private static final int MEMBERS = 10_000;
+    private static final int TAGS = 100;
+
+    @Param({"0", "50", "90"})
+    int subscribed;
+
+    private ChatRoom room;
+    private ClientHandler sender;
+    private final List<StubConnection> connections = new ArrayList<>();
+    private byte[][] lines;
+    private int next;
+    private long broadcasts;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        System.setProperty("chat.shards", "0");
+        System.setProperty("chat.limit.room.rate", "0");
+        ServerContext context = new ServerContext(ServerConfig.load(0));
+        room = context.rooms.getOrCreate("bench");
+        for (int i = 0; i < MEMBERS; i++) {
+            StubConnection connection = new StubConnection();
+            ClientHandler member = new ClientHandler(connection, context);
+            member.handleLine("/nick member" + i);
+            room.addMember(member);
+            connections.add(connection);
+            if (i * 100 < subscribed * MEMBERS && i > 0) {
+                room.subscribe(member, "@member" + i);
+                room.subscribe(member, "#tag" + (i % TAGS));
+            }
+            if (i == 0) sender = member;
+        }
+        String[] texts = {
+                "[12:00:00] member0: anyone around? the build is red again",
+                "[12:00:00] member0: pushed a fix for #tag7, please take a look",
+                "[12:00:00] member0: @member4242 can you review this one?",
+        };
+        lines = new byte[texts.length][];
+        for (int i = 0; i < texts.length; i++) {
+            byte[] text = texts[i].getBytes(StandardCharsets.UTF_8);
+            lines[i] = new byte[BinaryProtocol.HEADER_BYTES + text.length + 1];
+            System.arraycopy(text, 0, lines[i], BinaryProtocol.HEADER_BYTES, text.length);
+            lines[i][lines[i].length - 1] = '\n';
+        }
+    }
+
+    @Benchmark
+    public void broadcast() {
+        broadcasts++;
+        byte[] line = lines[next];
+        next = (next + 1) % lines.length;
+        room.broadcastAll(line, sender);
+    }
+
+    @TearDown(Level.Trial)
+    public void report() {
+        long messages = 0;
+        long bytes = 0;
+        for (StubConnection connection : connections) {
+            messages += connection.messages;
+            bytes += connection.bytes;
+        }
+        System.out.printf("%n[subscribed=%d%%] per message: %.0f deliveries, %.0f bytes%n",
+                subscribed, (double) messages / broadcasts, (double) bytes / broadcasts);
+    }
+}
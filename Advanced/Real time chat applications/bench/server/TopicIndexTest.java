@@ -0,0 +1,123 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/** Topic keys and matching in {@link TopicIndex}, and the filtered fan-out it drives. */
+class TopicIndexTest {
+
+    private ServerContext context;
+    private ClientHandler alice;
+    private ClientHandler bob;
+    private ClientHandler carol;
+
+    @BeforeEach
+    void setUp() {
+        System.setProperty("chat.shards", "0");
+        System.setProperty("chat.heartbeat.intervalSec", "0");
+        System.setProperty("chat.idle.timeoutSec", "0");
+        context = new ServerContext(ServerConfig.load(0));
+        alice = new ClientHandler(new RecordingConnection(), context);
+        bob = new ClientHandler(new RecordingConnection(), context);
+        carol = new ClientHandler(new RecordingConnection(), context);
+    }
+
+    /** Alice, Bob and Carol in a room, subscribed as given; everyone else gets everything. */
+    private TopicIndex index(Map<ClientHandler, List<String>> topics) {
+        Map<ClientHandler, Set<String>> subscriptions = new LinkedHashMap<>();
+        topics.forEach((member, keys) -> subscriptions.put(member, new LinkedHashSet<>(keys)));
+        return TopicIndex.compile(new ClientHandler[] {alice, bob, carol}, subscriptions);
+    }
+
+    private static ByteBuffer line(String line) {
+        return ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void keysAreCaseFoldedAndValidated() {
+        assertEquals("@alice", TopicIndex.key("@Alice"));
+        assertEquals("#tag_1-x", TopicIndex.key("#TAG_1-x"));
+        assertEquals("~café", TopicIndex.key("~Café"));
+        assertEquals("#Été", TopicIndex.key("#Été"));    // only ASCII letters fold
+        assertNull(TopicIndex.key("#"));
+        assertNull(TopicIndex.key("alice"));
+        assertNull(TopicIndex.key("#two words"));
+        assertNull(TopicIndex.key("#dot."));
+        assertEquals(TopicIndex.MAX_TOPIC_BYTES, TopicIndex.key("#" + "a".repeat(31)).length());
+        assertNull(TopicIndex.key("#" + "a".repeat(32)));
+    }
+
+    @Test
+    void topicsMatchWholeWordsIgnoringCase() {
+        TopicIndex index = index(Map.of(alice, List.of("#java")));
+
+        assertArrayEquals(new ClientHandler[] {alice}, index.match(line("[12:00:00] bob: I like #Java.")));
+        assertArrayEquals(new ClientHandler[] {alice}, index.match(line("[12:00:00] bob: (#JAVA)")));
+        assertEquals(0, index.match(line("[12:00:00] bob: #javascript")).length);
+        assertEquals(0, index.match(line("[12:00:00] bob: x#java")).length);
+        assertEquals(0, index.match(line("[12:00:00] bob: java")).length);
+    }
+
+    @Test
+    void nonAsciiBytesArePartOfTheWord() {
+        TopicIndex index = index(Map.of(alice, List.of("#caf"), bob, List.of("#café")));
+
+        assertArrayEquals(new ClientHandler[] {bob}, index.match(line("[12:00:00] carol: #café at 9?")));
+        assertArrayEquals(new ClientHandler[] {alice}, index.match(line("[12:00:00] carol: #caf, at 9?")));
+    }
+
+    @Test
+    void membersMatchedByManyTopicsGetTheMessageOnce() {
+        TopicIndex index = index(Map.of(alice, List.of("#a", "#b"), bob, List.of("#b")));
+
+        ClientHandler[] matched = index.match(line("[12:00:00] carol: #a #b #a #B"));
+
+        assertEquals(2, matched.length);
+        assertEquals(Set.of(alice, bob), Set.of(matched));
+        assertArrayEquals(new ClientHandler[] {carol}, index.unfiltered());
+    }
+
+    @Test
+    void onlyTheTextAfterTheNameCounts() {
+        TopicIndex index = index(Map.of(alice, List.of("#java")));
+
+        assertEquals(0, index.match(line("[12:00:00] #java: hello")).length);
+        assertArrayEquals(new ClientHandler[] {alice}, index.match(line("[12:00:00] bob: re: #java")));
+        assertArrayEquals(new ClientHandler[] {alice}, index.match(line("#java without a name")));
+    }
+
+    @Test
+    void senderStillGetsItsOwnMessage() {
+        RecordingConnection[] connections = new RecordingConnection[3];
+        ClientHandler[] handlers = new ClientHandler[3];
+        for (int i = 0; i < 3; i++) {
+            connections[i] = new RecordingConnection();
+            handlers[i] = new ClientHandler(connections[i], context);
+            handlers[i].onConnect();
+            handlers[i].handleLine("/join lobby");
+        }
+        handlers[0].handleLine("/sub #news");
+        handlers[1].handleLine("/sub #news");
+        for (RecordingConnection connection : connections) {
+            connection.clear();
+        }
+
+        handlers[0].handleLine("nothing to see");
+
+        assertTrue(connections[0].lines().get(0).endsWith(": nothing to see"));
+        assertEquals(List.of(), connections[1].lines());
+        assertEquals(1, connections[2].lines().size());
+    }
+}
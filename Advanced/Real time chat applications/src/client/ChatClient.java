@@ -1,20 +1,49 @@
 package client;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.PrintWriter;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import protocol.BinaryProtocol;
+import protocol.Compression;
+import protocol.Heartbeat;
+import protocol.Session;
 
 /**
  * Terminal-based JavaChat client.
  *
- * Usage: java client.ChatClient [host] [port]
+ * Usage: java client.ChatClient [--binary | --deflate] [host] [port]
  * Default: localhost:5000
  *
- * Two threads run concurrently:
- *   - Reader thread : receives messages from server and prints them
+ * With --binary the client negotiates the {@link BinaryProtocol} right
+ * after connecting and exchanges length-prefixed frames instead of lines;
+ * what you type and see is the same either way. --deflate also asks for
+ * compressed output ({@link Compression}). Server heartbeats
+ * ({@link Heartbeat}) are answered quietly.
+ *
+ * The client keeps a resumable {@link Session}. When the connection drops
+ * – including a server telling everyone to reconnect as it restarts – it
+ * reconnects on its own, waiting a random time under an exponentially
+ * growing bound between attempts, so a server's worth of clients does not
+ * come back all at once. It then resumes: same name, same room, and the
+ * chat messages it missed.
+ *
+ * Three threads run concurrently:
+ *   - Reader thread : reads the socket in bulk and queues each line's bytes;
+ *                     reconnects when the connection drops
+ *   - Render thread : prints queued lines in batches ({@link Renderer})
  *   - Main thread   : reads stdin and sends to server
  */
 public class ChatClient {
@@ -22,14 +51,64 @@ public class ChatClient {
     private static final String DEFAULT_HOST = "localhost";
     private static final int    DEFAULT_PORT = 5000;
 
+    /** Bytes the reader asks the socket for at a time. */
+    static final int READ_CHUNK_BYTES = 64 * 1024;
+
+    /** Reconnect attempt n waits a random time up to min(MAX, BASE × 2^n). */
+    private static final long BASE_BACKOFF_MILLIS = 500;
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+
+    private static final byte[] PING_LINE = Heartbeat.PING.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TOKEN_PREFIX = Session.TOKEN.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SEQ_PREFIX = Session.SEQ.getBytes(StandardCharsets.US_ASCII);
+
+    /** Receives the lines {@link #readLines} splits off the stream. */
+    interface LineSink {
+        /** One line without its terminator, only valid during the call. */
+        void line(byte[] buf, int offset, int length) throws IOException;
+    }
+
+    /** One connection to the server. */
+    private record Link(Socket socket, DataInputStream in, DataOutputStream out) {}
+
+    private final String host;
+    private final int port;
+    private final boolean binary;
+    private final boolean deflate;
+    private final Renderer renderer;
+
+    private volatile Link link;         // null while reconnecting
+    private volatile boolean quitting;
+    private volatile String token;      // from the server's latest SESSION line
+    private volatile long lastSeq;      // of the latest numbered chat line
+    private volatile boolean resuming;  // hide the new connection's banner until the token
+    /** Room the server last told us we are in (binary protocol only); 0 = none. */
+    private volatile int currentRoomId;
+
+    private ChatClient(String host, int port, boolean binary, boolean deflate, Renderer renderer) {
+        this.host = host;
+        this.port = port;
+        this.binary = binary;
+        this.deflate = deflate;
+        this.renderer = renderer;
+    }
+
     public static void main(String[] args) {
         String host = DEFAULT_HOST;
         int    port = DEFAULT_PORT;
+        boolean binary = false;
+        boolean deflate = false;
 
-        if (args.length >= 1) host = args[0];
-        if (args.length >= 2) {
+        int first = 0;
+        if (args.length > 0 && (args[0].equals("--binary") || args[0].equals("--deflate"))) {
+            binary = true;
+            deflate = args[0].equals("--deflate");
+            first = 1;
+        }
+        if (args.length >= first + 1) host = args[first];
+        if (args.length >= first + 2) {
             try {
-                port = Integer.parseInt(args[1]);
+                port = Integer.parseInt(args[first + 1]);
             } catch (NumberFormatException e) {
                 System.err.println("Invalid port. Using default: " + DEFAULT_PORT);
             }
@@ -38,45 +117,305 @@ public class ChatClient {
         System.out.println("Connecting to " + host + ":" + port + " ...");
 
         try (
-            Socket socket = new Socket(host, port);
-            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-            BufferedReader serverIn =
-                    new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            Renderer renderer = new Renderer(System.out);
             BufferedReader stdIn =
                     new BufferedReader(new InputStreamReader(System.in))
         ) {
+            ChatClient client = new ChatClient(host, port, binary, deflate, renderer);
+            Link link;
+            try {
+                link = client.connect();
+            } catch (UnknownHostException e) {
+                System.err.println("Unknown host: " + host);
+                return;
+            } catch (IOException e) {
+                System.err.println("Could not connect to " + host + ":" + port);
+                System.err.println("Make sure the server is running.");
+                return;
+            }
             System.out.println("Connected! Type /quit to exit.\n");
+            client.start(link);
+            client.readInput(stdIn);
+        } catch (IOException e) {
+            // stdin closed
+        }
+    }
+
+    /**
+     * Opens a connection, negotiates the binary protocol if asked to, and
+     * starts or resumes the session.
+     */
+    private Link connect() throws IOException {
+        Socket socket = new Socket(host, port);
+        try {
+            Link link = new Link(socket,
+                    new DataInputStream(new BufferedInputStream(socket.getInputStream(), READ_CHUNK_BYTES)),
+                    new DataOutputStream(new BufferedOutputStream(socket.getOutputStream())));
+            if (binary) negotiate(link);
+            currentRoomId = 0;                  // until the server says JOINED again
+            String session = (token == null) ? Session.START : Session.RESUME + " " + token + " " + lastSeq;
+            send(link, session, false);
+            return link;
+        } catch (IOException e) {
+            try { socket.close(); } catch (IOException ignored) {}
+            throw e;
+        }
+    }
+
+    /** Switches to the binary protocol; the banner and the confirmation are still text lines. */
+    private void negotiate(Link link) throws IOException {
+        String negotiate = deflate ? BinaryProtocol.NEGOTIATE_DEFLATE : BinaryProtocol.NEGOTIATE;
+        writeLine(link.out, negotiate);
+        String line;
+        while ((line = readTextLine(link.in)) != null && !line.equals(BinaryProtocol.ACCEPTED)
+                && !line.equals(BinaryProtocol.ACCEPTED_DEFLATE)) {
+            if (!resuming) renderer.append(line);
+        }
+        if (line == null) throw new IOException("connection closed while switching to binary");
+    }
+
+    private void start(Link first) {
+        link = first;
+        Thread readerThread = new Thread(() -> run(first), "chat-reader");
+        readerThread.setDaemon(true);
+        readerThread.start();
+    }
+
+    /** Reader thread: reads until the connection drops, then reconnects, until /quit. */
+    private void run(Link first) {
+        Link current = first;
+        while (current != null) {
+            try {
+                if (binary) {
+                    readFrames(current);
+                } else {
+                    readLines(current.in, this::line);
+                }
+            } catch (DataFormatException e) {
+                renderer.append("[Bad compressed frame from server: " + e.getMessage() + "]");
+            } catch (IOException e) {
+                // Server closed the connection
+            }
+            link = null;
+            try { current.socket.close(); } catch (IOException ignored) {}
+            current = quitting ? null : reconnect();
+        }
+        disconnected();
+    }
+
+    /**
+     * Tries again and again, each attempt after a random wait under a bound
+     * that doubles from {@link #BASE_BACKOFF_MILLIS} up to
+     * {@link #MAX_BACKOFF_MILLIS} ("full jitter"). @return null after /quit
+     */
+    private Link reconnect() {
+        for (int attempt = 0; !quitting; attempt++) {
+            long bound = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempt, 16));
+            long delay = 1 + ThreadLocalRandom.current().nextLong(bound);
+            renderer.append(String.format("[Connection lost. Reconnecting in %.1f s ...]", delay / 1000.0));
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                return null;
+            }
+            resuming = (token != null);
+            try {
+                Link next = connect();
+                link = next;
+                renderer.append("[Reconnected]");
+                return next;
+            } catch (IOException e) {
+                // Server still down; back off further
+            }
+        }
+        return null;
+    }
 
-            // Reader thread: continuously print server messages
-            Thread readerThread = new Thread(() -> {
+    /** Main thread: sends what the user types, until /quit or end of input. */
+    private void readInput(BufferedReader stdIn) throws IOException {
+        String userInput;
+        while ((userInput = stdIn.readLine()) != null) {
+            boolean quit = userInput.trim().equalsIgnoreCase("/quit");
+            if (quit) quitting = true;
+            Link current = link;
+            if (current == null) {
+                renderer.append("[Not connected – not sent]");
+            } else {
                 try {
-                    String serverLine;
-                    while ((serverLine = serverIn.readLine()) != null) {
-                        System.out.println(serverLine);
-                    }
+                    send(current, userInput, true);
                 } catch (IOException e) {
-                    // Server closed the connection
+                    renderer.append("[Connection lost – not sent]");
                 }
-                System.out.println("\n[Disconnected from server]");
-                System.exit(0);
-            });
-            readerThread.setDaemon(true);
-            readerThread.start();
-
-            // Main thread: read stdin and send to server
-            String userInput;
-            while ((userInput = stdIn.readLine()) != null) {
-                out.println(userInput);
-                if (userInput.trim().equalsIgnoreCase("/quit")) {
-                    break;
+            }
+            if (quit) {
+                break;
+            }
+        }
+    }
+
+    /** Sends one line of input: a frame on the binary protocol, chat or command. */
+    private void send(Link link, String line, boolean typed) throws IOException {
+        if (!binary) {
+            writeLine(link.out, line);
+            return;
+        }
+        byte[] payload = line.getBytes(StandardCharsets.UTF_8);
+        if (payload.length > BinaryProtocol.MAX_PAYLOAD_BYTES) {
+            renderer.append("[Line too long – not sent]");
+            return;
+        }
+        int roomId = currentRoomId;
+        boolean chat = typed && roomId != 0 && !line.startsWith("/");
+        writeFrame(link.out, chat ? BinaryProtocol.MESSAGE : BinaryProtocol.TEXT, chat ? roomId : 0, payload);
+    }
+
+    // ── Inbound ─────────────────────────────────────────────────────────────
+
+    /**
+     * Text-protocol reader loop: reads the socket {@link #READ_CHUNK_BYTES}
+     * at a time and hands each line to {@code sink} as bytes, never
+     * decoding it here. Returns at end of stream.
+     */
+    static void readLines(InputStream in, LineSink sink) throws IOException {
+        byte[] buf = new byte[READ_CHUNK_BYTES];
+        int start = 0;      // first byte of the current line
+        int end = 0;        // end of the bytes read so far
+        while (true) {
+            if (end == buf.length) {
+                if (start == 0) {
+                    // A line longer than the buffer: show it in pieces
+                    sink.line(buf, 0, end);
+                    end = 0;
+                } else {
+                    System.arraycopy(buf, start, buf, 0, end - start);
+                    end -= start;
+                    start = 0;
                 }
             }
+            int n = in.read(buf, end, buf.length - end);
+            if (n < 0) break;
+            int scan = end;
+            end += n;
+            for (int i = scan; i < end; i++) {
+                if (buf[i] != '\n') continue;
+                int length = (i > start && buf[i - 1] == '\r') ? i - 1 - start : i - start;
+                sink.line(buf, start, length);
+                start = i + 1;
+            }
+            if (start == end) {
+                start = 0;
+                end = 0;
+            }
+        }
+        if (start < end) sink.line(buf, start, end - start);
+    }
 
-        } catch (UnknownHostException e) {
-            System.err.println("Unknown host: " + host);
-        } catch (IOException e) {
-            System.err.println("Could not connect to " + host + ":" + port);
-            System.err.println("Make sure the server is running.");
+    /**
+     * One line from the server: heartbeats are answered, session lines
+     * remembered, numbers taken off chat lines, and the rest shown.
+     */
+    private void line(byte[] buf, int offset, int length) throws IOException {
+        if (startsWith(buf, offset, length, PING_LINE) && length == PING_LINE.length) {
+            Link current = link;
+            if (current != null) writeLine(current.out, Heartbeat.PONG);
+        } else if (startsWith(buf, offset, length, TOKEN_PREFIX)) {
+            token = new String(buf, offset + TOKEN_PREFIX.length, length - TOKEN_PREFIX.length,
+                    StandardCharsets.US_ASCII);
+            resuming = false;
+        } else if (startsWith(buf, offset, length, SEQ_PREFIX)) {
+            int i = offset + SEQ_PREFIX.length;
+            int end = offset + length;
+            long seq = 0;
+            while (i < end && buf[i] >= '0' && buf[i] <= '9') {
+                seq = seq * 10 + (buf[i++] - '0');
+            }
+            if (i < end) i++;                   // the space after the number
+            if (seq > lastSeq) lastSeq = seq;      // /history replies are older
+            if (!resuming) renderer.append(buf, i, end - i);
+        } else if (!resuming) {
+            renderer.append(buf, offset, length);
+        }
+    }
+
+    private static boolean startsWith(byte[] buf, int offset, int length, byte[] prefix) {
+        return length >= prefix.length
+                && Arrays.equals(buf, offset, offset + prefix.length, prefix, 0, prefix.length);
+    }
+
+    /** Binary-protocol reader loop; returns (or throws) when the connection drops. */
+    private void readFrames(Link link) throws IOException, DataFormatException {
+        DataInputStream in = link.in;
+        Inflater inflater = Compression.newInflater();
+        byte[] payload = new byte[BinaryProtocol.MAX_FRAME_BYTES];
+        byte[] inflated = new byte[BinaryProtocol.MAX_PAYLOAD_BYTES];
+        try {
+            while (true) {
+                int length = in.readInt() - 5;
+                byte opcode = in.readByte();
+                int roomId = in.readInt();
+                if (length < 0) throw new IOException("bad frame length");
+                if (length > payload.length) payload = new byte[length];
+                in.readFully(payload, 0, length);
+                byte[] text = payload;
+                if (opcode == BinaryProtocol.DEFLATED && length > 0) {
+                    opcode = payload[0];
+                    length = Compression.inflate(inflater, payload, 1, length - 1, inflated);
+                    text = inflated;
+                }
+                if (opcode == BinaryProtocol.JOINED) {
+                    currentRoomId = roomId;
+                } else if (opcode == BinaryProtocol.PING) {
+                    writeFrame(link.out, BinaryProtocol.PONG, 0, Heartbeat.PONG.getBytes(StandardCharsets.UTF_8));
+                } else if (opcode != BinaryProtocol.PONG) {
+                    line(text, 0, length);
+                }
+            }
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /** Reader thread, after /quit: shows the rest of the output, then exits. */
+    private void disconnected() {
+        long skipped = renderer.linesSkipped();
+        renderer.append("");
+        renderer.append("[Disconnected from server]"
+                + (skipped > 0 ? " (" + skipped + " line(s) were skipped to keep up)" : ""));
+        renderer.close();
+        System.exit(0);
+    }
+
+    // ── Outbound ────────────────────────────────────────────────────────────
+
+    /** Writes one text line; the reader thread answers PINGs on the same stream. */
+    private static void writeLine(DataOutputStream out, String line) throws IOException {
+        byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+        synchronized (out) {
+            out.write(bytes);
+            out.flush();
+        }
+    }
+
+    /** Writes one frame; the reader thread answers PINGs on the same stream. */
+    private static void writeFrame(DataOutputStream out, byte opcode, int roomId, byte[] payload)
+            throws IOException {
+        synchronized (out) {
+            out.writeInt(1 + 4 + payload.length);
+            out.writeByte(opcode);
+            out.writeInt(roomId);
+            out.write(payload);
+            out.flush();
+        }
+    }
+
+    /** Reads one '\n'-terminated UTF-8 line byte by byte, leaving later bytes unread. */
+    private static String readTextLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) return null;
+            line.write(b);
         }
+        return line.toString(StandardCharsets.UTF_8);
     }
 }
@@ -0,0 +1,170 @@
+package client;
+
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Puts server output on the terminal in batches, off the socket reader's
+ * thread.
+ *
+ * The reader only copies each line's UTF-8 bytes into a pending buffer
+ * ({@link #append}); the "chat-render" thread takes the whole buffer at
+ * most {@link #FRAME_RATE} times a second, decodes it in one go and
+ * prints it with one write and one flush. So however busy the room, the
+ * terminal sees at most 30 writes a second and the reader keeps draining
+ * the socket – the client never turns into a slow consumer on the server.
+ *
+ * If more than {@link #CATCH_UP_LINES} lines pile up between two frames,
+ * only the newest of them are shown, after a note of how many were
+ * skipped: a terminal cannot show thousands of lines a second anyway, and
+ * scrolling through them would leave the screen ever further behind. The
+ * same bound caps the pending buffer while the render thread is busy.
+ */
+final class Renderer implements AutoCloseable {
+
+    /** Most frames (terminal writes) per second. */
+    static final int FRAME_RATE = 30;
+
+    /** Most lines shown per frame; more is a backlog, and the oldest are skipped. */
+    static final int CATCH_UP_LINES = 200;
+
+    /** Pending bytes at which the reader itself drops all but the newest lines. */
+    private static final int MAX_PENDING_BYTES = 1 << 20;
+
+    private static final long FRAME_NANOS = TimeUnit.SECONDS.toNanos(1) / FRAME_RATE;
+
+    private final PrintStream out;
+    private final Thread thread;
+
+    // Guarded by this
+    private byte[] pending = new byte[8192];
+    private int pendingBytes;
+    private int pendingLines;
+    private long skipped;           // lines dropped since the last frame
+    private boolean closed;
+
+    private long linesShown;
+    private long linesSkipped;
+
+    private byte[] spare = new byte[8192];  // render thread only
+
+    Renderer(PrintStream out) {
+        this.out = out;
+        this.thread = new Thread(this::run, "chat-render");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Queues one line (without its '\n') for the next frame. */
+    void append(byte[] buf, int offset, int length) {
+        synchronized (this) {
+            if (closed) return;
+            if (pendingBytes + length + 1 > pending.length) {
+                if (pendingBytes + length + 1 > MAX_PENDING_BYTES) {
+                    keepNewest(CATCH_UP_LINES - 1);
+                }
+                if (pendingBytes + length + 1 > pending.length) {
+                    pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingBytes + length + 1));
+                }
+            }
+            System.arraycopy(buf, offset, pending, pendingBytes, length);
+            pendingBytes += length;
+            pending[pendingBytes++] = '\n';
+            if (pendingLines++ == 0) notifyAll();
+        }
+    }
+
+    /** Queues a line of the client's own, e.g. a local error message. */
+    void append(String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        append(bytes, 0, bytes.length);
+    }
+
+    /** Lines printed so far. */
+    synchronized long linesShown() {
+        return linesShown;
+    }
+
+    /** Lines skipped in catch-up so far. */
+    synchronized long linesSkipped() {
+        return linesSkipped;
+    }
+
+    /** Prints whatever is still pending, in full, and stops the render thread. */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            notifyAll();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        long nextFrame = System.nanoTime();
+        while (true) {
+            byte[] frame;
+            int bytes;
+            int lines;
+            long skippedLines;
+            boolean last;
+            synchronized (this) {
+                try {
+                    while (pendingLines == 0 && !closed) wait();
+                    long early = nextFrame - System.nanoTime();
+                    while (early > 0 && !closed) {
+                        TimeUnit.NANOSECONDS.timedWait(this, early);
+                        early = nextFrame - System.nanoTime();
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                last = closed;
+                if (!last && pendingLines > CATCH_UP_LINES) keepNewest(CATCH_UP_LINES);
+                frame = pending;
+                bytes = pendingBytes;
+                lines = pendingLines;
+                skippedLines = skipped;
+                pending = spare;
+                pendingBytes = 0;
+                pendingLines = 0;
+                skipped = 0;
+                linesShown += lines;
+                linesSkipped += skippedLines;
+            }
+            spare = frame;
+            if (skippedLines > 0) {
+                out.print("[... " + skippedLines + " line(s) skipped to catch up ...]\n");
+            }
+            if (bytes > 0) {
+                out.print(new String(frame, 0, bytes, StandardCharsets.UTF_8));
+            }
+            out.flush();
+            if (last) return;
+            nextFrame = System.nanoTime() + FRAME_NANOS;
+        }
+    }
+
+    /** Drops all but the newest {@code lines} pending lines; caller holds the lock. */
+    private void keepNewest(int lines) {
+        int from = pendingBytes - 1;            // the last line's '\n'
+        int kept = 0;
+        while (kept < lines && from > 0) {
+            from--;
+            if (pending[from] == '\n') kept++;
+        }
+        if (kept < lines) return;               // no more than that many lines pending
+        from++;
+        System.arraycopy(pending, from, pending, 0, pendingBytes - from);
+        pendingBytes -= from;
+        skipped += pendingLines - kept;
+        pendingLines = kept;
+    }
+}
@@ -0,0 +1,97 @@
+package loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Idle-connection soak test for the chat server.
+ *
+ * Usage: java loadtest.IdleConnections [host] [port] [connections]
+ * Default: localhost 5000 50000
+ *
+ * Opens the requested number of connections, waits until each one has
+ * received its welcome banner, holds them all open, and then checks that the
+ * server still answers a command on a fresh connection. Run the server with
+ * a deliberately small heap to check the per-connection footprint, and with
+ * reaping off since these sockets never answer a PING, e.g.
+ *
+ *   java -Xmx256m -Dchat.transport=virtual -Dchat.idle.timeoutSec=0 -cp out server.ChatServer
+ *   java -cp out loadtest.IdleConnections localhost 5000 50000
+ *
+ * One client address can only open ~28k connections to one server port, so
+ * against a loopback server the sockets are spread over 127.0.0.1, .2, ...
+ * Both processes also need a file-descriptor limit (ulimit -n) above the
+ * connection count.
+ */
+public class IdleConnections {
+
+    private static final int PER_SOURCE_ADDRESS = 20_000;
+    private static final String BANNER_END = "Your temporary name is";
+
+    public static void main(String[] args) throws Exception {
+        String host = args.length >= 1 ? args[0] : "localhost";
+        int port = args.length >= 2 ? Integer.parseInt(args[1]) : 5000;
+        int count = args.length >= 3 ? Integer.parseInt(args[2]) : 50_000;
+
+        InetAddress server = InetAddress.getByName(host);
+        List<Socket> sockets = new ArrayList<>(count);
+        long start = System.nanoTime();
+
+        try {
+            for (int i = 0; i < count; i++) {
+                Socket socket = new Socket();
+                if (server.isLoopbackAddress()) {
+                    byte[] source = {127, 0, 0, (byte) (1 + i / PER_SOURCE_ADDRESS)};
+                    socket.bind(new InetSocketAddress(InetAddress.getByAddress(source), 0));
+                }
+                socket.connect(new InetSocketAddress(server, port));
+                readUntil(socket.getInputStream(), BANNER_END);
+                sockets.add(socket);
+                if ((i + 1) % 5000 == 0) {
+                    System.out.printf("%,d connected (%.1fs)%n",
+                            i + 1, (System.nanoTime() - start) / 1e9);
+                }
+            }
+        } catch (IOException e) {
+            System.err.printf("Stopped after %,d connections: %s%n", sockets.size(), e);
+        }
+
+        System.out.printf("Holding %,d idle connections. Probing server...%n", sockets.size());
+        try (Socket probe = new Socket(host, port)) {
+            readUntil(probe.getInputStream(), BANNER_END);
+            OutputStream out = probe.getOutputStream();
+            out.write("/rooms\n".getBytes(StandardCharsets.UTF_8));
+            readUntil(probe.getInputStream(), "rooms");
+            System.out.println("Server still responsive.");
+        }
+
+        System.out.printf("%s %,d/%,d connections held.%n",
+                sockets.size() == count ? "PASS" : "FAIL", sockets.size(), count);
+
+        System.out.println("Press Enter to close all connections.");
+        System.in.read();
+        for (Socket socket : sockets) {
+            try { socket.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    /** Reads until a complete line containing {@code marker} has been seen. */
+    private static void readUntil(InputStream in, String marker) throws IOException {
+        StringBuilder seen = new StringBuilder();
+        byte[] chunk = new byte[1024];
+        int n;
+        while ((n = in.read(chunk)) != -1) {
+            seen.append(new String(chunk, 0, n, StandardCharsets.ISO_8859_1));
+            int at = seen.indexOf(marker);
+            if (at >= 0 && seen.indexOf("\n", at) >= 0) return;
+        }
+        throw new IOException("connection closed before '" + marker + "'");
+    }
+}
@@ -0,0 +1,197 @@
+package loadtest;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Headless load generator: drives thousands of simulated users against a
+ * running chat server and reports delivery latency and throughput.
+ *
+ * Usage: java loadtest.LoadGenerator [--option=value ...]
+ *
+ *   --host=localhost      server host
+ *   --port=5000           server port
+ *   --embedded            start a ChatServer inside this JVM first (its
+ *                         -Dchat.* system properties apply)
+ *   --connections=1000    simulated users
+ *   --rooms=10            number of rooms
+ *   --distribution=uniform|zipf
+ *                         how users are spread over rooms
+ *   --rate=1000           chat messages sent per second (all users)
+ *   --warmup=5            seconds before measuring
+ *   --duration=30         seconds measured
+ *   --threads=N           selector threads (default: available processors)
+ *   --max-p99-ms=X        exit with status 1 if p99 latency exceeds X
+ *   --min-delivery=0.999  exit with status 1 if fewer deliveries arrive
+ *
+ * Latency is measured from just before the sending user's write to the
+ * moment a receiving user parses the line, in the same JVM.
+ */
+public class LoadGenerator {
+
+    private static final int PER_SOURCE_ADDRESS = 20_000;
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opts = parse(args);
+        String host = opts.getOrDefault("host", "localhost");
+        int port = Integer.parseInt(opts.getOrDefault("port", "5000"));
+        int connections = Integer.parseInt(opts.getOrDefault("connections", "1000"));
+        int rooms = Integer.parseInt(opts.getOrDefault("rooms", "10"));
+        boolean zipf = opts.getOrDefault("distribution", "uniform").equals("zipf");
+        double rate = Double.parseDouble(opts.getOrDefault("rate", "1000"));
+        int warmup = Integer.parseInt(opts.getOrDefault("warmup", "5"));
+        int duration = Integer.parseInt(opts.getOrDefault("duration", "30"));
+        int threads = Integer.parseInt(opts.getOrDefault("threads",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+
+        if (opts.containsKey("embedded")) {
+            startEmbeddedServer(port);
+        }
+
+        // Assign users to rooms up front so every room's size is known.
+        int[] roomOf = assignRooms(connections, rooms, zipf, new Random(42));
+        int[] roomSize = new int[rooms];
+        for (int r : roomOf) roomSize[r]++;
+
+        AtomicInteger joined = new AtomicInteger();
+        LoadWorker[] workers = new LoadWorker[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new LoadWorker(i, joined);
+            workers[i].start();
+        }
+
+        System.out.printf("Connecting %,d users to %s:%d (%d rooms, %s)...%n",
+                connections, host, port, rooms, zipf ? "zipf" : "uniform");
+        InetAddress server = InetAddress.getByName(host);
+        for (int i = 0; i < connections; i++) {
+            SocketChannel channel = SocketChannel.open();
+            if (server.isLoopbackAddress()) {
+                byte[] source = {127, 0, 0, (byte) (1 + i / PER_SOURCE_ADDRESS)};
+                channel.bind(new InetSocketAddress(InetAddress.getByAddress(source), 0));
+            }
+            channel.connect(new InetSocketAddress(server, port));
+            workers[i % threads].add(channel, "lg" + i, "load-" + roomOf[i], roomSize[roomOf[i]]);
+        }
+
+        long deadline = System.nanoTime() + 60_000_000_000L;
+        while (joined.get() < connections && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+        if (joined.get() < connections) {
+            System.err.printf("Only %,d/%,d users joined a room; aborting.%n", joined.get(), connections);
+            System.exit(2);
+        }
+        System.out.printf("All users joined. Sending %,.0f msg/s (warm-up %ds, measure %ds)...%n",
+                rate, warmup, duration);
+
+        for (LoadWorker worker : workers) worker.setRate(rate / threads);
+        Thread.sleep(warmup * 1000L);
+        long start = System.nanoTime();
+        long end = start + duration * 1_000_000_000L;
+        for (LoadWorker worker : workers) worker.setWindow(start, end);
+        for (int s = 1; s <= duration; s++) {
+            Thread.sleep(1000);
+            long delivered = 0;
+            for (LoadWorker worker : workers) delivered += worker.delivered.get();
+            System.out.printf("  %3ds  delivered %,d%n", s, delivered);
+        }
+        while (System.nanoTime() < end) Thread.sleep(1);
+        for (LoadWorker worker : workers) worker.setRate(0);
+        Thread.sleep(2000);   // let in-flight messages land
+        double seconds = duration;
+
+        LatencyHistogram latency = new LatencyHistogram();
+        long sent = 0, expected = 0, delivered = 0, disconnects = 0;
+        for (LoadWorker worker : workers) {
+            worker.stop();
+            latency.merge(worker.histogram);
+            sent += worker.sent.get();
+            expected += worker.expectedDeliveries.get();
+            delivered += worker.delivered.get();
+            disconnects += worker.disconnects.get();
+        }
+
+        double deliveryRatio = expected == 0 ? 1.0 : (double) delivered / expected;
+        double p99Ms = latency.percentile(99) / 1e6;
+        System.out.println();
+        System.out.println("===== Load test results =====");
+        System.out.printf("Users / rooms        : %,d / %d%n", connections, rooms);
+        System.out.printf("Messages sent        : %,d (%,.0f/s)%n", sent, sent / seconds);
+        System.out.printf("Deliveries           : %,d of %,d expected (%.4f)%n",
+                delivered, expected, deliveryRatio);
+        System.out.printf("Delivery throughput  : %,.0f msg/s%n", delivered / seconds);
+        System.out.printf("Latency p50/p99/p999 : %.3f / %.3f / %.3f ms (max %.3f ms)%n",
+                latency.percentile(50) / 1e6, p99Ms, latency.percentile(99.9) / 1e6,
+                latency.max() / 1e6);
+        System.out.printf("Disconnects          : %,d%n", disconnects);
+
+        boolean pass = deliveryRatio >= Double.parseDouble(opts.getOrDefault("min-delivery", "0.999"))
+                && disconnects == 0;
+        if (opts.containsKey("max-p99-ms")) {
+            pass &= p99Ms <= Double.parseDouble(opts.get("max-p99-ms"));
+        }
+        System.out.println(pass ? "PASS" : "FAIL");
+        System.exit(pass ? 0 : 1);
+    }
+
+    /** Spreads users over rooms, either evenly or with a Zipf(1) skew towards room 0. */
+    static int[] assignRooms(int users, int rooms, boolean zipf, Random random) {
+        int[] roomOf = new int[users];
+        if (!zipf) {
+            for (int i = 0; i < users; i++) roomOf[i] = i % rooms;
+            return roomOf;
+        }
+        double[] cumulative = new double[rooms];
+        double sum = 0;
+        for (int r = 0; r < rooms; r++) {
+            sum += 1.0 / (r + 1);
+            cumulative[r] = sum;
+        }
+        for (int i = 0; i < users; i++) {
+            double x = random.nextDouble() * sum;
+            int r = 0;
+            while (cumulative[r] < x) r++;
+            roomOf[i] = r;
+        }
+        return roomOf;
+    }
+
+    private static void startEmbeddedServer(int port) throws InterruptedException {
+        Thread thread = new Thread(() -> server.ChatServer.main(new String[] {String.valueOf(port)}),
+                "embedded-server");
+        thread.setDaemon(true);
+        thread.start();
+        // Wait until the port accepts connections
+        for (int i = 0; i < 100; i++) {
+            try {
+                SocketChannel.open(new InetSocketAddress("localhost", port)).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        throw new IllegalStateException("embedded server did not start on port " + port);
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> opts = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + arg);
+            }
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                opts.put(arg.substring(2), "true");
+            } else {
+                opts.put(arg.substring(2, eq), arg.substring(eq + 1));
+            }
+        }
+        return opts;
+    }
+}
@@ -0,0 +1,286 @@
+package loadtest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import protocol.Heartbeat;
+
+/**
+ * One selector thread driving a share of the simulated users.
+ *
+ * Each user joins its room, then this worker sends chat lines of the form
+ * "LG &lt;nanoTime&gt;" from randomly chosen users at its share of the target
+ * rate. Every delivered copy is parsed in place (no String per line) and
+ * its end-to-end latency recorded; sender and receivers share this JVM's
+ * nanoTime clock. Server PINGs are answered so idle users are not reaped.
+ */
+final class LoadWorker implements Runnable {
+
+    private static final byte[] JOINED = "SERVER: Joined #".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PROBE = ": LG ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PING = Heartbeat.PING.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PONG_LINE = (Heartbeat.PONG + "\n").getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] EMPTY = new byte[0];
+
+    private final Selector selector;
+    private final Queue<User> pendingUsers = new ConcurrentLinkedQueue<>();
+    private final List<User> users = new ArrayList<>();
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+    private final byte[] lineBytes = new byte[64 * 1024];
+    private final AtomicInteger joined;
+    private final Thread thread;
+
+    final LatencyHistogram histogram = new LatencyHistogram();
+    final AtomicLong sent = new AtomicLong();
+    final AtomicLong expectedDeliveries = new AtomicLong();
+    final AtomicLong delivered = new AtomicLong();
+    final AtomicLong disconnects = new AtomicLong();
+
+    private volatile double ratePerSecond;   // this worker's share; 0 = not sending yet
+    private volatile long windowStart = Long.MAX_VALUE;   // measured send-time window
+    private volatile long windowEnd = Long.MAX_VALUE;
+    private volatile boolean running = true;
+    private long rateStart;
+    private long sentSinceRateStart;
+
+    LoadWorker(int index, AtomicInteger joined) throws IOException {
+        this.selector = Selector.open();
+        this.joined = joined;
+        this.thread = new Thread(this, "loadgen-" + index);
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /** Adds a connected (blocking-mode) channel; the worker sends its nick and join. */
+    void add(SocketChannel channel, String nick, String room, int roomSize) {
+        pendingUsers.add(new User(channel, nick, room, roomSize));
+        selector.wakeup();
+    }
+
+    /** Starts (or changes) the send rate for this worker's users. */
+    void setRate(double perSecond) {
+        ratePerSecond = perSecond;
+    }
+
+    /**
+     * Sets the measurement window: only messages sent within
+     * [start, end) nanoTime are counted, wherever their deliveries land.
+     */
+    void setWindow(long start, long end) {
+        windowStart = start;
+        windowEnd = end;
+    }
+
+    private boolean inWindow(long nanos) {
+        return nanos >= windowStart && nanos < windowEnd;
+    }
+
+    void stop() throws InterruptedException {
+        running = false;
+        selector.wakeup();
+        thread.join();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                registerPending();
+                selector.select(1);
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    User user = (User) key.attachment();
+                    if (key.isValid() && key.isWritable()) user.flush();
+                    if (key.isValid() && key.isReadable()) user.read();
+                }
+                sendDue();
+            }
+        } catch (IOException e) {
+            System.err.println(thread.getName() + " failed: " + e);
+        } finally {
+            for (User user : users) user.close();
+        }
+    }
+
+    private void registerPending() throws IOException {
+        User user;
+        while ((user = pendingUsers.poll()) != null) {
+            user.channel.configureBlocking(false);
+            user.key = user.channel.register(selector, SelectionKey.OP_READ, user);
+            users.add(user);
+            user.write("/nick " + user.nick + "\n/join " + user.room + "\n");
+        }
+    }
+
+    /** Sends however many messages this worker owes to stay on its target rate. */
+    private void sendDue() {
+        double rate = ratePerSecond;
+        if (rate <= 0 || users.isEmpty()) {
+            rateStart = 0;
+            return;
+        }
+        long now = System.nanoTime();
+        if (rateStart == 0) {
+            rateStart = now;
+            sentSinceRateStart = 0;
+        }
+        long due = (long) ((now - rateStart) / 1e9 * rate) - sentSinceRateStart;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (long i = 0; i < due; i++) {
+            User user = users.get(random.nextInt(users.size()));
+            if (user.closed) continue;
+            long sentAt = System.nanoTime();
+            user.write("LG " + sentAt + "\n");
+            sentSinceRateStart++;
+            if (inWindow(sentAt)) {
+                sent.incrementAndGet();
+                expectedDeliveries.addAndGet(user.roomSize);
+            }
+        }
+    }
+
+    /** Handles one complete inbound line held in lineBytes[0, length). */
+    private void onLine(User user, int length) {
+        int probe = indexOf(lineBytes, length, PROBE);
+        if (probe >= 0) {
+            long sentAt = 0;
+            for (int i = probe + PROBE.length; i < length; i++) {
+                byte b = lineBytes[i];
+                if (b < '0' || b > '9') break;
+                sentAt = sentAt * 10 + (b - '0');
+            }
+            if (inWindow(sentAt)) {
+                histogram.record(System.nanoTime() - sentAt);
+                delivered.incrementAndGet();
+            }
+        } else if (!user.joined && startsWith(lineBytes, length, JOINED)) {
+            user.joined = true;
+            joined.incrementAndGet();
+        } else if (length == PING.length && startsWith(lineBytes, length, PING)) {
+            user.write(PONG_LINE);
+        }
+    }
+
+    private static boolean startsWith(byte[] buf, int length, byte[] prefix) {
+        if (length < prefix.length) return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (buf[i] != prefix[i]) return false;
+        }
+        return true;
+    }
+
+    private static int indexOf(byte[] buf, int length, byte[] needle) {
+        outer:
+        for (int i = 0; i + needle.length <= length; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (buf[i + j] != needle[j]) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /** One simulated chat user. */
+    private final class User {
+        final SocketChannel channel;
+        final String nick;
+        final String room;
+        final int roomSize;
+        SelectionKey key;
+        ByteBuffer pendingWrite;
+        byte[] partialLine = EMPTY;         // bytes of a line split across reads
+        boolean joined;
+        boolean closed;
+
+        User(SocketChannel channel, String nick, String room, int roomSize) {
+            this.channel = channel;
+            this.nick = nick;
+            this.room = room;
+            this.roomSize = roomSize;
+        }
+
+        void write(String text) {
+            write(text.getBytes(StandardCharsets.UTF_8));
+        }
+
+        void write(byte[] data) {
+            ByteBuffer bytes = ByteBuffer.wrap(data);
+            if (pendingWrite != null) {
+                ByteBuffer merged = ByteBuffer.allocate(pendingWrite.remaining() + bytes.remaining());
+                merged.put(pendingWrite).put(bytes).flip();
+                pendingWrite = merged;
+                return;
+            }
+            pendingWrite = bytes;
+            flush();
+        }
+
+        void flush() {
+            try {
+                channel.write(pendingWrite);
+                if (pendingWrite.hasRemaining()) {
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                } else {
+                    pendingWrite = null;
+                    key.interestOps(SelectionKey.OP_READ);
+                }
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        void read() {
+            try {
+                int n;
+                while ((n = channel.read(readBuffer.clear())) > 0) {
+                    readBuffer.flip();
+                    split();
+                }
+                if (n < 0) close();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        /** Splits readBuffer into lines, carrying any trailing partial line over. */
+        private void split() {
+            int length = partialLine.length;
+            System.arraycopy(partialLine, 0, lineBytes, 0, length);
+            while (readBuffer.hasRemaining()) {
+                byte b = readBuffer.get();
+                if (b == '\n') {
+                    onLine(this, length);
+                    length = 0;
+                } else if (length < lineBytes.length) {
+                    lineBytes[length++] = b;
+                }
+            }
+            partialLine = (length == 0) ? EMPTY : Arrays.copyOf(lineBytes, length);
+        }
+
+        void close() {
+            if (closed) return;
+            closed = true;
+            if (running) disconnects.incrementAndGet();
+            if (key != null) key.cancel();
+            try { channel.close(); } catch (IOException ignored) {}
+        }
+    }
+}
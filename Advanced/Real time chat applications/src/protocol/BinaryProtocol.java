@@ -0,0 +1,70 @@
+package protocol;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The binary wire protocol, shared by server and client.
+ *
+ * A connection starts in the line-based text protocol. A client that sends
+ * {@link #NEGOTIATE} (before joining any room) gets {@link #ACCEPTED} back
+ * as its last text line; from then on both directions use frames:
+ *
+ *   [int length][byte opcode][int roomId][payload]
+ *
+ * where {@code length} counts the bytes after itself (opcode, room id and
+ * payload), all integers are big-endian and payloads are UTF-8.
+ *
+ * A client that sends {@link #NEGOTIATE_DEFLATE} instead may also receive
+ * compressed frames (see {@link Compression}); the server confirms with
+ * {@link #ACCEPTED_DEFLATE}, or with plain {@link #ACCEPTED} if it has
+ * compression turned off.
+ *
+ * Opcodes:
+ *   TEXT    – both ways. A command or chat line (client; exactly one line,
+ *             frames holding CR or LF are refused), or one or more lines
+ *             of server output. roomId is 0 unless the line belongs to a
+ *             room.
+ *   MESSAGE – both ways. A chat message in room {@code roomId}; from the
+ *             client the payload is the bare text, from the server the
+ *             formatted "[time] name: text" line.
+ *   JOINED  – server only. The client is now in room {@code roomId}
+ *             (payload: room name), or in no room when roomId is 0.
+ *   PING    – both ways. Are you there? Answer with PONG (see {@link Heartbeat}).
+ *   PONG    – both ways. Answer to PING.
+ *   DEFLATED – server only, after NEGOTIATE_DEFLATE. A compressed frame of
+ *             another opcode (see {@link Compression}).
+ */
+public final class BinaryProtocol {
+
+    public static final String NEGOTIATE = "/binary";
+    public static final String ACCEPTED = "SERVER: Switched to binary protocol.";
+    public static final String NEGOTIATE_DEFLATE = "/binary deflate";
+    public static final String ACCEPTED_DEFLATE = "SERVER: Switched to binary protocol with compression.";
+
+    public static final byte TEXT = 1;
+    public static final byte MESSAGE = 2;
+    public static final byte JOINED = 3;
+    public static final byte PING = 4;
+    public static final byte PONG = 5;
+    public static final byte DEFLATED = 6;
+
+    /** Length, opcode and room id. */
+    public static final int HEADER_BYTES = 4 + 1 + 4;
+    /** Largest frame either side accepts, header included. */
+    public static final int MAX_FRAME_BYTES = 8192;
+    public static final int MAX_PAYLOAD_BYTES = MAX_FRAME_BYTES - HEADER_BYTES;
+
+    private BinaryProtocol() {}
+
+    /** Writes a frame header for a payload of {@code payloadLength} bytes. */
+    public static ByteBuffer putHeader(ByteBuffer buffer, byte opcode, int roomId, int payloadLength) {
+        return buffer.putInt(1 + 4 + payloadLength).put(opcode).putInt(roomId);
+    }
+
+    /** A complete frame in a new heap buffer, ready to write. */
+    public static ByteBuffer frame(byte opcode, int roomId, byte[] payload, int offset, int length) {
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_BYTES + length);
+        putHeader(frame, opcode, roomId, length).put(payload, offset, length);
+        return frame.flip();
+    }
+}
@@ -0,0 +1,74 @@
+package protocol;
+
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Optional compression of server output on the binary protocol.
+ *
+ * A client that negotiates with {@link BinaryProtocol#NEGOTIATE_DEFLATE}
+ * may receive {@link BinaryProtocol#DEFLATED} frames:
+ *
+ *   [int length][byte DEFLATED][int roomId][byte opcode][deflated payload]
+ *
+ * which stand for an {@code opcode} frame for {@code roomId} whose payload
+ * is the raw DEFLATE stream inflated. Every frame is compressed on its own
+ * – fresh compressor state, primed with {@link #DICTIONARY} – so the server
+ * compresses a room broadcast once and sends the same bytes to every
+ * member, instead of keeping a compression stream per connection. Frames
+ * that would not get smaller are sent as they are.
+ */
+public final class Compression {
+
+    /**
+     * Preset dictionary: text that chat lines tend to share, most common
+     * last (DEFLATE prefers near matches). Changing it breaks every
+     * client, so it is part of the protocol.
+     */
+    public static final byte[] DICTIONARY = String.join("",
+            "http://https://www.com .org .net .io/watch?v= ",
+            "SERVER: Unknown command. Type /quit to exit.",
+            "SERVER: Members of #: SERVER: Active rooms: members) ",
+            " what when where why how this that have with from just like will would ",
+            "can't don't I'm it's you're thanks thank you please sorry yes no ok okay lol haha ",
+            " the and you for are but not all any one our out get has him his ",
+            "SERVER: Guest_ is now known as SERVER: Guest_ has left #",
+            "SERVER: Guest_ has joined #lobby general random ",
+            "0123456789] [00:00:00] [12:34:56] Guest_1234: ").getBytes(StandardCharsets.UTF_8);
+
+    private Compression() {}
+
+    /** A compressor for {@link #deflate}; not thread-safe. */
+    public static Deflater newDeflater(int level) {
+        return new Deflater(level, true);
+    }
+
+    /** A decompressor for {@link #inflate}; not thread-safe. */
+    public static Inflater newInflater() {
+        return new Inflater(true);
+    }
+
+    /**
+     * Inflates one {@link BinaryProtocol#DEFLATED} payload (after its opcode byte).
+     *
+     * @return the number of bytes written to {@code out}
+     */
+    public static int inflate(Inflater inflater, byte[] in, int offset, int length, byte[] out)
+            throws DataFormatException {
+        inflater.reset();
+        inflater.setDictionary(DICTIONARY);
+        inflater.setInput(in, offset, length);
+        int n = 0;
+        while (!inflater.finished()) {
+            if (n == out.length) throw new DataFormatException("inflated frame too large");
+            int got = inflater.inflate(out, n, out.length - n);
+            if (got == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                throw new DataFormatException("truncated deflate stream");
+            }
+            n += got;
+        }
+        return n;
+    }
+}
@@ -0,0 +1,24 @@
+package protocol;
+
+/**
+ * Keep-alive exchange, on either protocol.
+ *
+ * The server sends {@link #PING} to a client it has not heard from for a
+ * while (-Dchat.heartbeat.intervalSec) and drops connections that stay
+ * silent past the idle timeout (-Dchat.idle.timeoutSec). Anything a client
+ * sends counts as a sign of life; one with nothing to say answers
+ * {@link #PONG}. Clients may also send PING themselves and get PONG back.
+ *
+ * On the text protocol these are lines holding just a reserved command
+ * word, so no chat message can be mistaken for one: a user who types PONG
+ * is chatting. On the binary protocol they are {@link BinaryProtocol#PING}
+ * / {@link BinaryProtocol#PONG} frames with room id 0; their payload is
+ * the same word and may be ignored.
+ */
+public final class Heartbeat {
+
+    public static final String PING = "/ping";
+    public static final String PONG = "/pong";
+
+    private Heartbeat() {}
+}
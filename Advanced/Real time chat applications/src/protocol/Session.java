@@ -0,0 +1,40 @@
+package protocol;
+
+/**
+ * Resumable sessions, so a client whose connection drops (or whose server
+ * restarts) can come back as the same user in the same room and get the
+ * chat messages it missed.
+ *
+ * A client opts in with {@link #START}. From then on the server sends it
+ *
+ *   SESSION <token>              – whenever its name or room changes
+ *   SEQ <seq> <chat line>        – every chat message, numbered
+ *
+ * Sequence numbers grow within a room and are seeded from the clock, so
+ * they also keep growing across a room being recreated or the server
+ * restarting. After reconnecting, the client sends
+ * {@code /resume <token> <last seq it saw>} instead of /nick and /join,
+ * and gets the room's newer messages that the server still holds
+ * (-Dchat.room.history). The token carries everything needed, so it works
+ * against a restarted server too.
+ *
+ * On the binary protocol the SESSION line is a TEXT frame and chat
+ * messages stay plain MESSAGE frames without numbers: binary clients get
+ * their name and room back, but no catch-up.
+ */
+public final class Session {
+
+    /** Client → server: ask for a token and numbered chat lines. */
+    public static final String START = "/session";
+
+    /** Client → server: "/resume <token> <last seq>". */
+    public static final String RESUME = "/resume";
+
+    /** Server → client: "SESSION <token>". */
+    public static final String TOKEN = "SESSION ";
+
+    /** Server → client: "SEQ <seq> " in front of a chat line. */
+    public static final String SEQ = "SEQ ";
+
+    private Session() {}
+}
@@ -1,59 +1,382 @@
 package server;
 
-import java.util.Collections;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import protocol.BinaryProtocol;
 
 /**
  * Represents a single chat room.
  * Thread-safe: multiple ClientHandlers can call broadcast() concurrently.
+ *
+ * Members are kept in an immutable array that is replaced on every join or
+ * leave (copy-on-write). Broadcasts, which far outnumber membership
+ * changes, read the current array once and fan out with a plain indexed
+ * loop – no lock and no iterator.
+ *
+ * Broadcasts encode the message once and share the bytes between all
+ * recipients (see {@link EncodedMessage}); the time each fan-out takes
+ * is recorded in {@link ServerStats}. With a {@link MessageLog} configured,
+ * chat messages are also handed to the log writer after the fan-out.
+ *
+ * When rooms are sharded ({@link RoomShards}) a broadcast is encoded on the
+ * sender's thread and fanned out on the room's shard, after every join and
+ * leave submitted before it.
+ *
+ * Chat messages pass the room's rate limit ({@link #admit}) before they
+ * are broadcast, so one flooding room cannot hog the shards and writers
+ * that every other room shares.
+ *
+ * In a cluster, broadcasts made here are also published on the
+ * {@link ClusterBus} after the local fan-out; broadcasts from other nodes
+ * arrive through {@link #deliver} and only go to local members.
+ *
+ * Members may {@link #subscribe} to topics, after which chat messages only
+ * reach them if they match one (their own messages always do). The
+ * subscriptions are compiled into a {@link TopicIndex} on every change,
+ * alongside the member array; a room where nobody subscribes never builds
+ * one and fans out exactly as before. Server notices go to everyone.
+ *
+ * The room numbers its chat messages and keeps the most recent ones in a
+ * lock-free {@link HistoryRing} ({@code -Dchat.room.history}), for
+ * /history ({@link #recent}) and so that a client resuming its session
+ * after a dropped connection gets what it missed ({@link #since}).
+ * Numbers start from the clock in microseconds when the room is created,
+ * so they keep growing across the room being recreated or the server
+ * restarting, as long as a room averages under a million messages a second.
  */
 public class ChatRoom {
 
+    private final int id;
     private final String name;
-    private final Set<ClientHandler> members = ConcurrentHashMap.newKeySet();
+    private static final ClientHandler[] NO_MEMBERS = new ClientHandler[0];
 
-    public ChatRoom(String name) {
+    private final Object membershipLock = new Object();
+    private volatile ClientHandler[] members = NO_MEMBERS;
+    private volatile boolean closed;    // removed from RoomManager; set under membershipLock
+    private final Map<ClientHandler, Set<String>> subscriptions = new HashMap<>();  // under membershipLock
+    private volatile TopicIndex topics = TopicIndex.NONE;
+    private final ServerStats stats;
+    private final MessageLog log;
+    private final RoomLog roomLog;      // null when logging is off
+    private final RoomShards.Shard shard;   // null = fan out on the caller's thread
+    private final ClusterBus bus;       // null = stand-alone
+    private final TokenBucket limit;    // null = unlimited
+    private final HistoryRing recent;   // null = none kept
+
+    ChatRoom(int id, String name, ServerStats stats, MessageLog log, RoomShards.Shard shard, ClusterBus bus,
+             TokenBucket limit, int historySize) {
+        this.id = id;
         this.name = name;
+        this.stats = stats;
+        this.shard = shard;
+        this.bus = bus;
+        this.limit = limit;
+        this.recent = (historySize > 0)
+                ? new HistoryRing(historySize, System.currentTimeMillis() * 1000 + 1)
+                : null;
+        this.log = log;
+        this.roomLog = (log != null) ? log.forRoom(name) : null;
+    }
+
+    /** Server-assigned id, used in place of the name on the binary protocol. */
+    public int getId() {
+        return id;
     }
 
     public String getName() {
         return name;
     }
 
-    public void addMember(ClientHandler client) {
-        members.add(client);
+    /**
+     * Adds a member.
+     *
+     * @return false if the room has been closed for removal (see
+     *         {@link RoomManager#join}); the client was not added
+     */
+    public boolean addMember(ClientHandler client) {
+        synchronized (membershipLock) {
+            if (closed) return false;
+            ClientHandler[] current = members;
+            for (ClientHandler member : current) {
+                if (member == client) return true;
+            }
+            ClientHandler[] next = Arrays.copyOf(current, current.length + 1);
+            next[current.length] = client;
+            members = next;
+            recompile();
+        }
+        stats.memberJoined();
+        return true;
     }
 
     public void removeMember(ClientHandler client) {
-        members.remove(client);
+        synchronized (membershipLock) {
+            ClientHandler[] current = members;
+            int index = -1;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] == client) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index < 0) return;
+            ClientHandler[] next = new ClientHandler[current.length - 1];
+            System.arraycopy(current, 0, next, 0, index);
+            System.arraycopy(current, index + 1, next, index, next.length - index);
+            members = next;
+            subscriptions.remove(client);
+            recompile();
+        }
+        stats.memberLeft();
+    }
+
+    /** Marks an empty room closed so no one can join it. @return true if this call closed it */
+    boolean closeIfEmpty() {
+        synchronized (membershipLock) {
+            if (closed || members.length > 0) return false;
+            closed = true;
+            return true;
+        }
+    }
+
+    boolean isClosed() {
+        return closed;
     }
 
     public boolean isEmpty() {
-        return members.isEmpty();
+        return members.length == 0;
     }
 
     public int getMemberCount() {
-        return members.size();
+        return members.length;
+    }
+
+    /** The members at this moment; later joins and leaves do not show up in it. */
+    public List<ClientHandler> getMembers() {
+        return List.of(members);
     }
 
-    public Set<ClientHandler> getMembers() {
-        return Collections.unmodifiableSet(members);
+    /**
+     * Adds a topic ({@link TopicIndex#key key} form) to a member's filter.
+     *
+     * @return false if the client is not a member or already holds
+     *         {@link TopicIndex#MAX_TOPICS_PER_MEMBER} topics
+     */
+    boolean subscribe(ClientHandler client, String key) {
+        synchronized (membershipLock) {
+            if (!Arrays.asList(members).contains(client)) return false;
+            Set<String> keys = subscriptions.computeIfAbsent(client, c -> new LinkedHashSet<>());
+            if (keys.size() >= TopicIndex.MAX_TOPICS_PER_MEMBER && !keys.contains(key)) return false;
+            if (keys.add(key)) recompile();
+            return true;
+        }
+    }
+
+    /**
+     * Removes one topic from a member's filter, or all of them if
+     * {@code key} is null; with none left it gets every message again.
+     *
+     * @return false if it held no such topic
+     */
+    boolean unsubscribe(ClientHandler client, String key) {
+        synchronized (membershipLock) {
+            Set<String> keys = subscriptions.get(client);
+            if (keys == null || (key != null && !keys.remove(key))) return false;
+            if (key == null || keys.isEmpty()) subscriptions.remove(client);
+            recompile();
+            return true;
+        }
+    }
+
+    /** A member's topics, in the order it subscribed; empty if it gets everything. */
+    List<String> subscriptions(ClientHandler client) {
+        synchronized (membershipLock) {
+            Set<String> keys = subscriptions.get(client);
+            return (keys == null) ? List.of() : List.copyOf(keys);
+        }
+    }
+
+    /** Rebuilds the topic index; caller holds membershipLock. Free while nobody subscribes. */
+    private void recompile() {
+        if (subscriptions.isEmpty() && topics == TopicIndex.NONE) return;
+        topics = TopicIndex.compile(members, subscriptions);
+    }
+
+    /**
+     * Takes one chat message from the room's budget; lock-free.
+     *
+     * @return 0 if the message may be sent, otherwise how many nanoseconds
+     *         until the room accepts another one
+     */
+    long admit() {
+        return (limit == null) ? 0 : limit.tryAcquire(System.nanoTime());
     }
 
     /** Broadcasts a message to every member except the sender. */
     public void broadcast(String message, ClientHandler sender) {
-        for (ClientHandler member : members) {
-            if (member != sender) {
-                member.sendMessage(message);
+        dispatch(EncodedMessage.forRoom(message, BinaryProtocol.TEXT, id), sender, false, true);
+    }
+
+    /** Broadcasts a chat message to ALL members including the sender, and logs it. */
+    public void broadcastAll(String message) {
+        dispatch(EncodedMessage.forRoom(message, BinaryProtocol.MESSAGE, id), null, true, true);
+    }
+
+    /**
+     * Same as {@link #broadcastAll(String)} for a line already in UTF-8,
+     * laid out as {@link EncodedMessage#forRoom(byte[], byte, int)} expects.
+     * The sender gets it back even if its subscriptions would filter it out.
+     */
+    void broadcastAll(byte[] framed, ClientHandler sender) {
+        dispatch(EncodedMessage.forRoom(framed, BinaryProtocol.MESSAGE, id), sender, true, true);
+    }
+
+    /** A broadcast made in this room on a peer node: local members only, not published again. */
+    void deliver(byte opcode, byte[] framed) {
+        dispatch(EncodedMessage.forRoom(framed, opcode, id),
+                null, opcode == BinaryProtocol.MESSAGE, false);
+    }
+
+    /** True while the room's shard has fallen far behind; its members should wait. */
+    boolean backlogged() {
+        return shard != null && shard.backlogged();
+    }
+
+    /** Runs a task on the room's shard, or right away when rooms are not sharded. */
+    void execute(Runnable task) {
+        if (shard == null) {
+            task.run();
+        } else {
+            shard.execute(task);
+        }
+    }
+
+    /**
+     * @param sender    a notice skips it; a chat message always reaches it
+     * @param logged    write it to the message log (chat messages only)
+     * @param published also send it to peer nodes (broadcasts made here only)
+     */
+    private void dispatch(EncodedMessage encoded, ClientHandler sender, boolean logged, boolean published) {
+        if (shard == null) {
+            fanOut(encoded, sender, logged, published);
+        } else {
+            shard.execute(() -> fanOut(encoded, sender, logged, published));
+        }
+    }
+
+    private void fanOut(EncodedMessage encoded, ClientHandler sender, boolean logged, boolean published) {
+        long start = System.nanoTime();
+        if (recent != null && encoded.opcode() == BinaryProtocol.MESSAGE) {
+            recent.append(encoded);
+        }
+        TopicIndex filter = topics;
+        if (encoded.opcode() == BinaryProtocol.MESSAGE && !filter.isEmpty()) {
+            fanOutFiltered(encoded, sender, filter);
+        } else {
+            ClientHandler except = (encoded.opcode() == BinaryProtocol.MESSAGE) ? null : sender;
+            ClientHandler[] snapshot = members;
+            for (int i = 0; i < snapshot.length; i++) {
+                if (snapshot[i] != except) {
+                    snapshot[i].send(encoded);
+                }
             }
         }
+        stats.fanOut(System.nanoTime() - start);
+        if (logged && log != null) {
+            log.append(roomLog, encoded);
+        }
+        if (published && bus != null) {
+            bus.publish(name, encoded.opcode(), encoded.buffer());
+        }
     }
 
-    /** Broadcasts a message to ALL members including the sender. */
-    public void broadcastAll(String message) {
-        for (ClientHandler member : members) {
-            member.sendMessage(message);
+    /** A chat message in a room where someone filters: everyone else, then whoever matches. */
+    private void fanOutFiltered(EncodedMessage encoded, ClientHandler sender, TopicIndex filter) {
+        ClientHandler[] everyone = filter.unfiltered();
+        for (int i = 0; i < everyone.length; i++) {
+            everyone[i].send(encoded);
+        }
+        ClientHandler[] matched = filter.match(encoded.buffer());
+        boolean echo = sender != null && filter.isFiltered(sender);
+        for (int i = 0; i < matched.length; i++) {
+            matched[i].send(encoded);
+            if (matched[i] == sender) echo = false;
+        }
+        if (echo) sender.send(encoded);
+        int sent = everyone.length + matched.length + (echo ? 1 : 0);
+        stats.deliveriesFiltered(filter.memberCount() - sent);
+    }
+
+    /**
+     * Passes up to {@code count} of the chat messages the room still holds,
+     * numbered {@code fromSeq} or later, to {@code sink}, oldest first.
+     *
+     * @return how many were passed
+     */
+    int recent(long fromSeq, int count, Consumer<EncodedMessage> sink) {
+        return (recent == null) ? 0 : recent.read(fromSeq, count, sink);
+    }
+
+    /** Whether the room keeps recent messages at all. */
+    boolean keepsRecent() {
+        return recent != null;
+    }
+
+    /** The number of the room's first chat message, whether or not it is still held. */
+    long firstSeq() {
+        return (recent == null) ? 0 : recent.firstSeq();
+    }
+
+    /** The number of the oldest chat message still held. */
+    long oldestSeq() {
+        return (recent == null) ? 0 : recent.oldestSeq();
+    }
+
+    /** The number of the latest chat message, or one less than the first there will be. */
+    long lastSeq() {
+        return (recent == null) ? 0 : recent.lastSeq();
+    }
+
+    /** Chat messages after a given number, oldest first, as far back as the room still holds them. */
+    record Missed(List<EncodedMessage> messages, boolean complete) {}
+
+    /**
+     * The chat messages numbered after {@code seq}.
+     * {@link Missed#complete} is false if some of them are no longer held.
+     */
+    Missed since(long seq) {
+        if (recent == null) return new Missed(List.of(), false);
+        List<EncodedMessage> messages = new ArrayList<>();
+        recent.read(seq + 1, recent.capacity(), messages::add);
+        boolean complete = messages.isEmpty()
+                ? recent.lastSeq() <= seq
+                : messages.get(0).seq() == seq + 1;
+        return new Missed(messages, complete);
+    }
+
+    /**
+     * Passes the logged messages for replay on join to {@code reader},
+     * oldest first: at most {@code maxCount}, none older than
+     * {@code sinceMillis}, each buffer one encoded line. They are read and
+     * passed on the log writer thread ({@link MessageLog#replay}), never the
+     * caller's; without a log {@code reader} is not called.
+     */
+    void replayLog(int maxCount, long sinceMillis, Consumer<List<ByteBuffer>> reader) {
+        if (roomLog == null || maxCount == 0) return;
+        log.replay(roomLog, maxCount, sinceMillis, reader);
+    }
+
+    /** Called when the room is removed: lets the log close its file. */
+    void releaseLog() {
+        if (log != null) {
+            log.release(roomLog);
         }
     }
 }
@@ -1,14 +1,27 @@
 package server;
 
 import java.io.IOException;
-import java.net.ServerSocket;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
 
 /**
  * Entry point for the JavaChat server.
  *
- * Usage: java server.ChatServer [port]
+ * Usage: java [-Dchat.transport=blocking|virtual|nio] server.ChatServer [port]
  * Default port: 5000
+ *
+ * With -Dchat.cluster=loopback it starts -Dchat.cluster.nodes servers in
+ * this JVM, on [port], [port + 1], ..., sharing their rooms.
+ *
+ * On SIGTERM or Ctrl-C each server {@link Drain drains} instead of just
+ * dying. To restart without refusing connections, run both with
+ * -Dchat.reusePort=true (SO_REUSEPORT lets both listen), start the new
+ * server on the same port first, then stop the old.
+ *
+ * See {@link ServerConfig} for the full list of settings.
  */
 public class ChatServer {
 
@@ -24,27 +37,102 @@ public class ChatServer {
             }
         }
 
-        RoomManager roomManager = new RoomManager();
-
+        ServerConfig config = ServerConfig.load(port);
         System.out.println("+--------------------------------+");
         System.out.println("|     JavaChat Server v1.0       |");
         System.out.println("+--------------------------------+");
-        System.out.println("Listening on port " + port + " ...");
-
-        try (ServerSocket serverSocket = new ServerSocket(port)) {
-            while (true) {
-                Socket clientSocket = serverSocket.accept();
-                System.out.println("[Server] New connection from "
-                        + clientSocket.getInetAddress().getHostAddress()
-                        + ":" + clientSocket.getPort());
-
-                ClientHandler handler = new ClientHandler(clientSocket, roomManager);
-                Thread thread = new Thread(handler);
-                thread.setDaemon(true);
-                thread.start();
+
+        if (config.cluster == ServerConfig.Cluster.LOOPBACK) {
+            LoopbackBus.Hub hub = new LoopbackBus.Hub();
+            for (int i = 0; i < config.clusterNodes; i++) {
+                ServerContext node = new ServerContext(config.forLoopbackNode(i), hub);
+                Thread.ofPlatform().name("node-" + (i + 1)).start(() -> serve(node));
+            }
+        } else {
+            serve(new ServerContext(config));
+        }
+    }
+
+    /** Runs one server until it fails or is shut down. */
+    private static void serve(ServerContext context) {
+        ServerConfig config = context.config;
+        context.stats.start(config);
+        System.out.println("Listening on port " + config.port + " (" + describe(context) + ") ...");
+
+        try (ServerSocketChannel listener = listen(config)) {
+            long launchToAccept = ManagementFactory.getRuntimeMXBean().getUptime();
+            context.stats.accepting(launchToAccept);
+            System.out.println("[Server] Accepting connections " + launchToAccept + " ms after launch.");
+            Runtime.getRuntime().addShutdownHook(
+                    new Thread(new Drain(context, listener), "chat-drain-" + config.port));
+
+            if (config.transport == ServerConfig.Transport.NIO) {
+                new NioServer(context).serve(listener);
+            } else {
+                serveBlocking(context, listener);
             }
         } catch (IOException e) {
-            System.err.println("[Server] Fatal error: " + e.getMessage());
+            if (!context.draining) {
+                System.err.println("[Server] Fatal error: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Binds the client port. SO_REUSEADDR lets a restarted server bind
+     * despite the old one's connections in TIME_WAIT; SO_REUSEPORT
+     * (opt-in, -Dchat.reusePort=true) lets it bind while the old one is still
+     * draining. Off by default: a second server started by mistake would
+     * bind without an error and take half the new clients.
+     */
+    private static ServerSocketChannel listen(ServerConfig config) throws IOException {
+        ServerSocketChannel listener = ServerSocketChannel.open();
+        try {
+            listener.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            if (config.reusePort && listener.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                listener.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            listener.bind(new InetSocketAddress(config.port));
+            return listener;
+        } catch (IOException e) {
+            listener.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Original model: one thread per accepted socket. In virtual mode the
+     * threads are virtual, so an idle client costs a few hundred bytes of
+     * heap instead of a platform thread stack.
+     *
+     * Sockets are accepted through a (blocking) ServerSocketChannel so each
+     * one has a channel that shared broadcast buffers can be written to with
+     * a gathering write.
+     */
+    private static void serveBlocking(ServerContext context, ServerSocketChannel listener) throws IOException {
+        Thread.Builder threads = context.config.threadBuilder().name("client-", 0);
+
+        while (true) {
+            Socket clientSocket = listener.accept().socket();
+            System.out.println("[Server] New connection from "
+                    + clientSocket.getInetAddress().getHostAddress()
+                    + ":" + clientSocket.getPort());
+
+            threads.start(new ClientHandler(clientSocket, context));
+        }
+    }
+
+    private static String describe(ServerContext context) {
+        ServerConfig config = context.config;
+        String transport;
+        if (config.transport == ServerConfig.Transport.NIO) {
+            transport = "nio, " + config.ioThreads + " event loop(s)";
+        } else if (config.transport == ServerConfig.Transport.VIRTUAL) {
+            transport = "blocking, virtual thread per connection";
+        } else {
+            transport = "blocking, thread per connection";
         }
+        String rooms = (config.shards > 0) ? config.shards + " room shard(s)" : "unsharded rooms";
+        return transport + ", " + rooms + (context.bus != null ? ", " + context.bus.describe() : "");
     }
 }
@@ -1,16 +1,61 @@
 package server;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
 import java.net.Socket;
-import java.time.LocalTime;
-import java.time.format.DateTimeFormatter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import protocol.BinaryProtocol;
+import protocol.Heartbeat;
+import protocol.Session;
 
 /**
- * Handles a single connected client on its own thread.
+ * Session logic for a single connected client: name, current room and the
+ * command set below.
+ *
+ * In blocking and virtual-thread mode each handler runs on its own thread
+ * (see {@link #run()}); in NIO mode an {@link EventLoop} feeds it lines via
+ * {@link #handleLine}.
+ *
+ * Lines are handled as the UTF-8 bytes they arrive in: trimmed in place,
+ * commands found by their first word in a precomputed table
+ * ({@link Command}), chat text copied straight into the broadcast behind
+ * the shared per-second timestamp and this client's cached name bytes. A
+ * chat message allocates nothing but the message that is sent; only
+ * command arguments are decoded into Strings.
+ *
+ * A client may switch to the {@link BinaryProtocol} with /binary before
+ * joining a room; its chat messages then go from frame bytes to the
+ * broadcast without ever being decoded into a String ({@link #handleFrame}).
+ * With /binary deflate it also receives compressed frames, each broadcast
+ * compressed once for the whole room ({@link EncodedMessage#deflatedFrame}).
+ *
+ * With limits turned on (-Dchat.limit.*, off by default), every inbound
+ * line or frame costs a token from the client's {@link TokenBucket}; a
+ * client that has used up its budget is simply not read from until it
+ * has earned the next token ({@link #throttleNanos}), so TCP pushes back
+ * on the sender instead of the server spinning or dropping. Chat messages must also fit the room's budget
+ * ({@link ChatRoom#admit}); one that does not is refused, and the sender
+ * is paused until the room has room again.
+ *
+ * Every line or frame also counts as a sign of life for the
+ * {@link IdleReaper}, which PINGs quiet clients and drops silent ones
+ * (see {@link Heartbeat}).
+ *
+ * Names are unique on a server: every handler holds its name in the
+ * {@link PresenceIndex} from construction to {@link #disconnect}, which is
+ * also how /msg and /whois find a user without looking through rooms.
+ *
+ * A client that opts into a {@link Session} gets a token back whenever its
+ * name or room changes, and numbered chat lines; after a dropped
+ * connection it sends the token and the last number it saw, and is put
+ * back under its name, in its room, with the messages it missed
+ * ({@link #handleResume}).
  *
  * Supported commands (client → server):
  *   /nick <name>    – set or change display name
@@ -18,66 +63,140 @@ import java.util.Collection;
  *   /leave          – leave the current room
  *   /rooms          – list all active rooms with member counts
  *   /who            – list members of the current room
+ *   /who * [page]   – list everyone on this server, 50 to a page
+ *   /msg <user> <text> – private message to anyone on this server
+ *   /whois <user>   – a user's room and time online
+ *   /sub <topic>    – in the current room, only receive chat messages
+ *                     with this @name, #tag or ~thread (and others added)
+ *   /unsub [topic]  – drop one topic, or all of them: receive everything
+ *   /subs           – list this room's topics
+ *   /history [<from-seq> [count]] – the room's recent chat messages,
+ *                     numbered; the newest ones without arguments
+ *   /session        – get a resume token and numbered chat lines
+ *   /resume <token> <seq> – come back after a dropped connection
+ *   /binary [deflate] – switch this connection to the binary protocol,
+ *                     optionally with compressed output
+ *   /stats          – server metrics (loopback clients only, unless
+ *                     -Dchat.stats.remote=true)
+ *   /ping, /pong    – heartbeats ({@link Heartbeat}); never counted as
+ *                     messages
  *   /quit           – disconnect
  *   <anything else> – send as a chat message to the current room
  */
 public class ClientHandler implements Runnable {
 
-    private static final DateTimeFormatter TIME_FMT =
-            DateTimeFormatter.ofPattern("HH:mm:ss");
+    /** Static part of the welcome banner, encoded once for all clients. */
+    private static final EncodedMessage WELCOME = EncodedMessage.of(String.join("\n",
+            "SERVER: Welcome to JavaChat! Commands:",
+            "SERVER:   /nick <name>        – set your display name",
+            "SERVER:   /join <room>        – join or create a room",
+            "SERVER:   /leave              – leave current room",
+            "SERVER:   /rooms              – list all rooms",
+            "SERVER:   /who                – list room members",
+            "SERVER:   /who * [page]       – list everyone online",
+            "SERVER:   /msg <user> <text>  – send a private message",
+            "SERVER:   /whois <user>       – find a user",
+            "SERVER:   /sub <topic>        – only get messages with @name, #tag or ~thread",
+            "SERVER:   /unsub [topic]      – stop filtering (one topic, or all)",
+            "SERVER:   /history [seq] [n]  – recent messages, from number seq on",
+            "SERVER:   /quit               – disconnect"));
+
+    /** Users per /who * reply. */
+    private static final int WHO_PAGE_SIZE = 50;
+
+    /** How often a client waiting for its join, or for a backlogged shard, is looked at again. */
+    private static final long SHARD_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /** Messages per /history reply, by default and at most. */
+    private static final int HISTORY_PAGE_SIZE = 20;
+    private static final int MAX_HISTORY_PAGE_SIZE = 100;
+
+    private static final EncodedMessage UNKNOWN_COMMAND =
+            EncodedMessage.of("SERVER: Unknown command. Type /quit to exit.");
+    private static final EncodedMessage NOT_IN_ROOM =
+            EncodedMessage.of("SERVER: Join a room first with /join <room>.");
+    private static final EncodedMessage MULTI_LINE_TEXT =
+            EncodedMessage.of("SERVER: A TEXT frame must hold a single line; frame ignored.");
+
+    private static final byte[] PING_LINE = Heartbeat.PING.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PONG_LINE = Heartbeat.PONG.getBytes(StandardCharsets.US_ASCII);
+
+    private static final EncodedMessage PING =
+            EncodedMessage.forRoom(Heartbeat.PING, BinaryProtocol.PING, 0);
+    private static final EncodedMessage PONG =
+            EncodedMessage.forRoom(Heartbeat.PONG, BinaryProtocol.PONG, 0);
 
     private final Socket socket;
+    private final ServerContext context;
     private final RoomManager roomManager;
-    private PrintWriter out;
+    private final TokenBucket limit;    // null = unlimited
+    private final IdleReaper reaper;    // null = no heartbeats
+    private volatile Connection connection;   // set by run() in blocking mode; read by senders on any thread
+    private long pausedUntil;           // nanoTime; set when a busy room refuses a message
+    private volatile int lastHeard;     // reaper tick of the latest inbound line
+    private volatile boolean gone;      // disconnected; the reaper forgets it
+    private volatile boolean joining;   // a join is waiting for its room's shard
+    private volatile int pingedAt;      // reaper tick of the latest PING; written by the reaper only
 
-    private String username = "Guest_" + (int)(Math.random() * 9000 + 1000);
-    private ChatRoom currentRoom = null;
+    private final long connectedAt = System.nanoTime();
+    private volatile String username;   // held in context.presence; read by /whois, /who *
+    private volatile ChatRoom currentRoom;
+    private volatile boolean binary;    // read by other handlers' broadcasts
+    private volatile boolean deflate;   // binary, with compressed output
+    private volatile String sessionId;  // null until /session or /resume
+    private volatile boolean sequenced; // text output with SEQ numbers on chat lines
+    private byte[] nameBytes;
 
-    public ClientHandler(Socket socket, RoomManager roomManager) {
+    ClientHandler(Socket socket, ServerContext context) {
         this.socket = socket;
-        this.roomManager = roomManager;
+        this.context = context;
+        this.roomManager = context.rooms;
+        this.limit = TokenBucket.of(context.config.clientRate, context.config.clientBurst);
+        this.reaper = context.reaper;
+        this.pausedUntil = System.nanoTime();
+        this.username = context.presence.claimGuest(this);
+        this.nameBytes = username.getBytes(StandardCharsets.UTF_8);
+        context.stats.connectionOpened();
     }
 
+    /** Creates a handler for an event-loop transport; {@link #run()} is not used. */
+    ClientHandler(Connection connection, ServerContext context) {
+        this.socket = null;
+        this.connection = connection;
+        this.context = context;
+        this.roomManager = context.rooms;
+        this.limit = TokenBucket.of(context.config.clientRate, context.config.clientBurst);
+        this.reaper = context.reaper;
+        this.pausedUntil = System.nanoTime();
+        this.username = context.presence.claimGuest(this);
+        this.nameBytes = username.getBytes(StandardCharsets.UTF_8);
+        context.stats.connectionOpened();
+    }
+
+    /** Blocking-mode read loop. */
     @Override
     public void run() {
-        try (
-            BufferedReader in = new BufferedReader(
-                    new InputStreamReader(socket.getInputStream()));
-            PrintWriter writer = new PrintWriter(socket.getOutputStream(), true)
-        ) {
-            this.out = writer;
-            sendMessage("SERVER: Welcome to JavaChat! Commands:");
-            sendMessage("SERVER:   /nick <name>  – set your display name");
-            sendMessage("SERVER:   /join <room>  – join or create a room");
-            sendMessage("SERVER:   /leave        – leave current room");
-            sendMessage("SERVER:   /rooms        – list all rooms");
-            sendMessage("SERVER:   /who          – list room members");
-            sendMessage("SERVER:   /quit         – disconnect");
-            sendMessage("SERVER: Your temporary name is: " + username);
-
-            String line;
-            while ((line = in.readLine()) != null) {
-                line = line.trim();
-                if (line.isEmpty()) continue;
-
-                if (line.startsWith("/nick ")) {
-                    handleNick(line.substring(6).trim());
-                } else if (line.startsWith("/join ")) {
-                    handleJoin(line.substring(6).trim());
-                } else if (line.equals("/leave")) {
-                    handleLeave();
-                } else if (line.equals("/rooms")) {
-                    handleRooms();
-                } else if (line.equals("/who")) {
-                    handleWho();
-                } else if (line.equals("/quit")) {
-                    sendMessage("SERVER: Goodbye, " + username + "!");
-                    break;
-                } else if (line.startsWith("/")) {
-                    sendMessage("SERVER: Unknown command. Type /quit to exit.");
-                } else {
-                    handleMessage(line);
+        try {
+            LineReader in = new LineReader(socket.getInputStream());
+            this.connection = new SocketConnection(socket, context);
+            onConnect();
+
+            while (true) {
+                if (binary) {
+                    if (!in.readFrame()) break;
+                    awaitBudget();
+                    if (!handleFrame(in.frameOpcode(), in.frameRoomId(),
+                            in.frameBuffer(), in.frameOffset(), in.frameLength())) break;
+                    continue;
                 }
+                if (!in.readLine()) break;
+                if (in.overflowed()) {
+                    sendMessage("SERVER: Line too long (max "
+                            + NioConnection.MAX_LINE_BYTES + " bytes).");
+                    continue;
+                }
+                awaitBudget();
+                if (!handleLine(in.lineBuffer(), in.lineOffset(), in.lineLength())) break;
             }
         } catch (IOException e) {
             // Client disconnected unexpectedly – handled below
@@ -86,6 +205,218 @@ public class ClientHandler implements Runnable {
         }
     }
 
+    /** Blocking modes: parks the reader (not spinning) while the client is over budget. */
+    private void awaitBudget() {
+        long wait = throttleNanos();
+        if (wait <= 0) return;
+        context.stats.readerPaused();
+        do {
+            LockSupport.parkNanos(wait);
+        } while ((wait = throttleNanos()) > 0);
+    }
+
+    /**
+     * How long the transport should hold off before dispatching this
+     * client's next line or frame: while it is over its own budget, after
+     * a busy room refused its message, while its join waits for the room's
+     * shard, or while that shard is backlogged. 0 means go ahead.
+     */
+    long throttleNanos() {
+        ChatRoom room = currentRoom;
+        if (joining || (room != null && room.backlogged())) return SHARD_WAIT_NANOS;
+        long now = System.nanoTime();
+        long wait = (limit != null) ? limit.delayNanos(now) : 0;
+        return Math.max(wait, pausedUntil - now);
+    }
+
+    /** Sends the welcome banner and starts heartbeats. */
+    void onConnect() {
+        context.clients.add(this);
+        if (context.draining) {
+            // Accepted just before the listener closed; Drain may not have seen it
+            drain(Drain.NOTICE);
+            return;
+        }
+        if (reaper != null) reaper.register(this);
+        send(WELCOME);
+        sendMessage("SERVER: Your temporary name is: " + username);
+    }
+
+    /** Dispatches one inbound line given as a String (tests and benchmarks). */
+    boolean handleLine(String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        return handleLine(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Dispatches one inbound line: UTF-8, without its terminator, only valid
+     * during the call.
+     *
+     * @return false if the client asked to quit
+     */
+    boolean handleLine(byte[] buf, int offset, int length) {
+        if (reaper != null) heard(reaper.tick());
+        int from = offset;
+        int to = offset + length;
+        while (from < to && (buf[from] & 0xFF) <= ' ') from++;      // String.trim() rules
+        while (to > from && (buf[to - 1] & 0xFF) <= ' ') to--;
+        if (from == to || equals(buf, from, to, PONG_LINE)) return true;
+        if (equals(buf, from, to, PING_LINE)) {
+            send(PONG);
+            return true;
+        }
+        context.stats.messageIn();
+        if (limit != null) limit.acquire(System.nanoTime());
+
+        if (buf[from] != '/') {
+            if (currentRoom == null) {
+                send(NOT_IN_ROOM);
+            } else {
+                handleMessage(buf, from, to - from);
+            }
+            return true;
+        }
+        int wordEnd = from;
+        while (wordEnd < to && buf[wordEnd] != ' ') wordEnd++;
+        Command command = Command.lookup(buf, from, wordEnd);
+        if (command == null || (wordEnd < to && !command.takesArgument)) {
+            send(UNKNOWN_COMMAND);
+            return true;
+        }
+        String argument = (wordEnd < to)
+                ? new String(buf, wordEnd, to - wordEnd, StandardCharsets.UTF_8).trim()
+                : "";
+        switch (command) {
+            case NICK -> handleNick(argument);
+            case JOIN -> handleJoin(argument);
+            case LEAVE -> handleLeave();
+            case ROOMS -> handleRooms();
+            case WHO -> handleWho(argument);
+            case MSG -> handleDirectMessage(argument);
+            case WHOIS -> handleWhois(argument);
+            case SUB -> handleSubscribe(argument);
+            case UNSUB -> handleUnsubscribe(argument);
+            case SUBS -> handleSubscriptions();
+            case HISTORY -> handleHistory(argument);
+            case SESSION -> handleSession();
+            case RESUME -> handleResume(argument);
+            case STATS -> handleStats();
+            case BINARY -> {
+                if (argument.isEmpty() || argument.equals("deflate")) {
+                    handleBinary(!argument.isEmpty());
+                } else {
+                    send(UNKNOWN_COMMAND);
+                }
+            }
+            case QUIT -> {
+                sendMessage("SERVER: Goodbye, " + username + "!");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean equals(byte[] buf, int from, int to, byte[] word) {
+        return to - from == word.length && Arrays.equals(buf, from, to, word, 0, word.length);
+    }
+
+    /**
+     * Text-protocol commands. {@link #lookup} finds one from the bytes of a
+     * line's first word through a table indexed by word length, so
+     * dispatch costs a comparison or two and no String.
+     */
+    private enum Command {
+        NICK("/nick", true),
+        JOIN("/join", true),
+        LEAVE("/leave", false),
+        ROOMS("/rooms", false),
+        WHO("/who", true),          // optional "* [page]"
+        MSG("/msg", true),
+        WHOIS("/whois", true),
+        SUB("/sub", true),
+        UNSUB("/unsub", true),      // optional topic
+        SUBS("/subs", false),
+        HISTORY("/history", true),  // optional "<from-seq> [count]"
+        SESSION(Session.START, false),
+        RESUME(Session.RESUME, true),
+        STATS("/stats", false),
+        BINARY(BinaryProtocol.NEGOTIATE, true),     // optional "deflate"
+        QUIT("/quit", false);
+
+        private static final Command[][] BY_LENGTH = new Command[16][];
+
+        static {
+            for (Command command : values()) {
+                Command[] same = BY_LENGTH[command.word.length];
+                same = (same == null) ? new Command[1] : Arrays.copyOf(same, same.length + 1);
+                same[same.length - 1] = command;
+                BY_LENGTH[command.word.length] = same;
+            }
+        }
+
+        final byte[] word;
+        final boolean takesArgument;
+
+        Command(String word, boolean takesArgument) {
+            this.word = word.getBytes(StandardCharsets.US_ASCII);
+            this.takesArgument = takesArgument;
+        }
+
+        /** The command whose word is {@code buf[from, to)}, or null. */
+        static Command lookup(byte[] buf, int from, int to) {
+            int length = to - from;
+            Command[] candidates = (length < BY_LENGTH.length) ? BY_LENGTH[length] : null;
+            if (candidates == null) return null;
+            for (Command command : candidates) {
+                if (Arrays.equals(buf, from, to, command.word, 0, length)) return command;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Dispatches one inbound binary frame; the payload is only valid during
+     * the call.
+     *
+     * @return false if the client asked to quit
+     */
+    boolean handleFrame(byte opcode, int roomId, byte[] buf, int offset, int length) {
+        if (reaper != null) heard(reaper.tick());
+        switch (opcode) {
+            case BinaryProtocol.TEXT:
+                // One command per frame, as on the text protocol; its arguments end up in other clients' lines
+                for (int i = offset; i < offset + length; i++) {
+                    if (buf[i] == '\n' || buf[i] == '\r') {
+                        send(MULTI_LINE_TEXT);
+                        return true;
+                    }
+                }
+                return handleLine(buf, offset, length);
+            case BinaryProtocol.MESSAGE:
+                if (length == 0) return true;
+                context.stats.messageIn();
+                if (limit != null) limit.acquire(System.nanoTime());
+                if (currentRoom == null || currentRoom.getId() != roomId) {
+                    sendMessage("SERVER: You are not in room " + roomId + ".");
+                } else {
+                    handleMessage(buf, offset, length);
+                }
+                return true;
+            case BinaryProtocol.PING:
+                send(PONG);
+                return true;
+            case BinaryProtocol.PONG:
+                return true;
+            default:
+                sendMessage("SERVER: Unknown frame opcode " + opcode + ".");
+                return true;
+        }
+    }
+
+    boolean isBinary() {
+        return binary;
+    }
+
     // ── Command handlers ────────────────────────────────────────────────────
 
     private void handleNick(String newName) {
@@ -93,17 +424,23 @@ public class ClientHandler implements Runnable {
             sendMessage("SERVER: Usage: /nick <name>");
             return;
         }
-        if (newName.length() > 20) {
-            sendMessage("SERVER: Name too long (max 20 chars).");
+        String invalid = Names.checkName(newName);
+        if (invalid != null) {
+            sendMessage("SERVER: " + invalid);
             return;
         }
         String oldName = username;
-        username = newName;
+        if (!context.presence.rename(oldName, newName, this)) {
+            sendMessage("SERVER: The name " + newName + " is already taken.");
+            return;
+        }
+        setName(newName);
         sendMessage("SERVER: Name changed to " + username);
         if (currentRoom != null) {
             currentRoom.broadcast(
                 "SERVER: " + oldName + " is now known as " + username, this);
         }
+        sendToken();
     }
 
     private void handleJoin(String roomName) {
@@ -111,20 +448,70 @@ public class ClientHandler implements Runnable {
             sendMessage("SERVER: Usage: /join <room>");
             return;
         }
-        if (roomName.length() > 30) {
-            sendMessage("SERVER: Room name too long (max 30 chars).");
+        String invalid = Names.checkRoom(roomName);
+        if (invalid != null) {
+            sendMessage("SERVER: " + invalid);
             return;
         }
         // Leave current room first
         if (currentRoom != null) {
             leaveRoom();
         }
-        currentRoom = roomManager.getOrCreate(roomName);
-        currentRoom.addMember(this);
-        currentRoom.broadcast(
-            "SERVER: " + username + " has joined #" + roomName, this);
-        sendMessage("SERVER: Joined #" + roomName
-                + " (" + currentRoom.getMemberCount() + " member(s)).");
+        enterRoom(roomName, room -> {
+            room.broadcast("SERVER: " + username + " has joined #" + roomName, this);
+            sendMessage("SERVER: Joined #" + roomName
+                    + " (" + room.getMemberCount() + " member(s)).");
+            if (binary) {
+                sendFrame(BinaryProtocol.JOINED, room.getId(), roomName);
+            }
+            replayHistory(room);
+            sendToken();
+        });
+    }
+
+    /**
+     * Joins a room, then runs {@code then} with it – on the room's shard
+     * when rooms are sharded, so the caller (an event loop, in NIO mode)
+     * never waits for the shard. Until then the transport reads nothing
+     * more from this client ({@link #throttleNanos}), so its next line
+     * already finds it in the room.
+     */
+    private void enterRoom(String roomName, Consumer<ChatRoom> then) {
+        joining = true;
+        roomManager.join(roomName, this, room -> {
+            currentRoom = room;
+            try {
+                if (gone) {
+                    // Disconnected while joining; disconnect() may have missed the room
+                    roomManager.leave(room, this);
+                    return;
+                }
+                then.accept(room);
+            } finally {
+                joining = false;
+            }
+        });
+    }
+
+    /**
+     * Sends the room's most recent logged messages, straight from the log
+     * mapping. The disk is read on the log writer thread, which then queues
+     * them here, so the room's shard goes on fanning out meanwhile; chat
+     * sent in the room after the join may arrive ahead of them.
+     */
+    private void replayHistory(ChatRoom room) {
+        ServerConfig config = context.config;
+        long since = (config.logReplayMinutes > 0)
+                ? System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(config.logReplayMinutes)
+                : 0;
+        room.replayLog(config.logReplayCount, since, history -> {
+            if (history.isEmpty() || currentRoom != room) return;
+            sendMessage("SERVER: Last " + history.size() + " message(s) in #" + room.getName() + ":");
+            for (ByteBuffer line : history) {
+                send(EncodedMessage.wrap(line, BinaryProtocol.MESSAGE, room.getId()));
+            }
+            sendMessage("SERVER: End of history.");
+        });
     }
 
     private void handleLeave() {
@@ -135,6 +522,10 @@ public class ClientHandler implements Runnable {
         String roomName = currentRoom.getName();
         leaveRoom();
         sendMessage("SERVER: You left #" + roomName + ".");
+        if (binary) {
+            sendFrame(BinaryProtocol.JOINED, 0, "");
+        }
+        sendToken();
     }
 
     private void handleRooms() {
@@ -143,61 +534,510 @@ public class ClientHandler implements Runnable {
             sendMessage("SERVER: No active rooms. Create one with /join <room>.");
             return;
         }
-        sendMessage("SERVER: Active rooms:");
+        // One multi-line message, so the listing goes out in a single write
+        StringBuilder reply = new StringBuilder("SERVER: Active rooms:");
         for (ChatRoom room : allRooms) {
             String marker = (room == currentRoom) ? " <- (you are here)" : "";
-            sendMessage("  #" + room.getName()
-                    + " [" + room.getMemberCount() + " member(s)]" + marker);
+            reply.append("\n  #").append(room.getName())
+                 .append(" [").append(room.getMemberCount()).append(" member(s)]").append(marker);
         }
+        sendMessage(reply.toString());
     }
 
-    private void handleWho() {
+    /** "/who" lists the current room; "/who * [page]" everyone on this server. */
+    private void handleWho(String argument) {
+        if (argument.startsWith("*")) {
+            String page = argument.substring(1).trim();
+            if (page.isEmpty()) {
+                handleWhoAll(1);
+            } else if (page.chars().allMatch(c -> c >= '0' && c <= '9') && page.length() <= 9) {
+                handleWhoAll(Integer.parseInt(page));
+            } else {
+                sendMessage("SERVER: Usage: /who * [page]");
+            }
+            return;
+        }
+        if (!argument.isEmpty()) {
+            sendMessage("SERVER: Usage: /who, or /who * [page] for everyone online");
+            return;
+        }
         if (currentRoom == null) {
             sendMessage("SERVER: You are not in any room.");
             return;
         }
-        sendMessage("SERVER: Members of #" + currentRoom.getName() + ":");
+        StringBuilder reply = new StringBuilder("SERVER: Members of #")
+                .append(currentRoom.getName()).append(':');
         for (ClientHandler member : currentRoom.getMembers()) {
             String tag = (member == this) ? " (you)" : "";
-            sendMessage("  - " + member.username + tag);
+            reply.append("\n  - ").append(member.username).append(tag);
+        }
+        sendMessage(reply.toString());
+    }
+
+    /**
+     * One page of everyone on this server in name order, as a single
+     * message: the reply stays the same size however many are online, and
+     * costs a walk of the {@link PresenceIndex} up to the page, not a pass
+     * over every room.
+     */
+    private void handleWhoAll(int page) {
+        int total = context.presence.size();
+        int pages = Math.max(1, (total + WHO_PAGE_SIZE - 1) / WHO_PAGE_SIZE);
+        if (page < 1 || page > pages) {
+            sendMessage("SERVER: No page " + page + "; there are " + pages + " page(s).");
+            return;
+        }
+        StringBuilder reply = new StringBuilder("SERVER: Online users (page ")
+                .append(page).append(" of ").append(pages).append(", ")
+                .append(total).append(" total):");
+        for (ClientHandler user : context.presence.page(page - 1, WHO_PAGE_SIZE)) {
+            reply.append("\n  - ").append(user.username);
+            ChatRoom room = user.currentRoom;
+            if (room != null) reply.append(" [#").append(room.getName()).append(']');
+            if (user == this) reply.append(" (you)");
+        }
+        if (page < pages) {
+            reply.append("\n  /who * ").append(page + 1).append(" for more.");
+        }
+        sendMessage(reply.toString());
+    }
+
+    /** "/msg <user> <text>": to one user, wherever they are on this server. */
+    private void handleDirectMessage(String argument) {
+        int space = argument.indexOf(' ');
+        if (space < 0) {
+            sendMessage("SERVER: Usage: /msg <user> <text>");
+            return;
+        }
+        String name = argument.substring(0, space);
+        ClientHandler target = context.presence.find(name);
+        if (target == null) {
+            sendMessage("SERVER: No user named " + name + " on this server.");
+            return;
+        }
+        // Text clients split on '\n', so a frame must not smuggle one in
+        String text = argument.substring(space + 1).trim().replace('\n', ' ').replace('\r', ' ');
+        String stamp = new String(Timestamps.now(), StandardCharsets.US_ASCII);
+        context.stats.directMessage();
+        target.sendMessage(stamp + username + " (private): " + text);
+        if (target != this) {
+            sendMessage(stamp + "to " + target.username + " (private): " + text);
+        }
+    }
+
+    private void handleWhois(String name) {
+        if (name.isEmpty()) {
+            sendMessage("SERVER: Usage: /whois <user>");
+            return;
+        }
+        ClientHandler user = context.presence.find(name);
+        if (user == null) {
+            sendMessage("SERVER: No user named " + name + " on this server.");
+            return;
+        }
+        ChatRoom room = user.currentRoom;
+        long online = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - user.connectedAt);
+        sendMessage("SERVER: " + user.username
+                + (room != null ? " is in #" + room.getName() : " is not in a room")
+                + ", online for " + formatDuration(online) + ".");
+    }
+
+    private void handleSubscribe(String topic) {
+        if (currentRoom == null) {
+            sendMessage("SERVER: You are not in any room.");
+            return;
+        }
+        if (topic.isEmpty()) {
+            sendMessage("SERVER: Usage: /sub <@name|#tag|~thread>");
+            return;
+        }
+        String key = TopicIndex.key(topic);
+        if (key == null) {
+            sendMessage("SERVER: A topic is @name, #tag or ~thread: letters, digits, '_' or '-', max "
+                    + TopicIndex.MAX_TOPIC_BYTES + " bytes.");
+            return;
+        }
+        if (!currentRoom.subscribe(this, key)) {
+            sendMessage("SERVER: At most " + TopicIndex.MAX_TOPICS_PER_MEMBER + " topics per room.");
+            return;
+        }
+        sendMessage("SERVER: In #" + currentRoom.getName() + " you now only receive messages with "
+                + String.join(", ", currentRoom.subscriptions(this)) + ".");
+    }
+
+    private void handleUnsubscribe(String topic) {
+        if (currentRoom == null) {
+            sendMessage("SERVER: You are not in any room.");
+            return;
+        }
+        String key = topic.isEmpty() ? null : TopicIndex.key(topic);
+        if ((key == null && !topic.isEmpty()) || !currentRoom.unsubscribe(this, key)) {
+            sendMessage(topic.isEmpty()
+                    ? "SERVER: You already receive every message in #" + currentRoom.getName() + "."
+                    : "SERVER: You are not subscribed to " + topic + ".");
+            return;
         }
+        handleSubscriptions();
     }
 
-    private void handleMessage(String text) {
+    private void handleSubscriptions() {
         if (currentRoom == null) {
-            sendMessage("SERVER: Join a room first with /join <room>.");
+            sendMessage("SERVER: You are not in any room.");
+            return;
+        }
+        List<String> topics = currentRoom.subscriptions(this);
+        sendMessage(topics.isEmpty()
+                ? "SERVER: You receive every message in #" + currentRoom.getName() + "."
+                : "SERVER: In #" + currentRoom.getName() + " you only receive messages with "
+                        + String.join(", ", topics) + ".");
+    }
+
+    private void handleSession() {
+        if (sessionId == null) sessionId = SessionToken.newId();
+        sequenced = true;
+        sendToken();
+    }
+
+    /**
+     * "/resume <token> <last seq>": takes back the token's name – also from
+     * a connection of the same session that is not yet known to be dead –
+     * and rejoins its room without announcing it, then sends the room's
+     * chat messages numbered after {@code seq} (text protocol only; binary
+     * frames carry no numbers). A token that cannot be used starts a fresh
+     * session instead, so the client always gets a token back first.
+     */
+    private void handleResume(String argument) {
+        String[] parts = argument.split(" +");
+        SessionToken token = (parts.length == 2) ? SessionToken.parse(parts[0]) : null;
+        long seq = (token != null) ? parseSeq(parts[1]) : -1;
+        if (currentRoom != null) {
+            sendMessage("SERVER: Leave your room before resuming a session.");
+            return;
+        }
+        if (seq < 0) {
+            handleSession();
+            sendMessage("SERVER: Could not resume that session; this is a new one.");
+            return;
+        }
+        sessionId = token.id();
+        sequenced = true;
+        String note = resumeName(token);
+        if (token.room().isEmpty()) {
+            welcomeBack(null, seq, note);
+            return;
+        }
+        enterRoom(token.room(), room -> {
+            if (binary) {
+                sendFrame(BinaryProtocol.JOINED, room.getId(), token.room());
+            }
+            welcomeBack(room, seq, note);
+        });
+    }
+
+    /** The rest of a resume, once back in {@code room} (null for none). */
+    private void welcomeBack(ChatRoom room, long seq, String note) {
+        sendToken();
+        sendMessage("SERVER: Welcome back, " + username
+                + (room != null ? ". You are in #" + room.getName() + "." : ".")
+                + (note != null ? " " + note : ""));
+        if (room != null && !binary) {
+            ChatRoom.Missed missed = room.since(seq);
+            if (!missed.complete()) {
+                sendMessage("SERVER: Some messages from while you were away are no longer available.");
+            }
+            if (!missed.messages().isEmpty()) {
+                sendMessage("SERVER: " + missed.messages().size() + " message(s) you missed:");
+                for (EncodedMessage message : missed.messages()) {
+                    send(message);
+                }
+                sendMessage("SERVER: End of missed messages.");
+            }
+        }
+    }
+
+    /** Takes the token's name if it can. @return a note for the client if it could not */
+    private String resumeName(SessionToken token) {
+        String name = token.name();
+        ClientHandler holder = context.presence.find(name);
+        if (holder != null && holder != this && token.id().equals(holder.sessionId)) {
+            // Our own old connection, still registered: it gets reaped, we get the name
+            if (context.presence.transfer(name, holder, this)) {
+                holder.sessionId = null;
+                holder.reap();
+                context.presence.release(username, this);
+                setName(name);
+                return null;
+            }
+        }
+        if (!context.presence.rename(username, name, this)) {
+            return "The name " + name + " is taken, so you are " + username + ".";
+        }
+        setName(name);
+        return null;
+    }
+
+    private static long parseSeq(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * "/history [<from-seq> [count]]": the current room's chat messages from
+     * a number on, or its newest ones, straight out of the room's
+     * {@link HistoryRing} – each is the broadcast's own shared encoding.
+     * Text clients get them numbered whether or not they have a session,
+     * so they can ask for the next page.
+     */
+    private void handleHistory(String argument) {
+        ChatRoom room = currentRoom;
+        if (room == null) {
+            sendMessage("SERVER: You are not in any room.");
+            return;
+        }
+        if (!room.keepsRecent()) {
+            sendMessage("SERVER: This server keeps no room history.");
+            return;
+        }
+        String[] parts = argument.isEmpty() ? new String[0] : argument.split(" +");
+        long from = (parts.length > 0) ? parseSeq(parts[0]) : 0;
+        long count = (parts.length > 1) ? parseSeq(parts[1]) : HISTORY_PAGE_SIZE;
+        if (parts.length > 2 || from < 0 || count < 1 || count > MAX_HISTORY_PAGE_SIZE) {
+            sendMessage("SERVER: Usage: /history [<from-seq> [count]], count 1-" + MAX_HISTORY_PAGE_SIZE);
+            return;
+        }
+        if (parts.length == 0) {
+            from = room.lastSeq() - count + 1;
+        }
+        long oldest = room.oldestSeq();
+        long[] last = {from - 1};
+        int sent = room.recent(from, (int) count, message -> {
+            sendNumbered(message);
+            last[0] = message.seq();
+        });
+        long latest = room.lastSeq();
+        if (sent == 0) {
+            sendMessage(oldest > latest
+                    ? "SERVER: No messages in #" + room.getName() + " yet."
+                    : "SERVER: No messages from " + from + " on; #" + room.getName()
+                            + " holds " + oldest + " to " + latest + ".");
             return;
         }
-        String timestamp = LocalTime.now().format(TIME_FMT);
-        String formatted = "[" + timestamp + "] " + username + ": " + text;
-        currentRoom.broadcast(formatted, this);
-        // Echo back to sender with same format
-        sendMessage(formatted);
+        StringBuilder reply = new StringBuilder("SERVER: ").append(sent)
+                .append(" message(s) from #").append(room.getName()).append('.');
+        if (parts.length > 0 && from < oldest && oldest > room.firstSeq()) {
+            // Only if some were dropped; numbers before the room's first were never used
+            reply.append(" Those before ").append(oldest).append(" are no longer held.");
+        }
+        if (last[0] < latest) {
+            reply.append(" /history ").append(last[0] + 1).append(" for more.");
+        }
+        sendMessage(reply.toString());
+    }
+
+    private void handleStats() {
+        if (!context.config.statsRemote && !connection.isLoopback()) {
+            sendMessage("SERVER: /stats is only available from the server host.");
+            return;
+        }
+        StringBuilder reply = new StringBuilder("SERVER: Server stats:");
+        for (String line : context.stats.report()) {
+            reply.append('\n').append(line);
+        }
+        sendMessage(reply.toString());
+    }
+
+    /**
+     * Output is switched only while outside any room: nothing else is then
+     * sending to this client, so no text line can follow the switch.
+     * Compression is granted only if the server allows it.
+     */
+    private void handleBinary(boolean compress) {
+        if (binary) {
+            sendMessage("SERVER: Already using the binary protocol.");
+        } else if (currentRoom != null) {
+            sendMessage("SERVER: Leave your room before switching to the binary protocol.");
+        } else {
+            boolean granted = compress && context.config.compression;
+            sendMessage(granted ? BinaryProtocol.ACCEPTED_DEFLATE : BinaryProtocol.ACCEPTED);
+            deflate = granted;
+            binary = true;
+        }
+    }
+
+    /**
+     * Chat message from either protocol: "[time] name: text", assembled from
+     * the shared timestamp, the cached name and the UTF-8 text, which is
+     * copied, never decoded. Everyone including the sender gets these bytes.
+     */
+    private void handleMessage(byte[] buf, int offset, int length) {
+        if (!admitted()) return;
+        byte[] stamp = Timestamps.now();
+        byte[] name = nameBytes;
+        int at = BinaryProtocol.HEADER_BYTES;
+        int textStart = at + stamp.length + name.length + 2;
+        byte[] framed = new byte[textStart + length + 1];     // header room, line, '\n'
+        System.arraycopy(stamp, 0, framed, at, stamp.length);
+        at += stamp.length;
+        System.arraycopy(name, 0, framed, at, name.length);
+        at += name.length;
+        framed[at] = ':';
+        framed[at + 1] = ' ';
+        for (int i = 0; i < length; i++) {
+            byte b = buf[offset + i];
+            // Text clients split on '\n', so a frame must not smuggle one in
+            framed[textStart + i] = (b == '\n' || b == '\r') ? (byte) ' ' : b;
+        }
+        framed[framed.length - 1] = '\n';
+        currentRoom.broadcastAll(framed, this);
     }
 
     // ── Helpers ─────────────────────────────────────────────────────────────
 
-    /** Remove from current room and clean up empty rooms. */
+    /** "42s", "5m 07s" or "3h 05m". */
+    private static String formatDuration(long seconds) {
+        if (seconds < 60) return seconds + "s";
+        if (seconds < 3600) return String.format("%dm %02ds", seconds / 60, seconds % 60);
+        return String.format("%dh %02dm", seconds / 3600, (seconds / 60) % 60);
+    }
+
+    /** Checks the room's budget; a refused message is reported and pauses this client. */
+    private boolean admitted() {
+        long wait = currentRoom.admit();
+        if (wait == 0) return true;
+        context.stats.roomRefused();
+        pausedUntil = System.nanoTime() + wait;
+        sendMessage("SERVER: #" + currentRoom.getName() + " is busy; message not sent.");
+        return false;
+    }
+
+    private void setName(String name) {
+        username = name;
+        nameBytes = name.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Session clients: the token for the current name and room. */
+    private void sendToken() {
+        String id = sessionId;
+        if (id == null) return;
+        ChatRoom room = currentRoom;
+        sendMessage(Session.TOKEN
+                + new SessionToken(id, username, room != null ? room.getName() : "").encode());
+    }
+
+    /**
+     * Remove from current room and clean up empty rooms. While the server
+     * drains, nobody is told: everyone is leaving, and the notices would
+     * only get in front of the restart notice, n of them for each of n
+     * members.
+     */
     private void leaveRoom() {
         if (currentRoom == null) return;
-        String roomName = currentRoom.getName();
-        currentRoom.broadcast(
-            "SERVER: " + username + " has left #" + roomName, this);
-        currentRoom.removeMember(this);
-        roomManager.removeIfEmpty(roomName);
+        if (!context.draining) {
+            currentRoom.broadcast(
+                "SERVER: " + username + " has left #" + currentRoom.getName(), this);
+        }
+        roomManager.leave(currentRoom, this);
         currentRoom = null;
     }
 
-    private void disconnect() {
+    /** Leaves the current room and closes the transport. */
+    void disconnect() {
+        gone = true;
+        context.clients.remove(this);
+        context.presence.release(username, this);
         leaveRoom();
-        try { socket.close(); } catch (IOException ignored) {}
-        System.out.println("[Server] " + username + " disconnected.");
+        context.stats.connectionClosed();
+        long dropped = 0;
+        if (connection != null) {
+            connection.close();
+            dropped = connection.droppedMessages();
+        } else {
+            try { socket.close(); } catch (IOException ignored) {}
+        }
+        System.out.println("[Server] " + username + " disconnected."
+                + (dropped > 0 ? " (" + dropped + " message(s) dropped as slow consumer)" : ""));
+    }
+
+    /** Shutdown: sends the notice, then closes once all queued output is written. */
+    void drain(EncodedMessage notice) {
+        send(notice);
+        Connection c = connection;
+        if (c != null) c.close();
+    }
+
+    // ── Heartbeats (driven by IdleReaper) ───────────────────────────────────
+
+    /** Records a sign of life at reaper tick {@code tick}. */
+    void heard(int tick) {
+        if (lastHeard != tick) lastHeard = tick;
+    }
+
+    int lastHeard() {
+        return lastHeard;
+    }
+
+    boolean isGone() {
+        return gone;
+    }
+
+    /** Reaper tick of the latest PING sent, or of registration if none was. */
+    int pingedAt() {
+        return pingedAt;
+    }
+
+    /** Sends a PING and records that it went out at reaper tick {@code tick}. */
+    void ping(int tick) {
+        pingedAt = tick;
+        send(PING);
+    }
+
+    /** Starts the ping clock at reaper tick {@code tick} without sending anything. */
+    void resetPinged(int tick) {
+        pingedAt = tick;
+    }
+
+    /** Drops a connection that stopped answering; the transport then disconnects it. */
+    void reap() {
+        Connection c = connection;
+        if (c != null) {
+            c.abort();
+        } else {
+            try { socket.close(); } catch (IOException ignored) {}
+        }
     }
 
+    // ── Output ──────────────────────────────────────────────────────────────
+
     /** Thread-safe send: called by other ClientHandlers' threads. */
-    public synchronized void sendMessage(String message) {
-        if (out != null) {
-            out.println(message);
+    public void sendMessage(String message) {
+        if (connection != null) {
+            send(EncodedMessage.of(message));
         }
     }
+
+    /** Sends an already-encoded message, shared with other recipients. */
+    void send(EncodedMessage message) {
+        Connection c = connection;
+        if (c != null) {
+            c.send(binary ? (deflate ? message.deflatedFrame() : message.frame())
+                    : sequenced ? message.sequencedBuffer() : message.buffer());
+        }
+    }
+
+    /** Like {@link #send(EncodedMessage)}, but a text client always gets the number. */
+    private void sendNumbered(EncodedMessage message) {
+        Connection c = connection;
+        if (c != null) {
+            c.send(binary ? (deflate ? message.deflatedFrame() : message.frame())
+                    : message.sequencedBuffer());
+        }
+    }
+
+    private void sendFrame(byte opcode, int roomId, String payload) {
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        connection.send(BinaryProtocol.frame(opcode, roomId, bytes, 0, bytes.length));
+    }
 }
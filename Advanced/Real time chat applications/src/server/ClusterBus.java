@@ -0,0 +1,49 @@
+package server;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Link between chat server nodes that share rooms (-Dchat.cluster).
+ *
+ * Every node tells the bus which rooms it currently has members in. A
+ * broadcast that originates on a node is fanned out to its local members
+ * as usual and then {@link #publish published} once; the bus sends one
+ * copy to each peer that has members in the room, and that peer fans it
+ * out to its own members. Messages received from the bus are never
+ * published again, so nothing loops.
+ *
+ * Implementations: {@link LoopbackBus} for several nodes inside one JVM,
+ * {@link TcpMeshBus} for separate processes.
+ */
+interface ClusterBus {
+
+    /** Receives the broadcasts of peers, for rooms this node has said it is in. */
+    @FunctionalInterface
+    interface Listener {
+        /**
+         * @param framed {@link protocol.BinaryProtocol#HEADER_BYTES} bytes of room for
+         *               a frame header, then the line and its '\n' – the layout
+         *               {@link EncodedMessage#forRoom(byte[], byte, int)} takes
+         */
+        void deliver(String room, byte opcode, byte[] framed);
+    }
+
+    /** Connects to the peers; received broadcasts go to {@code listener}. */
+    void start(Listener listener);
+
+    /**
+     * Records whether this node has members in the room. Idempotent; the
+     * last call for a room wins, so callers announce state, not transitions.
+     */
+    void interest(String room, boolean interested);
+
+    /**
+     * Sends one line, as produced by {@link EncodedMessage#buffer()}, to every
+     * peer interested in the room. Never blocks; a peer that cannot keep up
+     * loses messages (counted in {@link ServerStats}).
+     */
+    void publish(String room, byte opcode, ByteBuffer line);
+
+    /** Short description for the startup banner. */
+    String describe();
+}
@@ -0,0 +1,38 @@
+package server;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Transport-side view of a connected client.
+ *
+ * ClientHandler holds the session state (name, room, commands) and talks
+ * to the socket only through this interface, so the same command set runs
+ * on top of both the blocking and the NIO transport.
+ */
+interface Connection {
+
+    /**
+     * Queues one encoded line or frame of output (a view the connection may
+     * consume). Safe to call from any thread.
+     */
+    void send(ByteBuffer bytes);
+
+    /** Closes the connection once already-queued output has been written. */
+    void close();
+
+    /**
+     * Drops the connection now, discarding queued output. The transport
+     * then notices and runs the handler's normal disconnect. Safe to call
+     * from any thread.
+     */
+    void abort();
+
+    /** "host:port" of the remote peer, for logging. */
+    String remoteAddress();
+
+    /** True if the peer connected from this machine (gates admin commands). */
+    boolean isLoopback();
+
+    /** Messages discarded so far because the client could not keep up. */
+    long droppedMessages();
+}
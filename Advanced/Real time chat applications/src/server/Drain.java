@@ -0,0 +1,73 @@
+package server;
+
+import java.io.IOException;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Graceful shutdown of one server, run from a JVM shutdown hook (SIGTERM,
+ * Ctrl-C) instead of dropping everything in flight.
+ *
+ * In order: stop accepting – with SO_REUSEPORT a replacement server may
+ * already be listening on the same port, and from here on it gets every
+ * new connection; let the room shards run the broadcasts they hold; tell
+ * every client to reconnect and close it once its outbound queue has been
+ * written; drop whoever is still connected at -Dchat.drain.timeoutSec;
+ * flush the message log.
+ */
+final class Drain implements Runnable {
+
+    static final EncodedMessage NOTICE =
+            EncodedMessage.of("SERVER: Server is restarting. Please reconnect.");
+
+    /** The message log always gets at least this long, even past the deadline. */
+    private static final long MIN_LOG_FLUSH_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final ServerContext context;
+    private final ServerSocketChannel listener;
+
+    Drain(ServerContext context, ServerSocketChannel listener) {
+        this.context = context;
+        this.listener = listener;
+    }
+
+    @Override
+    public void run() {
+        long start = System.nanoTime();
+        long deadline = start + context.config.drainTimeoutNanos;
+        context.draining = true;
+        try { listener.close(); } catch (IOException ignored) {}
+
+        int connected = context.clients.size();
+        System.out.println("[Server] Shutting down: draining " + connected + " connection(s) ...");
+        int dropped = 0;
+        try {
+            if (!context.rooms.awaitQueued(remaining(deadline))) {
+                System.err.println("[Server] Room shards still busy at the drain deadline.");
+            }
+            for (ClientHandler client : context.clients) {
+                client.drain(NOTICE);
+            }
+            while (!context.clients.isEmpty() && remaining(deadline) > 0) {
+                Thread.sleep(10);
+            }
+            for (ClientHandler client : context.clients) {
+                client.reap();
+                dropped++;
+            }
+            if (context.log != null
+                    && !context.log.flush(Math.max(remaining(deadline), MIN_LOG_FLUSH_NANOS))) {
+                System.err.println("[Server] Message log not fully flushed at shutdown.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        System.out.println("[Server] Drained " + connected + " connection(s) in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms"
+                + (dropped > 0 ? " (" + dropped + " dropped at the deadline)" : "") + ".");
+    }
+
+    private static long remaining(long deadline) {
+        return Math.max(0, deadline - System.nanoTime());
+    }
+}
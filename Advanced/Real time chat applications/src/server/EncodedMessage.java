@@ -0,0 +1,235 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+import protocol.BinaryProtocol;
+import protocol.Compression;
+import protocol.Session;
+
+/**
+ * One line of output, encoded to UTF-8 exactly once.
+ *
+ * A room broadcast creates a single EncodedMessage and hands it to every
+ * member; each member's writer gets its own {@link #buffer() view} of the
+ * same read-only bytes, so the charset work per message is O(1) instead of
+ * O(members).
+ *
+ * The bytes stay on the heap, however large the audience. A socket write
+ * copies them through the JDK's cached per-thread direct buffer anyway,
+ * while a direct buffer per message would be slow to allocate, freed only
+ * by the GC's Cleaner, and count against -XX:MaxDirectMemorySize – with
+ * every room's {@link HistoryRing} pinning hundreds of them.
+ *
+ * Clients on the binary protocol get the same line as a
+ * {@link BinaryProtocol} frame. The bytes are laid out as
+ * [frame header][line]['\n'] in one buffer, so the text line and the frame
+ * are two views of a single allocation.
+ *
+ * Clients that negotiated compression get a {@link #deflatedFrame()}:
+ * each message is compressed on its own ({@link Compression}), so that too
+ * happens once per message rather than once per member.
+ *
+ * A room numbers each chat message it broadcasts ({@link #sequence}) for
+ * clients with a resumable session, which get the line behind its number
+ * ({@link #sequencedBuffer()}) – also built once and shared.
+ */
+final class EncodedMessage {
+
+    /** Fastest level: chat lines are short, so it gives up little ratio (see CompressionBenchmark). */
+    static final int DEFLATE_LEVEL = Deflater.BEST_SPEED;
+
+    private static final int HEADER = BinaryProtocol.HEADER_BYTES;
+
+    /** Idle compressors, shared by all threads; one is in use per concurrent compression. */
+    private static final Queue<Deflater> DEFLATERS = new ConcurrentLinkedQueue<>();
+
+    private static final LongAdder ENCODED_MESSAGES = new LongAdder();
+    private static final LongAdder ENCODED_BYTES = new LongAdder();
+    private static final LongAdder DEFLATED_MESSAGES = new LongAdder();
+    private static final LongAdder DEFLATE_IN_BYTES = new LongAdder();
+    private static final LongAdder DEFLATE_OUT_BYTES = new LongAdder();
+
+    private final ByteBuffer bytes;         // read-only; header, line, '\n'
+    private final boolean framed;           // false: no header in front of the line
+    private final byte opcode;
+    private final int roomId;
+    private volatile ByteBuffer frame;      // built on first use when !framed
+    private volatile ByteBuffer deflated;   // built on first use by a compressing client
+    private volatile long seq;              // 0 = not numbered
+    private volatile ByteBuffer sequenced;  // built on first use by a session client
+
+    private EncodedMessage(ByteBuffer bytes, boolean framed, byte opcode, int roomId) {
+        this.bytes = bytes.asReadOnlyBuffer();
+        this.framed = framed;
+        this.opcode = opcode;
+        this.roomId = roomId;
+    }
+
+    /** Encodes a line (a trailing '\n' is added) outside any room. */
+    static EncodedMessage of(String line) {
+        return forRoom(line, BinaryProtocol.TEXT, 0);
+    }
+
+    /**
+     * Encodes a line belonging to room {@code roomId}; binary clients get it
+     * as an {@code opcode} frame.
+     */
+    static EncodedMessage forRoom(String line, byte opcode, int roomId) {
+        byte[] encoded = line.getBytes(StandardCharsets.UTF_8);
+        byte[] framed = new byte[HEADER + encoded.length + 1];
+        System.arraycopy(encoded, 0, framed, HEADER, encoded.length);
+        framed[framed.length - 1] = '\n';
+        return forRoom(framed, opcode, roomId);
+    }
+
+    /**
+     * Wraps a line that is already UTF-8: {@code framed} holds
+     * {@link BinaryProtocol#HEADER_BYTES} bytes of room for the header, then
+     * the line and its '\n'. This is the binary protocol's path, which never
+     * decodes chat text into a String.
+     */
+    static EncodedMessage forRoom(byte[] framed, byte opcode, int roomId) {
+        int lineBytes = framed.length - HEADER;
+        ENCODED_MESSAGES.increment();
+        ENCODED_BYTES.add(lineBytes);
+        ByteBuffer buffer = ByteBuffer.wrap(framed);
+        BinaryProtocol.putHeader(buffer.duplicate(), opcode, roomId, lineBytes - 1);
+        return new EncodedMessage(buffer, true, opcode, roomId);
+    }
+
+    /** Wraps bytes that are already an encoded line (e.g. read back from the message log). */
+    static EncodedMessage wrap(ByteBuffer line, byte opcode, int roomId) {
+        return new EncodedMessage(line, false, opcode, roomId);
+    }
+
+    /** A fresh view of the text line with its own position, for one writer. */
+    ByteBuffer buffer() {
+        return framed ? bytes.duplicate().position(HEADER) : bytes.duplicate();
+    }
+
+    /** A fresh view of the same line as a binary-protocol frame. */
+    ByteBuffer frame() {
+        if (framed) {
+            return bytes.duplicate().limit(bytes.limit() - 1);    // frames carry no '\n'
+        }
+        ByteBuffer f = frame;
+        if (f == null) {
+            // Racing builders produce identical frames; either may win.
+            ByteBuffer line = bytes.duplicate();
+            line.limit(line.limit() - 1);
+            f = ByteBuffer.allocate(HEADER + line.remaining());
+            BinaryProtocol.putHeader(f, opcode, roomId, line.remaining()).put(line).flip();
+            f = f.asReadOnlyBuffer();
+            frame = f;
+        }
+        return f.duplicate();
+    }
+
+    /** Numbers a chat message; the room does it before sending it to anyone. */
+    void sequence(long seq) {
+        this.seq = seq;
+    }
+
+    /** The room's number for this chat message, or 0. */
+    long seq() {
+        return seq;
+    }
+
+    /**
+     * A fresh view of the text line for session clients: "SEQ <seq> " and
+     * the line, or just the line if it is not numbered.
+     */
+    ByteBuffer sequencedBuffer() {
+        long n = seq;
+        if (n == 0) return buffer();
+        ByteBuffer s = sequenced;
+        if (s == null) {
+            // Racing builders produce identical lines; either may win.
+            byte[] prefix = (Session.SEQ + n + " ").getBytes(StandardCharsets.US_ASCII);
+            ByteBuffer line = buffer();
+            s = ByteBuffer.allocate(prefix.length + line.remaining()).put(prefix).put(line).flip();
+            s = s.asReadOnlyBuffer();
+            sequenced = s;
+        }
+        return s.duplicate();
+    }
+
+    /**
+     * A fresh view of the frame for clients that negotiated compression: a
+     * {@link BinaryProtocol#DEFLATED} frame, compressed on first use and
+     * shared by every such recipient, or the plain frame when compressing
+     * would not make it smaller.
+     */
+    ByteBuffer deflatedFrame() {
+        ByteBuffer d = deflated;
+        if (d == null) {
+            // Racing builders produce identical frames; either may win.
+            d = deflate(frame());
+            deflated = d;
+        }
+        return d.duplicate();
+    }
+
+    private ByteBuffer deflate(ByteBuffer frame) {
+        int payload = frame.remaining() - HEADER;
+        int room = payload - 2;             // must beat the plain payload, opcode byte included
+        if (room <= 0) return frame;
+        byte[] out = new byte[HEADER + 1 + room];
+        Deflater deflater = DEFLATERS.poll();
+        if (deflater == null) deflater = Compression.newDeflater(DEFLATE_LEVEL);
+        int n;
+        try {
+            deflater.setDictionary(Compression.DICTIONARY);
+            deflater.setInput(frame.duplicate().position(frame.position() + HEADER));
+            deflater.finish();
+            n = deflater.deflate(out, HEADER + 1, room);
+            if (!deflater.finished()) return frame;
+        } finally {
+            deflater.reset();
+            DEFLATERS.offer(deflater);
+        }
+        DEFLATED_MESSAGES.increment();
+        DEFLATE_IN_BYTES.add(payload);
+        DEFLATE_OUT_BYTES.add(1 + n);
+        BinaryProtocol.putHeader(ByteBuffer.wrap(out), BinaryProtocol.DEFLATED, roomId, 1 + n).put(opcode);
+        return ByteBuffer.wrap(out, 0, HEADER + 1 + n).asReadOnlyBuffer();
+    }
+
+    /** The binary-protocol opcode clients receive this line as. */
+    byte opcode() {
+        return opcode;
+    }
+
+    int size() {
+        return framed ? bytes.remaining() - HEADER : bytes.remaining();
+    }
+
+    /** Total messages encoded since startup. */
+    static long encodedMessages() {
+        return ENCODED_MESSAGES.sum();
+    }
+
+    /** Total bytes produced by charset encoding since startup. */
+    static long encodedBytes() {
+        return ENCODED_BYTES.sum();
+    }
+
+    /** Messages compressed since startup (each once, however many recipients). */
+    static long deflatedMessages() {
+        return DEFLATED_MESSAGES.sum();
+    }
+
+    /** Frame payload bytes that went into compression since startup. */
+    static long deflateInBytes() {
+        return DEFLATE_IN_BYTES.sum();
+    }
+
+    /** What those payloads compressed to, opcode bytes included. */
+    static long deflateOutBytes() {
+        return DEFLATE_OUT_BYTES.sum();
+    }
+}
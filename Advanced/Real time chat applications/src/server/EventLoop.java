@@ -0,0 +1,168 @@
+package server;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One selector thread of the NIO transport.
+ *
+ * Owns a set of {@link NioConnection}s: all reads, command dispatch and
+ * socket writes for those connections happen on this thread. Other threads
+ * interact with it only through {@link #execute(Runnable)} and
+ * {@link #schedule(Runnable, long)}.
+ */
+class EventLoop implements Runnable {
+
+    private final Selector selector;
+    private final ServerContext context;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>();   // loop thread only
+    private final Thread thread;
+    private long timerSeq;
+
+    EventLoop(int index, ServerContext context) throws IOException {
+        this.selector = Selector.open();
+        this.context = context;
+        this.thread = new Thread(this, "chat-io-" + index);
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /** Runs a task on the loop thread. Safe to call from any thread. */
+    void execute(Runnable task) {
+        tasks.add(task);
+        if (Thread.currentThread() != thread) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Runs a task on the loop thread once {@code delayNanos} have passed.
+     * Safe to call from any thread; resolution is the selector's (1 ms).
+     */
+    void schedule(Runnable task, long delayNanos) {
+        long deadline = System.nanoTime() + delayNanos;
+        if (Thread.currentThread() == thread) {
+            timers.add(new Timer(deadline, timerSeq++, task));
+        } else {
+            execute(() -> timers.add(new Timer(deadline, timerSeq++, task)));
+        }
+    }
+
+    /** Hands a freshly accepted channel to this loop. */
+    void register(SocketChannel channel) {
+        execute(() -> {
+            try {
+                channel.configureBlocking(false);
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                NioConnection connection = new NioConnection(this, channel, key, context);
+                ClientHandler handler = new ClientHandler(connection, context);
+                connection.attach(handler);
+                key.attach(connection);
+                handler.onConnect();
+            } catch (IOException e) {
+                try { channel.close(); } catch (IOException ignored) {}
+            }
+        });
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                runTasks();
+                long waitNanos = runTimers();
+                if (waitNanos < 0) {
+                    selector.select();
+                } else {
+                    selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(waitNanos + 999_999)));
+                }
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    NioConnection connection = (NioConnection) key.attachment();
+                    if (!key.isValid()) continue;
+                    try {
+                        if (key.isWritable()) connection.onWritable();
+                        if (key.isValid() && key.isReadable()) connection.onReadable();
+                    } catch (RuntimeException e) {
+                        drop(connection, e);
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("[Server] Event loop error: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Closes a connection whose handling threw, so one failing client (a
+     * command handler bug, say) costs only its own connection, not the
+     * loop thread and everyone else on it.
+     */
+    void drop(NioConnection connection, RuntimeException e) {
+        System.err.println("[Server] Connection " + connection.remoteAddress() + " failed on "
+                + thread.getName() + ": " + e);
+        try {
+            connection.fail();
+        } catch (RuntimeException again) {
+            System.err.println("[Server] Disconnect failed on " + thread.getName() + ": " + again);
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                System.err.println("[Server] Task failed on " + thread.getName() + ": " + e);
+            }
+        }
+    }
+
+    /** Runs due timers. @return nanos until the next one, or -1 if none is pending */
+    private long runTimers() {
+        Timer next;
+        while ((next = timers.peek()) != null) {
+            long remaining = next.deadline - System.nanoTime();
+            if (remaining > 0) return remaining;
+            timers.poll();
+            try {
+                next.task.run();
+            } catch (RuntimeException e) {
+                System.err.println("[Server] Timer failed on " + thread.getName() + ": " + e);
+            }
+        }
+        return -1;
+    }
+
+    private static final class Timer implements Comparable<Timer> {
+        final long deadline;
+        final long seq;          // FIFO order for equal deadlines
+        final Runnable task;
+
+        Timer(long deadline, long seq, Runnable task) {
+            this.deadline = deadline;
+            this.seq = seq;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(Timer other) {
+            int byDeadline = Long.compare(deadline - other.deadline, 0);
+            return byDeadline != 0 ? byDeadline : Long.compare(seq, other.seq);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package server;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe, fixed-size log-linear histogram (HDR-style) for latencies
+ * recorded on the message hot path.
+ *
+ * Each power of two is split into 64 linear sub-buckets (~1.5% precision).
+ * Recording is one atomic increment into a preallocated array – no
+ * allocation, no locks.
+ */
+final class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+
+    private final AtomicLongArray counts = new AtomicLongArray((MAX_EXPONENT + 1) * SUB_BUCKETS);
+
+    void record(long value) {
+        counts.incrementAndGet(indexOf(Math.max(0, value)));
+    }
+
+    /** Copies the current counts, so percentiles are taken from one consistent-enough view. */
+    long[] snapshot() {
+        long[] copy = new long[counts.length()];
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = counts.get(i);
+        }
+        return copy;
+    }
+
+    static long count(long[] snapshot) {
+        long total = 0;
+        for (long c : snapshot) total += c;
+        return total;
+    }
+
+    /** @param percentile 0..100 @return upper bound of the matching bucket, or 0 if empty */
+    static long percentile(long[] snapshot, double percentile) {
+        long total = count(snapshot);
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) return upperBound(i);
+        }
+        return upperBound(snapshot.length - 1);
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS + 1;
+        if (exponent > MAX_EXPONENT) return (MAX_EXPONENT + 1) * SUB_BUCKETS - 1;
+        int sub = (int) (value >>> exponent) & (SUB_BUCKETS - 1);
+        return exponent * SUB_BUCKETS + sub;
+    }
+
+    private static long upperBound(int index) {
+        int exponent = index / SUB_BUCKETS;
+        int sub = index % SUB_BUCKETS;
+        return ((long) (sub + 1) << exponent) - 1;
+    }
+}
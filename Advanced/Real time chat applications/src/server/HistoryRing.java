@@ -0,0 +1,89 @@
+package server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * A room's most recent chat messages, numbered in the order they were
+ * broadcast: a fixed number of slots allocated with the room, so the memory
+ * a room holds is bounded by its capacity and the size of those messages.
+ *
+ * Appending is lock-free: a broadcast claims the next number with one
+ * atomic increment and publishes the message in slot {@code seq % capacity},
+ * overwriting the message {@code capacity} numbers older. With sharded
+ * rooms only the room's shard appends; otherwise any sender's thread may.
+ *
+ * Readers take no lock either. A slot is trusted only if the message in it
+ * carries the number being read ({@link EncodedMessage#seq}), so a reader
+ * racing a writer sees either the message it wants or that it is gone –
+ * never a neighbour's. The messages are the broadcast's own shared
+ * {@link EncodedMessage}s, so serving them copies nothing.
+ */
+final class HistoryRing {
+
+    private final AtomicReferenceArray<EncodedMessage> slots;
+    private final int capacity;
+    private final long firstSeq;
+    private final AtomicLong nextSeq;
+
+    /** @param firstSeq the number the first message gets; must be positive */
+    HistoryRing(int capacity, long firstSeq) {
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.capacity = capacity;
+        this.firstSeq = firstSeq;
+        this.nextSeq = new AtomicLong(firstSeq);
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    /** Numbers a message and keeps it in place of the oldest. @return its number */
+    long append(EncodedMessage message) {
+        long seq = nextSeq.getAndIncrement();
+        message.sequence(seq);
+        slots.setRelease(slot(seq), message);
+        return seq;
+    }
+
+    /** The number the first message got, or will get. */
+    long firstSeq() {
+        return firstSeq;
+    }
+
+    /** The number of the latest message appended (it may still be being stored), or firstSeq - 1. */
+    long lastSeq() {
+        return nextSeq.get() - 1;
+    }
+
+    /** The number of the oldest message still held, if no more are appended meanwhile. */
+    long oldestSeq() {
+        return Math.max(firstSeq, nextSeq.get() - capacity);
+    }
+
+    /**
+     * Passes up to {@code max} messages numbered {@code fromSeq} or later to
+     * {@code sink}, oldest first. Starts at the oldest message held if
+     * {@code fromSeq} is older, and stops early at one that has been
+     * overwritten meanwhile or is not yet stored.
+     *
+     * @return how many were passed
+     */
+    int read(long fromSeq, int max, Consumer<EncodedMessage> sink) {
+        long end = nextSeq.get();
+        long seq = Math.max(fromSeq, Math.max(firstSeq, end - capacity));
+        int count = 0;
+        for (; seq < end && count < max; seq++) {
+            EncodedMessage message = slots.getAcquire(slot(seq));
+            if (message == null || message.seq() != seq) break;
+            sink.accept(message);
+            count++;
+        }
+        return count;
+    }
+
+    private int slot(long seq) {
+        return (int) (seq % capacity);
+    }
+}
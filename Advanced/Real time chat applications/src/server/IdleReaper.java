@@ -0,0 +1,135 @@
+package server;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Heartbeats and idle-connection reaping for all clients of one server.
+ *
+ * A single "chat-reaper" thread turns a hashed timer wheel with one-second
+ * ticks. Every connected client waits in the slot of the tick at which it
+ * next needs looking at. Client activity never touches the wheel: it only
+ * stamps the current tick on the client ({@link ClientHandler#heard}).
+ * When a slot comes round, each client in it is checked against that
+ * stamp – silent for the heartbeat interval: sent a PING; silent for the
+ * idle timeout: reaped; otherwise moved on to the slot of its next
+ * deadline. A tick's reaped clients are aborted together and logged once.
+ *
+ * The wheel is only touched by the reaper thread. Each client's ping time
+ * lives on the client ({@link ClientHandler#pingedAt}); only the reaper
+ * thread writes it, and it is volatile so anyone may read it.
+ */
+final class IdleReaper {
+
+    private static final int WHEEL_SLOTS = 512;         // power of two
+    private static final long TICK_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final int pingTicks;                        // 0 = no heartbeats
+    private final int timeoutTicks;                     // 0 = never reap
+    private final ServerStats stats;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final ArrayDeque<ClientHandler>[] wheel = new ArrayDeque[WHEEL_SLOTS];
+    private final Queue<ClientHandler> arrivals = new ConcurrentLinkedQueue<>();
+    private volatile int tick;
+
+    IdleReaper(ServerConfig config, ServerStats stats) {
+        this.pingTicks = config.heartbeatSec;
+        this.timeoutTicks = config.idleTimeoutSec;
+        this.stats = stats;
+        for (int i = 0; i < WHEEL_SLOTS; i++) {
+            wheel[i] = new ArrayDeque<>();
+        }
+        Thread reaper = new Thread(this::run, "chat-reaper");
+        reaper.setDaemon(true);
+        reaper.start();
+    }
+
+    /** A reaper for the configured settings, or null if both heartbeats and reaping are off. */
+    static IdleReaper create(ServerConfig config, ServerStats stats) {
+        return (config.heartbeatSec > 0 || config.idleTimeoutSec > 0) ? new IdleReaper(config, stats) : null;
+    }
+
+    /** The current tick: a coarse clock for stamping client activity. */
+    int tick() {
+        return tick;
+    }
+
+    /** Starts watching a freshly connected client. Safe to call from any thread. */
+    void register(ClientHandler client) {
+        client.heard(tick);
+        arrivals.add(client);
+    }
+
+    private void run() {
+        long next = System.nanoTime() + TICK_NANOS;
+        List<ClientHandler> reaped = new ArrayList<>();
+        while (true) {
+            long wait;
+            while ((wait = next - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            next += TICK_NANOS;
+            int now = tick + 1;
+            tick = now;
+
+            ClientHandler arrived;
+            while ((arrived = arrivals.poll()) != null) {
+                arrived.resetPinged(arrived.lastHeard());
+                schedule(arrived, now, nextDeadline(arrived));
+            }
+
+            ArrayDeque<ClientHandler> slot = wheel[now & (WHEEL_SLOTS - 1)];
+            for (int n = slot.size(); n > 0; n--) {
+                ClientHandler client = slot.poll();
+                try {
+                    check(client, now, reaped);
+                } catch (RuntimeException e) {
+                    System.err.println("[Server] Reaper check failed: " + e);
+                }
+            }
+            if (!reaped.isEmpty()) {
+                for (ClientHandler client : reaped) {
+                    client.reap();
+                }
+                stats.connectionsReaped(reaped.size());
+                System.out.println("[Server] Reaped " + reaped.size() + " idle connection(s).");
+                reaped.clear();
+            }
+        }
+    }
+
+    private void check(ClientHandler client, int now, List<ClientHandler> reaped) {
+        if (client.isGone()) return;
+        int heard = client.lastHeard();
+        if (timeoutTicks > 0 && now - heard >= timeoutTicks) {
+            reaped.add(client);
+            return;
+        }
+        if (pingTicks > 0 && now - Math.max(heard, client.pingedAt()) >= pingTicks) {
+            client.ping(now);
+            stats.pingSent();
+        }
+        schedule(client, now, nextDeadline(client));
+    }
+
+    /** The tick at which the client next needs a ping or a reap, whichever comes first. */
+    private int nextDeadline(ClientHandler client) {
+        int heard = client.lastHeard();
+        int deadline = Integer.MAX_VALUE;
+        if (pingTicks > 0) deadline = Math.max(heard, client.pingedAt()) + pingTicks;
+        if (timeoutTicks > 0) deadline = Math.min(deadline, heard + timeoutTicks);
+        return deadline;
+    }
+
+    /** Files the client under its deadline, or as far ahead as the wheel reaches. */
+    private void schedule(ClientHandler client, int now, int deadline) {
+        int ahead = Math.max(1, Math.min(deadline - now, WHEEL_SLOTS - 1));
+        wheel[(now + ahead) & (WHEEL_SLOTS - 1)].add(client);
+    }
+}
@@ -0,0 +1,146 @@
+package server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import protocol.BinaryProtocol;
+
+/**
+ * Minimal blocking line reader for the thread-per-connection transports.
+ *
+ * Replaces BufferedReader + InputStreamReader, which together hold ~24 KiB
+ * of buffers per socket. This one starts at 256 bytes and only grows for
+ * long lines, which matters when tens of thousands of mostly idle clients
+ * each park a (virtual) thread in {@link #readLine()}. Lines are handed
+ * out as a range of the buffer, never as Strings.
+ *
+ * Lines longer than {@link NioConnection#MAX_LINE_BYTES} are discarded, the
+ * same as in the NIO transport; see {@link #overflowed()}.
+ *
+ * After a client switches to the binary protocol the same buffer is read
+ * with {@link #readFrame()} instead, so bytes already buffered carry over.
+ */
+final class LineReader {
+
+    private static final int INITIAL_SIZE = 256;
+
+    private final InputStream in;
+    private byte[] buf = new byte[INITIAL_SIZE];
+    private int start;
+    private int end;
+    private int scanned;        // bytes after start already known to hold no '\n'
+    private boolean overflowed;
+    private int lineOffset;
+    private int lineLength;
+    private byte frameOpcode;
+    private int frameRoomId;
+    private int frameOffset;
+    private int frameLength;
+
+    LineReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Reads the next line. Without its terminator ("\n" or "\r\n") it is
+     * {@link #lineBuffer()}[{@link #lineOffset()}, +{@link #lineLength()})
+     * until the next read; empty for a discarded over-long line.
+     *
+     * @return false at end of stream
+     */
+    boolean readLine() throws IOException {
+        overflowed = false;
+        while (true) {
+            for (int i = start + scanned; i < end; i++) {
+                if (buf[i] == '\n') {
+                    int to = (i > start && buf[i - 1] == '\r') ? i - 1 : i;
+                    lineOffset = start;
+                    lineLength = overflowed ? 0 : to - start;
+                    start = i + 1;
+                    scanned = 0;
+                    return true;
+                }
+            }
+            scanned = end - start;
+            if (!fill()) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Reads the next binary-protocol frame. Its payload is
+     * {@link #frameBuffer()}[{@link #frameOffset()}, +{@link #frameLength()})
+     * until the next read.
+     *
+     * @return false at end of stream
+     * @throws IOException on a read error or a malformed frame
+     */
+    boolean readFrame() throws IOException {
+        if (!buffer(4)) return false;
+        int length = getInt(start);
+        if (length < 5 || 4 + length > BinaryProtocol.MAX_FRAME_BYTES) {
+            throw new IOException("Bad frame length " + length);
+        }
+        if (!buffer(4 + length)) return false;
+        frameOpcode = buf[start + 4];
+        frameRoomId = getInt(start + 5);
+        frameOffset = start + BinaryProtocol.HEADER_BYTES;
+        frameLength = length - 5;
+        start += 4 + length;
+        scanned = 0;
+        return true;
+    }
+
+    byte[] lineBuffer()  { return buf; }
+    int lineOffset()     { return lineOffset; }
+    int lineLength()     { return lineLength; }
+
+    byte frameOpcode()   { return frameOpcode; }
+    int frameRoomId()    { return frameRoomId; }
+    byte[] frameBuffer() { return buf; }
+    int frameOffset()    { return frameOffset; }
+    int frameLength()    { return frameLength; }
+
+    /** Reads until at least {@code bytes} are buffered. @return false at EOF */
+    private boolean buffer(int bytes) throws IOException {
+        while (end - start < bytes) {
+            if (!fill()) return false;
+        }
+        return true;
+    }
+
+    private int getInt(int at) {
+        return (buf[at] & 0xFF) << 24 | (buf[at + 1] & 0xFF) << 16
+                | (buf[at + 2] & 0xFF) << 8 | (buf[at + 3] & 0xFF);
+    }
+
+    /** True if the line last returned by {@link #readLine()} was too long and dropped. */
+    boolean overflowed() {
+        return overflowed;
+    }
+
+    /** Reads more bytes, compacting or growing the buffer first. @return false at EOF */
+    private boolean fill() throws IOException {
+        if (start > 0) {
+            System.arraycopy(buf, start, buf, 0, end - start);
+            end -= start;
+            start = 0;
+        }
+        if (end == buf.length) {
+            if (buf.length >= NioConnection.MAX_LINE_BYTES) {
+                // Still no newline: throw away what we have and keep skipping.
+                overflowed = true;
+                end = 0;
+                scanned = 0;
+            } else {
+                byte[] bigger = new byte[Math.min(buf.length * 2, NioConnection.MAX_LINE_BYTES)];
+                System.arraycopy(buf, 0, bigger, 0, end);
+                buf = bigger;
+            }
+        }
+        int n = in.read(buf, end, buf.length - end);
+        if (n < 0) return false;
+        end += n;
+        return true;
+    }
+}
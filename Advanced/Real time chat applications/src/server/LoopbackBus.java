@@ -0,0 +1,77 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import protocol.BinaryProtocol;
+
+/**
+ * {@link ClusterBus} between nodes running in the same JVM
+ * (-Dchat.cluster=loopback). Nothing goes over the network: a publish
+ * hands each interested node its own copy of the line directly. Meant for
+ * trying out and testing a cluster on one machine.
+ */
+final class LoopbackBus implements ClusterBus {
+
+    /** The nodes of one in-JVM cluster. */
+    static final class Hub {
+        private final List<LoopbackBus> nodes = new CopyOnWriteArrayList<>();
+
+        /** A bus for the next node. */
+        synchronized LoopbackBus join(ServerStats stats) {
+            LoopbackBus bus = new LoopbackBus(this, nodes.size(), stats);
+            for (LoopbackBus node : nodes) {
+                node.stats.clusterPeerConnected();
+                stats.clusterPeerConnected();
+            }
+            nodes.add(bus);
+            return bus;
+        }
+    }
+
+    private final Hub hub;
+    private final int index;
+    private final ServerStats stats;
+    private final Set<String> rooms = ConcurrentHashMap.newKeySet();
+    private volatile Listener listener;     // null until started: not interested in anything
+
+    private LoopbackBus(Hub hub, int index, ServerStats stats) {
+        this.hub = hub;
+        this.index = index;
+        this.stats = stats;
+    }
+
+    @Override
+    public void start(Listener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void interest(String room, boolean interested) {
+        if (interested) {
+            rooms.add(room);
+        } else {
+            rooms.remove(room);
+        }
+    }
+
+    @Override
+    public void publish(String room, byte opcode, ByteBuffer line) {
+        for (LoopbackBus node : hub.nodes) {
+            Listener peer = node.listener;
+            if (node == this || peer == null || !node.rooms.contains(room)) continue;
+            byte[] framed = new byte[BinaryProtocol.HEADER_BYTES + line.remaining()];
+            line.duplicate().get(framed, BinaryProtocol.HEADER_BYTES, line.remaining());
+            stats.clusterSent();
+            node.stats.clusterReceived();
+            peer.deliver(room, opcode, framed);
+        }
+    }
+
+    @Override
+    public String describe() {
+        return "loopback node " + (index + 1);
+    }
+}
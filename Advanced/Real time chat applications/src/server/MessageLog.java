@@ -0,0 +1,214 @@
+package server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Optional on-disk history of every room (enabled with -Dchat.log.dir).
+ *
+ * Broadcasting threads only {@link #append} to an in-memory queue; a single
+ * "chat-log" thread drains it, writes each room's records to its
+ * {@link RoomLog} and then forces every room it touched once – a group
+ * commit per drained batch rather than an fsync per message. If the disk
+ * falls behind far enough to fill the queue, records are dropped (and
+ * counted) instead of slowing down the chat.
+ *
+ * Replay on join is read on the writer thread too ({@link #replay}), after
+ * the room's queued records, so neither a room's shard nor an event loop
+ * ever waits on the disk.
+ *
+ * Only rooms that exist hold a {@link RoomLog}: when the last room of a
+ * name is removed, the writer closes its log and forgets it, so names
+ * clients join once and never again cost nothing after they are gone.
+ */
+final class MessageLog {
+
+    private static final int MAX_BATCH = 4096;
+
+    /**
+     * A record to write; with no {@code payload}, a replay request, or a
+     * close request when {@code replay} is null too; or a flush marker when
+     * {@code log} is null.
+     */
+    private record Entry(RoomLog log, long epochMillis, ByteBuffer payload, Replay replay) {}
+
+    private record Replay(int maxCount, long sinceMillis, Consumer<List<ByteBuffer>> reader) {}
+
+    private final Path dir;
+    private final long segmentBytes;
+    private final int keepRecords;
+    private final long keepMillis;
+    private final ServerStats stats;
+    private final ConcurrentHashMap<String, RoomLog> rooms = new ConcurrentHashMap<>();
+    private final BlockingQueue<Entry> queue;
+    private final Semaphore flushed = new Semaphore(0);   // one permit per synced flush marker
+
+    MessageLog(ServerConfig config, ServerStats stats) {
+        this.dir = config.logDir;
+        this.segmentBytes = config.logSegmentBytes;
+        this.keepRecords = config.logReplayCount;
+        this.keepMillis = TimeUnit.MINUTES.toMillis(config.logReplayMinutes);
+        this.stats = stats;
+        this.queue = new ArrayBlockingQueue<>(config.logQueueCapacity);
+        Thread writer = new Thread(this::writeLoop, "chat-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * The log of the named room. Touches no file: the writer thread reads
+     * the room's directory when it first needs it, so a joining thread (an
+     * event loop, in NIO mode) never waits on the disk. Each call must be
+     * paired with a {@link #release}.
+     */
+    RoomLog forRoom(String roomName) {
+        return rooms.compute(roomName, (name, log) -> {
+            if (log == null) {
+                log = new RoomLog(name, dir.resolve(directoryName(name)), segmentBytes, keepRecords, keepMillis);
+            }
+            log.users++;
+            return log;
+        });
+    }
+
+    /** Queues one encoded line for the room's log. Never blocks. */
+    void append(RoomLog log, EncodedMessage message) {
+        if (queue.offer(new Entry(log, System.currentTimeMillis(), message.buffer(), null))) {
+            stats.logAppend();
+        } else {
+            stats.logDrop();
+        }
+    }
+
+    /**
+     * Reads the room's newest records on the writer thread, once everything
+     * queued for it so far is written, and hands them to {@code reader}
+     * there, oldest first: at most {@code maxCount}, none older than
+     * {@code sinceMillis}, each a read-only view of one encoded line. Never
+     * blocks; with a full queue there is no replay and {@code reader} is
+     * not called.
+     */
+    void replay(RoomLog log, int maxCount, long sinceMillis, Consumer<List<ByteBuffer>> reader) {
+        queue.offer(new Entry(log, 0, null, new Replay(maxCount, sinceMillis, reader)));
+    }
+
+    /**
+     * Gives back a log from {@link #forRoom}. Once no room holds it, the
+     * writer closes it after its queued records and forgets it. Best effort:
+     * with a full queue the log simply stays open until the name is used
+     * again.
+     */
+    void release(RoomLog log) {
+        boolean[] unused = {false};
+        rooms.computeIfPresent(log.roomName, (name, current) -> {
+            if (current == log) unused[0] = --current.users == 0;
+            return current;
+        });
+        if (unused[0]) {
+            queue.offer(new Entry(log, 0, null, null));
+        }
+    }
+
+    /**
+     * Shutdown: waits until everything appended so far is written and synced.
+     *
+     * @return false on timeout
+     */
+    boolean flush(long timeoutNanos) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutNanos;
+        if (!queue.offer(new Entry(null, 0, null, null), timeoutNanos, TimeUnit.NANOSECONDS)) return false;
+        return flushed.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    private void writeLoop() {
+        List<Entry> batch = new ArrayList<>(MAX_BATCH);
+        Set<RoomLog> touched = Collections.newSetFromMap(new IdentityHashMap<>());
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, MAX_BATCH - 1);
+            int markers = 0;
+            for (Entry entry : batch) {
+                try {
+                    if (entry.log == null) {
+                        markers++;
+                    } else if (entry.replay != null) {
+                        replay(entry.log, entry.replay);
+                    } else if (entry.payload == null) {
+                        touched.remove(entry.log);
+                        entry.log.close();
+                        forget(entry.log);
+                    } else {
+                        entry.log.append(entry.epochMillis, entry.payload);
+                        touched.add(entry.log);
+                    }
+                } catch (IOException e) {
+                    System.err.println("[Server] Message log write failed: " + e.getMessage());
+                }
+            }
+            for (RoomLog log : touched) {
+                try {
+                    log.sync();
+                } catch (IOException e) {
+                    System.err.println("[Server] Message log sync failed: " + e.getMessage());
+                }
+            }
+            stats.logSyncs(touched.size());
+            flushed.release(markers);
+            batch.clear();
+            touched.clear();
+        }
+    }
+
+    private static void replay(RoomLog log, Replay replay) {
+        List<ByteBuffer> lines;
+        try {
+            log.sync();     // records staged earlier in this batch belong in the replay
+            lines = log.tail(replay.maxCount, replay.sinceMillis);
+        } catch (IOException e) {
+            System.err.println("[Server] History replay failed for #" + log.roomName + ": " + e.getMessage());
+            return;
+        }
+        try {
+            replay.reader.accept(lines);
+        } catch (RuntimeException e) {
+            System.err.println("[Server] History replay failed for #" + log.roomName + ": " + e);
+        }
+    }
+
+    /** Drops a closed log from the map, unless a new room of its name has taken it up again. */
+    private void forget(RoomLog log) {
+        rooms.computeIfPresent(log.roomName, (name, current) ->
+                (current == log && current.users == 0) ? null : current);
+    }
+
+    /** Room names are free text; keep them to safe file-name characters. */
+    private static String directoryName(String roomName) {
+        StringBuilder name = new StringBuilder("room-");
+        for (byte b : roomName.getBytes(StandardCharsets.UTF_8)) {
+            if ((b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9')
+                    || b == '-' || b == '_') {
+                name.append((char) b);
+            } else {
+                name.append('%').append(String.format("%02X", b & 0xFF));
+            }
+        }
+        return name.toString();
+    }
+}
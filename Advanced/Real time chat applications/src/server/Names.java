@@ -0,0 +1,40 @@
+package server;
+
+/**
+ * What a user or room name may look like, wherever one comes in: /nick,
+ * /join, and the name and room carried by a resume token.
+ *
+ * Names are written into lines other clients read ("X has joined #room",
+ * "[12:00:00] X: hi"), so besides a length limit they must not contain
+ * control characters: a '\n' in a name would let its owner start a line
+ * of their own, such as a forged SERVER notice.
+ */
+final class Names {
+
+    static final int MAX_NAME_CHARS = 20;
+    static final int MAX_ROOM_CHARS = 30;
+
+    private Names() {}
+
+    /** @return why {@code name} cannot be a user name, or null if it can */
+    static String checkName(String name) {
+        return check(name, "Name", MAX_NAME_CHARS);
+    }
+
+    /** @return why {@code room} cannot be a room name, or null if it can */
+    static String checkRoom(String room) {
+        return check(room, "Room name", MAX_ROOM_CHARS);
+    }
+
+    private static String check(String value, String what, int maxChars) {
+        if (value.isEmpty()) return what + " is empty.";
+        if (value.length() > maxChars) return what + " too long (max " + maxChars + " chars).";
+        for (int i = 0; i < value.length(); i++) {
+            if (Character.isISOControl(value.charAt(i))) {
+                return what + " may not contain control characters.";
+            }
+        }
+        if (!value.equals(value.trim())) return what + " may not start or end with a space.";
+        return null;
+    }
+}
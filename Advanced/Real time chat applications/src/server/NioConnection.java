@@ -0,0 +1,280 @@
+package server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+import protocol.BinaryProtocol;
+
+/**
+ * Connection for the NIO transport.
+ *
+ * Inbound bytes are framed into newline-terminated lines (or, after the
+ * client negotiates it, {@link BinaryProtocol} frames) without blocking;
+ * outbound lines are queued from any thread in a bounded
+ * {@link OutboundQueue} and written by the owning {@link EventLoop} when
+ * the socket is writable. Each flush drains whatever is queued and sends
+ * it with a single gathering write; with a non-zero flush delay the first
+ * message waits up to that long for company.
+ *
+ * While the client is over its rate limit ({@link ClientHandler#throttleNanos})
+ * the connection stops selecting for reads and picks up again from a
+ * loop timer, leaving any unread lines in the buffer.
+ *
+ * All methods except {@link #send} and {@link #close} run on the loop thread.
+ */
+class NioConnection implements Connection {
+
+    /** Longest accepted inbound line, in bytes. Longer lines are discarded. */
+    static final int MAX_LINE_BYTES = 8192;
+
+    private final EventLoop loop;
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final String remoteAddress;
+    private final boolean loopback;
+    private final ServerStats stats;
+
+    private final ByteBuffer inbound = ByteBuffer.allocate(MAX_LINE_BYTES);
+    private final OutboundQueue outbound;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    private ClientHandler handler;
+    private final ByteBuffer[] batch;  // drained but not yet fully written
+    private final long flushDelayNanos;
+    private int batchStart;
+    private int batchEnd;
+    private boolean discarding;       // skipping the rest of an over-long line
+    private boolean paused;           // OP_READ off until the rate limit allows more
+    private boolean handlerDone;      // handler.disconnect() already called
+    private boolean closed;
+
+    NioConnection(EventLoop loop, SocketChannel channel, SelectionKey key, ServerContext context)
+            throws IOException {
+        ServerConfig config = context.config;
+        this.loop = loop;
+        this.channel = channel;
+        this.key = key;
+        this.remoteAddress = String.valueOf(channel.getRemoteAddress());
+        this.loopback = ((InetSocketAddress) channel.getRemoteAddress()).getAddress().isLoopbackAddress();
+        this.stats = context.stats;
+        this.outbound = new OutboundQueue(config.outboundCapacity, config.overflowPolicy, context.stats);
+        this.batch = new ByteBuffer[config.flushMaxBatch];
+        this.flushDelayNanos = config.flushMaxDelayNanos;
+    }
+
+    void attach(ClientHandler handler) {
+        this.handler = handler;
+    }
+
+    // ── Connection ──────────────────────────────────────────────────────────
+
+    @Override
+    public void send(ByteBuffer bytes) {
+        if (outbound.offer(bytes)) {
+            scheduleFlush();
+        } else {
+            loop.execute(this::fail);   // slow consumer under the DISCONNECT policy
+        }
+    }
+
+    @Override
+    public void close() {
+        outbound.close();
+        scheduleFlush();
+    }
+
+    @Override
+    public void abort() {
+        loop.execute(this::fail);
+    }
+
+    @Override
+    public String remoteAddress() {
+        return remoteAddress;
+    }
+
+    @Override
+    public boolean isLoopback() {
+        return loopback;
+    }
+
+    @Override
+    public long droppedMessages() {
+        return outbound.droppedCount();
+    }
+
+    // ── Loop-thread callbacks ───────────────────────────────────────────────
+
+    void onReadable() {
+        int n;
+        try {
+            n = channel.read(inbound);
+        } catch (IOException e) {
+            n = -1;
+        }
+        if (n < 0) {
+            fail();
+            return;
+        }
+        frameInbound();
+    }
+
+    void onWritable() {
+        flush();
+    }
+
+    // ── Internals ───────────────────────────────────────────────────────────
+
+    /** Splits the inbound buffer into lines or frames and dispatches each complete one. */
+    private void frameInbound() {
+        byte[] buf = inbound.array();
+        int limit = inbound.position();
+        int start = 0;
+        while (start < limit) {
+            long wait = handler.throttleNanos();
+            if (wait > 0) {
+                pauseReading(wait);
+                break;
+            }
+            int next = handler.isBinary() ? nextFrame(buf, start, limit) : nextLine(buf, start, limit);
+            if (next < 0) return;           // connection is going away
+            if (next == start) break;       // incomplete; wait for more bytes
+            start = next;
+        }
+
+        if (start > 0) {
+            inbound.flip().position(start);
+            inbound.compact();
+        } else if (!paused && !inbound.hasRemaining()) {
+            // Buffer full and still no newline: drop this line entirely.
+            inbound.clear();
+            if (!discarding) {
+                discarding = true;
+                handler.sendMessage("SERVER: Line too long (max " + MAX_LINE_BYTES + " bytes).");
+            }
+        }
+    }
+
+    private void pauseReading(long nanos) {
+        paused = true;
+        stats.readerPaused();
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        loop.schedule(this::resumeReading, nanos);
+    }
+
+    private void resumeReading() {
+        if (closed || handlerDone) return;
+        paused = false;
+        key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+        try {
+            frameInbound();
+        } catch (RuntimeException e) {
+            loop.drop(this, e);
+        }
+    }
+
+    /** Dispatches the line starting at {@code start}. @return where the next one starts, or -1 */
+    private int nextLine(byte[] buf, int start, int limit) {
+        for (int i = start; i < limit; i++) {
+            if (buf[i] != '\n') continue;
+            if (discarding) {
+                discarding = false;
+            } else {
+                int end = (i > start && buf[i - 1] == '\r') ? i - 1 : i;
+                if (!handler.handleLine(buf, start, end - start)) {
+                    quit();
+                    return -1;
+                }
+            }
+            return i + 1;
+        }
+        return start;
+    }
+
+    /** Dispatches the frame starting at {@code start}. @return where the next one starts, or -1 */
+    private int nextFrame(byte[] buf, int start, int limit) {
+        if (limit - start < 4) return start;
+        int length = inbound.getInt(start);
+        if (length < 5 || 4 + length > BinaryProtocol.MAX_FRAME_BYTES) {
+            fail();                         // not a frame we could ever buffer
+            return -1;
+        }
+        if (limit - start < 4 + length) return start;
+        if (!handler.handleFrame(buf[start + 4], inbound.getInt(start + 5),
+                buf, start + BinaryProtocol.HEADER_BYTES, length - 5)) {
+            quit();
+            return -1;
+        }
+        return start + 4 + length;
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            if (flushDelayNanos > 0) {
+                loop.schedule(this::flush, flushDelayNanos);
+            } else {
+                loop.execute(this::flush);
+            }
+        }
+    }
+
+    private void flush() {
+        flushScheduled.set(false);
+        if (closed) return;
+        try {
+            if (!writeOutbound()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                return;
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            if (outbound.isClosed()) {
+                fail();                     // all written; disconnects the handler unless it quit
+            }
+        } catch (IOException e) {
+            fail();
+        }
+    }
+
+    /** @return true if everything queued has been written */
+    private boolean writeOutbound() throws IOException {
+        while (true) {
+            if (batchStart == batchEnd) {
+                batchStart = 0;
+                batchEnd = outbound.drainTo(batch);
+                if (batchEnd == 0) return true;
+            }
+            stats.bytesWritten(channel.write(batch, batchStart, batchEnd - batchStart));
+            while (batchStart < batchEnd && !batch[batchStart].hasRemaining()) {
+                batch[batchStart++] = null;
+            }
+            if (batchStart < batchEnd) return false;
+        }
+    }
+
+    /** Client sent /quit: stop reading, let pending output drain, then close. */
+    private void quit() {
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        handlerDone = true;
+        handler.disconnect();
+    }
+
+    /** Peer went away, the socket failed, or handling its input threw. */
+    void fail() {
+        closeNow();
+        if (!handlerDone) {
+            handlerDone = true;
+            handler.disconnect();
+        }
+    }
+
+    private void closeNow() {
+        if (closed) return;
+        closed = true;
+        outbound.discard();
+        key.cancel();
+        try { channel.close(); } catch (IOException ignored) {}
+    }
+}
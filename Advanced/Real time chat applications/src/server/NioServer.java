@@ -0,0 +1,37 @@
+package server;
+
+import java.io.IOException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * NIO transport: the calling thread accepts connections and deals them out
+ * round-robin to a fixed pool of {@link EventLoop}s.
+ */
+class NioServer {
+
+    private final ServerContext context;
+    private final ServerConfig config;
+
+    NioServer(ServerContext context) {
+        this.context = context;
+        this.config = context.config;
+    }
+
+    /** Accepts connections until the listener is closed or fails. */
+    void serve(ServerSocketChannel listener) throws IOException {
+        EventLoop[] loops = new EventLoop[config.ioThreads];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop(i, context);
+            loops[i].start();
+        }
+
+        int next = 0;
+        while (true) {
+            SocketChannel channel = listener.accept();
+            System.out.println("[Server] New connection from " + channel.getRemoteAddress());
+            loops[next].register(channel);
+            next = (next + 1) % loops.length;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded queue of encoded output waiting to be written to one client.
+ *
+ * Any thread may {@link #offer} (typically another client's broadcast);
+ * exactly one writer drains it – a dedicated writer thread in the
+ * thread-per-socket transports, the owning event loop in NIO mode. When the
+ * client cannot keep up the {@link OverflowPolicy} decides what gives, so a
+ * slow consumer never blocks the sender.
+ *
+ * Writers drain in batches ({@link #drainTo}, {@link #takeBatch}) so that
+ * a burst of messages goes out in one gathering write instead of one
+ * syscall per line.
+ *
+ * Queue depth, drops and slow-consumer disconnects are reported to
+ * {@link ServerStats}.
+ */
+final class OutboundQueue {
+
+    /** What to do when a message arrives and the queue is full. */
+    enum OverflowPolicy {
+        /** Discard the oldest queued message to make room. */
+        DROP_OLDEST,
+        /** Discard everything and disconnect the client. */
+        DISCONNECT;
+
+        static OverflowPolicy parse(String value) {
+            return valueOf(value.trim().toUpperCase().replace('-', '_'));
+        }
+    }
+
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final ServerStats stats;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final ArrayDeque<ByteBuffer> items = new ArrayDeque<>();
+    private long dropped;
+    private boolean closed;
+
+    OutboundQueue(int capacity, OverflowPolicy policy, ServerStats stats) {
+        this.capacity = capacity;
+        this.policy = policy;
+        this.stats = stats;
+    }
+
+    /**
+     * Queues a message, applying the overflow policy if the queue is full.
+     *
+     * @return false if the client overflowed under {@link OverflowPolicy#DISCONNECT}
+     *         and must be dropped; true otherwise (including after close)
+     */
+    boolean offer(ByteBuffer message) {
+        lock.lock();
+        try {
+            if (closed) return true;
+            if (items.size() >= capacity) {
+                if (policy == OverflowPolicy.DISCONNECT) {
+                    dropped += items.size() + 1;
+                    stats.slowConsumerDrops(items.size());
+                    stats.slowConsumerDisconnect();
+                    items.clear();
+                    closed = true;
+                    notEmpty.signal();
+                    return false;
+                }
+                items.pollFirst();
+                dropped++;
+                stats.slowConsumerDrops(1);
+            }
+            items.addLast(message);
+            stats.messageQueued();
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Moves up to {@code batch.length} queued messages into {@code batch}
+     * without blocking.
+     *
+     * @return the number of messages moved
+     */
+    int drainTo(ByteBuffer[] batch) {
+        lock.lock();
+        try {
+            return drainLocked(batch);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for at least one message, then lingers up to {@code lingerNanos}
+     * for the batch to fill before draining it.
+     *
+     * @return the number of messages moved, or 0 once the queue is closed and drained
+     */
+    int takeBatch(ByteBuffer[] batch, long lingerNanos) throws InterruptedException {
+        lock.lock();
+        try {
+            while (items.isEmpty()) {
+                if (closed) return 0;
+                notEmpty.await();
+            }
+            long nanos = lingerNanos;
+            while (nanos > 0 && !closed && items.size() < batch.length) {
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return drainLocked(batch);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int drainLocked(ByteBuffer[] batch) {
+        int n = 0;
+        while (n < batch.length && !items.isEmpty()) {
+            batch[n++] = items.pollFirst();
+        }
+        stats.messagesDequeued(n);
+        return n;
+    }
+
+    /** Stops accepting messages; already-queued ones can still be drained. */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Closes the queue and throws away anything still queued (the socket is gone). */
+    void discard() {
+        lock.lock();
+        try {
+            closed = true;
+            stats.messagesDequeued(items.size());
+            items.clear();
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isClosed() {
+        lock.lock();
+        try {
+            return closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Messages discarded because this client could not keep up. */
+    long droppedCount() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Every connected client of this server by name, so /msg and /whois find
+ * a user in O(1) instead of scanning rooms, and the global /who can page
+ * through everyone in name order.
+ *
+ * Names are unique ignoring case: a client holds its name here from
+ * {@link #claimGuest connect} or {@link #claim /nick} until it renames
+ * or disconnects. The hash map answers lookups; the skip-list map keeps
+ * the same entries sorted for paging. Both are lock-free, and an entry
+ * is only ever removed by the client that holds it.
+ */
+final class PresenceIndex {
+
+    private final ConcurrentHashMap<String, ClientHandler> byName = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<String, ClientHandler> sorted = new ConcurrentSkipListMap<>();
+
+    /**
+     * Picks a free "Guest_NNNN" name and claims it. Guest numbers get longer
+     * once the four-digit ones are crowded.
+     */
+    String claimGuest(ClientHandler client) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int bound = 10_000;
+        for (int attempt = 1; ; attempt++) {
+            String name = "Guest_" + random.nextInt(bound / 10, bound);
+            if (claim(name, client)) return name;
+            if (attempt % 8 == 0 && bound < 1_000_000_000) bound *= 10;
+        }
+    }
+
+    /** @return false if another client holds the name (in any letter case) */
+    boolean claim(String name, ClientHandler client) {
+        String key = key(name);
+        ClientHandler holder = byName.putIfAbsent(key, client);
+        if (holder != null && holder != client) return false;
+        sorted.put(key, client);
+        return true;
+    }
+
+    /**
+     * Moves a client from {@code oldName} to {@code newName}, which may
+     * differ only in letter case.
+     *
+     * @return false, keeping the old name, if another client holds the new one
+     */
+    boolean rename(String oldName, String newName, ClientHandler client) {
+        if (!claim(newName, client)) return false;
+        if (!key(oldName).equals(key(newName))) release(oldName, client);
+        return true;
+    }
+
+    /**
+     * Hands a name from one client to another in one step, e.g. from a
+     * dead connection to the session that resumed it.
+     *
+     * @return false if {@code from} did not hold the name
+     */
+    boolean transfer(String name, ClientHandler from, ClientHandler to) {
+        String key = key(name);
+        if (!byName.replace(key, from, to)) return false;
+        sorted.put(key, to);
+        return true;
+    }
+
+    /** Gives up a name the client holds; does nothing if it does not. */
+    void release(String name, ClientHandler client) {
+        String key = key(name);
+        if (byName.remove(key, client)) {
+            sorted.remove(key, client);
+        }
+    }
+
+    /** The client holding the name (in any letter case), or null. */
+    ClientHandler find(String name) {
+        return byName.get(key(name));
+    }
+
+    int size() {
+        return byName.size();
+    }
+
+    /**
+     * One page of clients in name order.
+     *
+     * @param page 0-based; the walk to it is O(page × pageSize), never a
+     *             copy or sort of the whole index
+     */
+    List<ClientHandler> page(int page, int pageSize) {
+        List<ClientHandler> clients = new ArrayList<>(pageSize);
+        Iterator<ClientHandler> it = sorted.values().iterator();
+        for (long skip = (long) page * pageSize; skip > 0 && it.hasNext(); skip--) {
+            it.next();
+        }
+        while (clients.size() < pageSize && it.hasNext()) {
+            clients.add(it.next());
+        }
+        return clients;
+    }
+
+    private static String key(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+}
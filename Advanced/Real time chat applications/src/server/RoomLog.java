@@ -0,0 +1,294 @@
+package server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Append-only message log of one room, stored as numbered segment files
+ * in its own directory.
+ *
+ * Record layout: [int length][long epochMillis][payload][int length]. The
+ * trailing length lets {@link #tail} walk backwards from the end of a
+ * segment without an index.
+ *
+ * Everything happens on the {@link MessageLog} writer thread: creating a
+ * RoomLog touches no file, and the directory is first looked at by the
+ * first write or {@link #tail}. Then every segment is checked record by
+ * record, so a record torn by a crash is never read, and cut off before
+ * the next write.
+ *
+ * Only what replay can reach is kept: once a new segment is started,
+ * older ones are deleted if the newer segments already hold
+ * {@code keepRecords} records, or if their newest record is older than
+ * {@code keepMillis} – so the log grows no further than replay needs.
+ *
+ * The directory is only created by the first write, and the staging
+ * buffer only exists while the log is open for writing, so a room that is
+ * created and removed without a chat message leaves nothing behind.
+ */
+final class RoomLog {
+
+    private static final int HEADER_BYTES = 4 + 8;
+    private static final int TRAILER_BYTES = 4;
+    private static final int STAGING_BYTES = 64 * 1024;
+
+    /**
+     * One segment file: {@code end} is the last fully written record
+     * boundary, {@code records} how many records lie before it, and
+     * {@code lastMillis} the time of the newest of them.
+     */
+    private static final class Segment {
+        final Path path;
+        final long number;
+        long end;
+        long records;
+        long lastMillis;
+
+        Segment(Path path, long number) {
+            this.path = path;
+            this.number = number;
+        }
+    }
+
+    final String roomName;
+    int users;                              // rooms holding this log; MessageLog, under its map entry
+
+    private final Path dir;
+    private final long segmentBytes;
+    private final int keepRecords;
+    private final long keepMillis;          // 0 = no age limit
+
+    // Writer thread only
+    private Segment[] segments;             // oldest first; null until the directory is read
+    private ByteBuffer staging;             // null while closed
+    private FileChannel channel;
+    private long position;                  // logical end, including staged bytes
+    private boolean dirty;
+
+    RoomLog(String roomName, Path dir, long segmentBytes, int keepRecords, long keepMillis) {
+        this.roomName = roomName;
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.keepRecords = keepRecords;
+        this.keepMillis = keepMillis;
+    }
+
+    // ── Writer thread ───────────────────────────────────────────────────────
+
+    /** Stages one record; bytes reach the file on the next {@link #sync} at the latest. */
+    void append(long epochMillis, ByteBuffer payload) throws IOException {
+        if (channel == null) open();
+        int length = payload.remaining();
+        int recordBytes = HEADER_BYTES + length + TRAILER_BYTES;
+        if (position > 0 && position + recordBytes > segmentBytes) roll(epochMillis);
+
+        if (recordBytes > staging.remaining()) flushStaging();
+        if (recordBytes > staging.capacity()) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(length).putLong(epochMillis).flip();
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER_BYTES).putInt(length).flip();
+            ByteBuffer[] record = {header, payload, trailer};
+            while (trailer.hasRemaining()) channel.write(record);
+        } else {
+            staging.putInt(length).putLong(epochMillis).put(payload).putInt(length);
+        }
+        position += recordBytes;
+        Segment last = current();
+        last.records++;
+        last.lastMillis = epochMillis;
+        dirty = true;
+    }
+
+    /** Writes staged records, forces them to disk and makes them visible to {@link #tail}. */
+    void sync() throws IOException {
+        if (!dirty) return;
+        flushStaging();
+        channel.force(false);
+        dirty = false;
+    }
+
+    /** Syncs and releases the file handle and the staging buffer; the next append reopens it. */
+    void close() throws IOException {
+        if (channel == null) return;
+        try {
+            sync();
+        } finally {
+            channel.close();
+            channel = null;
+            staging = null;
+        }
+    }
+
+    private void flushStaging() throws IOException {
+        staging.flip();
+        while (staging.hasRemaining()) channel.write(staging);
+        staging.clear();
+        current().end = position;
+    }
+
+    /** Opens the newest segment for appending, cutting off any torn record at its end. */
+    private void open() throws IOException {
+        load();
+        Files.createDirectories(dir);
+        staging = ByteBuffer.allocate(STAGING_BYTES);
+        if (segments.length == 0) {
+            startSegment(0);
+            return;
+        }
+        Segment last = current();
+        channel = FileChannel.open(last.path, StandardOpenOption.WRITE, StandardOpenOption.READ);
+        if (last.end < channel.size()) {
+            System.err.println("[Server] Truncating torn record at " + last.path + ":" + last.end);
+            channel.truncate(last.end);
+        }
+        position = last.end;
+        channel.position(last.end);
+    }
+
+    private void roll(long nowMillis) throws IOException {
+        flushStaging();
+        channel.force(false);
+        channel.close();
+        startSegment(current().number + 1);
+        prune(nowMillis);
+    }
+
+    private void startSegment(long number) throws IOException {
+        Path path = dir.resolve(String.format("%016d.log", number));
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.READ, StandardOpenOption.TRUNCATE_EXISTING);
+        position = 0;
+        Segment[] next = Arrays.copyOf(segments, segments.length + 1);
+        next[segments.length] = new Segment(path, number);
+        segments = next;
+    }
+
+    private Segment current() {
+        return segments[segments.length - 1];
+    }
+
+    /**
+     * Deletes the segments that {@link #tail} can no longer reach: every
+     * one older than a segment behind which the newer ones hold
+     * {@code keepRecords} records, or whose newest record is older than
+     * {@code keepMillis}. The newest segment is always kept.
+     */
+    private void prune(long nowMillis) {
+        int keepFrom = 0;
+        long newer = 0;
+        for (int s = segments.length - 1; s > 0; s--) {
+            newer += segments[s].records;
+            long lastMillis = segments[s - 1].lastMillis;
+            if (newer >= keepRecords || (keepMillis > 0 && lastMillis < nowMillis - keepMillis)) {
+                keepFrom = s;
+                break;
+            }
+        }
+        int deleted = 0;
+        for (; deleted < keepFrom; deleted++) {
+            try {
+                Files.deleteIfExists(segments[deleted].path);
+            } catch (IOException e) {
+                System.err.println("[Server] Cannot delete old log segment: " + e.getMessage());
+                break;      // keep it and everything after it; try again on the next roll
+            }
+        }
+        segments = Arrays.copyOfRange(segments, deleted, segments.length);
+    }
+
+    /** Reads the directory once, checking every segment, then drops what replay cannot reach. */
+    private void load() throws IOException {
+        if (segments != null) return;
+        segments = Files.isDirectory(dir) ? listSegments(dir) : new Segment[0];
+        prune(System.currentTimeMillis());
+    }
+
+    // ── Readers ─────────────────────────────────────────────────────────────
+
+    /**
+     * The newest records, oldest first: at most {@code maxCount}, and none
+     * older than {@code sinceMillis}. Each buffer is a read-only view into a
+     * mapping of the segment, so nothing is copied. Records still staged
+     * are not included; {@link #sync} first.
+     */
+    List<ByteBuffer> tail(int maxCount, long sinceMillis) throws IOException {
+        load();
+        ArrayDeque<ByteBuffer> newestFirst = new ArrayDeque<>();
+        Segment[] all = segments;
+        for (int s = all.length - 1; s >= 0 && newestFirst.size() < maxCount; s--) {
+            long end = all[s].end;
+            if (end == 0) continue;
+            MappedByteBuffer map;
+            try (FileChannel in = FileChannel.open(all[s].path, StandardOpenOption.READ)) {
+                map = in.map(FileChannel.MapMode.READ_ONLY, 0, end);
+            }
+            int pos = (int) end;
+            while (pos >= HEADER_BYTES + TRAILER_BYTES && newestFirst.size() < maxCount) {
+                int length = map.getInt(pos - TRAILER_BYTES);
+                int start = pos - TRAILER_BYTES - length - HEADER_BYTES;
+                if (length < 0 || start < 0 || map.getInt(start) != length) break;
+                if (map.getLong(start + 4) < sinceMillis) {
+                    return oldestFirst(newestFirst);
+                }
+                newestFirst.add(map.slice(start + HEADER_BYTES, length).asReadOnlyBuffer());
+                pos = start;
+            }
+        }
+        return oldestFirst(newestFirst);
+    }
+
+    private static List<ByteBuffer> oldestFirst(ArrayDeque<ByteBuffer> newestFirst) {
+        List<ByteBuffer> result = new ArrayList<>(newestFirst.size());
+        newestFirst.descendingIterator().forEachRemaining(result::add);
+        return result;
+    }
+
+    private static Segment[] listSegments(Path dir) throws IOException {
+        Path[] paths;
+        try (Stream<Path> files = Files.list(dir)) {
+            paths = files.filter(p -> p.getFileName().toString().matches("\\d{16}\\.log"))
+                    .sorted()
+                    .toArray(Path[]::new);
+        }
+        Segment[] all = new Segment[paths.length];
+        for (int i = 0; i < paths.length; i++) {
+            String name = paths[i].getFileName().toString();
+            all[i] = new Segment(paths[i], Long.parseLong(name.substring(0, 16)));
+            scan(all[i]);
+        }
+        return all;
+    }
+
+    /**
+     * Walks a segment's records from the start and sets its {@code end} to
+     * the last one that is complete and self-consistent – not the file
+     * size, which after a crash may include a torn record – along with its
+     * record count and newest timestamp.
+     */
+    private static void scan(Segment segment) throws IOException {
+        try (FileChannel in = FileChannel.open(segment.path, StandardOpenOption.READ)) {
+            long size = in.size();
+            if (size == 0) return;
+            MappedByteBuffer map = in.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            long pos = 0;
+            while (pos + HEADER_BYTES + TRAILER_BYTES <= size) {
+                int length = map.getInt((int) pos);
+                long next = pos + HEADER_BYTES + length + TRAILER_BYTES;
+                if (length < 0 || next > size || map.getInt((int) (next - TRAILER_BYTES)) != length) break;
+                segment.records++;
+                segment.lastMillis = map.getLong((int) pos + 4);
+                pos = next;
+            }
+            segment.end = pos;
+        }
+    }
+}
@@ -1,32 +1,202 @@
 package server;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 /**
  * Manages all active chat rooms.
  * Creates a room on first join, removes it when it becomes empty.
+ *
+ * Every live room has a small integer id. Rooms sit in an id-indexed
+ * table as well as in a map by name, so once a client has its room (or a
+ * binary frame names one by id) nothing on the message path hashes a
+ * string; names are only hashed on join. Both hold live rooms only: a
+ * removed room's name is forgotten and its id handed to the next new room,
+ * so memory follows the number of rooms that exist at once, not the
+ * number of names clients have ever tried.
+ *
+ * With {@link RoomShards} configured, each room belongs to the shard its id
+ * maps to, and all of its membership changes run there, in order with its
+ * broadcasts. Neither {@link #join} nor {@link #leave} waits for the
+ * shard: a join hands the room to a callback once the client is in.
+ *
+ * With a {@link ClusterBus}, the manager tells the bus whenever a room
+ * appears or disappears here, and hands broadcasts from peer nodes to the
+ * local room of that name ({@link #deliver}).
  */
 public class RoomManager {
 
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final VarHandle SLOT = MethodHandles.arrayElementVarHandle(ChatRoom[].class);
+
     private final ConcurrentHashMap<String, ChatRoom> rooms = new ConcurrentHashMap<>();
+    private volatile ChatRoom[][] chunks = new ChatRoom[1][];    // grown under 'this'
+    private int nextId = 1;                         // under 'this'; 0 means "no room"
+    private int[] freeIds = new int[16];            // under 'this'; ids of removed rooms
+    private int freeCount;
+    private final ServerConfig config;
+    private final ServerStats stats;
+    private final MessageLog log;
+    private final RoomShards shards;    // null = rooms run on the caller's thread
+    private final ClusterBus bus;       // null = stand-alone
+    private final Object interestLock = new Object();
+
+    RoomManager(ServerConfig config, ServerStats stats, MessageLog log, RoomShards shards, ClusterBus bus) {
+        this.config = config;
+        this.stats = stats;
+        this.log = log;
+        this.shards = shards;
+        this.bus = bus;
+    }
+
+    /**
+     * Adds the client to the named room, creating the room if needed, then
+     * passes the room to {@code joined}. Without shards that happens before
+     * this returns; with shards it happens later, on the room's shard.
+     * Never hands out a room that is concurrently being removed.
+     */
+    public void join(String roomName, ClientHandler client, Consumer<ChatRoom> joined) {
+        ChatRoom room = getOrCreate(roomName);
+        room.execute(() -> {
+            if (room.addMember(client)) {
+                joined.accept(room);
+            } else {
+                // Emptied and closed between lookup and join; the next lookup replaces it.
+                join(roomName, client, joined);
+            }
+        });
+    }
+
+    /** Removes the client from the room, and the room itself once it is empty. */
+    public void leave(ChatRoom room, ClientHandler client) {
+        room.execute(() -> {
+            room.removeMember(client);
+            removeIfEmpty(room);
+        });
+    }
 
     /** Returns (or creates) the room with the given name. */
     public ChatRoom getOrCreate(String roomName) {
-        return rooms.computeIfAbsent(roomName, ChatRoom::new);
+        ChatRoom room = rooms.get(roomName);
+        if (room != null && !room.isClosed()) return room;
+        ChatRoom[] created = new ChatRoom[1];
+        room = rooms.compute(roomName, (name, current) ->
+                (current != null && !current.isClosed()) ? current : (created[0] = create(name)));
+        if (room == created[0]) {
+            stats.roomCreated();
+            announce(room);
+        }
+        return room;
+    }
+
+    /** A new room under a free id, published in the id table. Runs inside the name map's compute. */
+    private ChatRoom create(String roomName) {
+        int id = allocateId();
+        ChatRoom room = new ChatRoom(id, roomName, stats, log,
+                (shards != null) ? shards.forRoom(id) : null, bus,
+                TokenBucket.of(config.roomRate, config.roomBurst), config.roomHistory);
+        SLOT.setRelease(chunks[id >>> CHUNK_BITS], id & (CHUNK_SIZE - 1), room);
+        return room;
+    }
+
+    /** The live room with this id, or null. */
+    public ChatRoom get(int id) {
+        if (id <= 0) return null;
+        ChatRoom[][] table = chunks;
+        int c = id >>> CHUNK_BITS;
+        if (c >= table.length || table[c] == null) return null;
+        ChatRoom room = (ChatRoom) SLOT.getAcquire(table[c], id & (CHUNK_SIZE - 1));
+        return (room == null || room.isClosed()) ? null : room;
     }
 
     /** Removes the room if it has no members. */
-    public void removeIfEmpty(String roomName) {
-        rooms.computeIfPresent(roomName, (name, room) -> room.isEmpty() ? null : room);
+    public void removeIfEmpty(ChatRoom room) {
+        if (room.closeIfEmpty()) {
+            rooms.remove(room.getName(), room);
+            clearSlot(room);
+            freeId(room.getId());
+            stats.roomRemoved();
+            announce(room);
+            room.releaseLog();
+        }
+    }
+
+    /** A broadcast from a peer node; dropped if no one here is in the room. */
+    void deliver(String roomName, byte opcode, byte[] framed) {
+        ChatRoom room = rooms.get(roomName);
+        if (room != null && !room.isClosed()) {
+            room.deliver(opcode, framed);
+        }
     }
 
+    /**
+     * Shutdown: waits for the room shards to run everything already queued.
+     *
+     * @return false on timeout
+     */
+    boolean awaitQueued(long timeoutNanos) throws InterruptedException {
+        return shards == null || shards.awaitQueued(timeoutNanos);
+    }
+
+    /** The live rooms at this moment. */
     public Collection<ChatRoom> getAllRooms() {
-        return Collections.unmodifiableCollection(rooms.values());
+        List<ChatRoom> live = new ArrayList<>(rooms.size());
+        for (ChatRoom room : rooms.values()) {
+            if (!room.isClosed()) live.add(room);
+        }
+        return live;
     }
 
     public boolean roomExists(String roomName) {
-        return rooms.containsKey(roomName);
+        ChatRoom room = rooms.get(roomName);
+        return room != null && !room.isClosed();
+    }
+
+    /** The id of a removed room if there is one, else the next unused id; its chunk exists. */
+    private synchronized int allocateId() {
+        if (freeCount > 0) return freeIds[--freeCount];
+        int id = nextId++;
+        ensureChunk(id >>> CHUNK_BITS);
+        return id;
+    }
+
+    /** Hands back the id of a removed room, once its slot is cleared. */
+    private synchronized void freeId(int id) {
+        if (freeCount == freeIds.length) freeIds = Arrays.copyOf(freeIds, freeCount * 2);
+        freeIds[freeCount++] = id;
+    }
+
+    /**
+     * Tells the bus whether the room exists here now. A removal and the
+     * next creation of the same room can race; announcing the current
+     * state (under one lock) rather than the change leaves the bus right.
+     */
+    private void announce(ChatRoom room) {
+        if (bus == null) return;
+        synchronized (interestLock) {
+            bus.interest(room.getName(), roomExists(room.getName()));
+        }
+    }
+
+    private void clearSlot(ChatRoom room) {
+        int id = room.getId();
+        SLOT.compareAndSet(chunks[id >>> CHUNK_BITS], id & (CHUNK_SIZE - 1), room, null);
+    }
+
+    /** Makes sure chunk {@code c} exists; caller holds 'this'. Chunks are never moved, only the outer table. */
+    private void ensureChunk(int c) {
+        ChatRoom[][] table = chunks;
+        if (c < table.length && table[c] != null) return;
+        ChatRoom[][] grown = (c < table.length) ? table.clone()
+                : Arrays.copyOf(table, Math.max(c + 1, table.length * 2));
+        grown[c] = new ChatRoom[CHUNK_SIZE];
+        chunks = grown;
     }
 }
@@ -0,0 +1,111 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-threaded executors that own the chat rooms (-Dchat.shards).
+ *
+ * Every room is pinned to one shard by its id, so all of a room's joins,
+ * leaves and fan-outs run one at a time on the same thread, in the order
+ * they were submitted – members see a room's messages in one order, and a
+ * busy room only ever occupies its own shard instead of whichever client
+ * thread happened to send. Rooms on different shards never contend.
+ *
+ * Handing a shard a task never blocks: the caller may be an event loop
+ * serving thousands of other clients. Instead a shard with
+ * {@value #QUEUE_CAPACITY} tasks waiting reports itself
+ * {@link Shard#backlogged backlogged}, and the clients in its rooms are
+ * not read from until it has caught up ({@link ClientHandler#throttleNanos}),
+ * so TCP pushes back on the senders and the backlog stays near that size.
+ */
+final class RoomShards {
+
+    private static final int QUEUE_CAPACITY = 64 * 1024;
+    private static final int MAX_BATCH = 256;
+
+    private final Shard[] shards;
+
+    RoomShards(int count, ServerStats stats) {
+        this.shards = new Shard[count];
+        for (int i = 0; i < count; i++) {
+            shards[i] = new Shard(i, stats);
+        }
+        stats.shards(count);
+    }
+
+    /** The executor that owns the room with this id. Stable for the life of the id. */
+    Shard forRoom(int roomId) {
+        return shards[roomId % shards.length];
+    }
+
+    int count() {
+        return shards.length;
+    }
+
+    /**
+     * Waits until every task queued so far, on every shard, has run.
+     *
+     * @return false if that took longer than {@code timeoutNanos}
+     */
+    boolean awaitQueued(long timeoutNanos) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(shards.length);
+        for (Shard shard : shards) {
+            shard.execute(done::countDown);
+        }
+        return done.await(timeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /** One owner thread draining its own queue. */
+    static final class Shard implements Executor {
+
+        private final BlockingQueue<Runnable> queue = new LinkedBlockingQueue<>();
+        private final ServerStats stats;
+
+        Shard(int index, ServerStats stats) {
+            this.stats = stats;
+            Thread owner = new Thread(this::runLoop, "chat-shard-" + index);
+            owner.setDaemon(true);
+            owner.start();
+        }
+
+        /** Queues a task; never blocks. */
+        @Override
+        public void execute(Runnable task) {
+            stats.shardTaskQueued();
+            queue.add(task);
+        }
+
+        /** True while the shard is {@value #QUEUE_CAPACITY} or more tasks behind. */
+        boolean backlogged() {
+            return queue.size() >= QUEUE_CAPACITY;
+        }
+
+        private void runLoop() {
+            List<Runnable> batch = new ArrayList<>(MAX_BATCH);
+            while (true) {
+                try {
+                    batch.add(queue.take());
+                } catch (InterruptedException e) {
+                    return;
+                }
+                queue.drainTo(batch, MAX_BATCH - 1);
+                for (int i = 0; i < batch.size(); i++) {
+                    try {
+                        batch.get(i).run();
+                    } catch (RuntimeException e) {
+                        System.err.println("[Server] Room task failed on "
+                                + Thread.currentThread().getName() + ": " + e);
+                    }
+                }
+                stats.shardTasksRun(batch.size());
+                batch.clear();
+            }
+        }
+    }
+}
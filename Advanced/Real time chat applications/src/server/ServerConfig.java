@@ -0,0 +1,308 @@
+package server;
+
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Startup configuration for the chat server.
+ *
+ * Everything except the port is read from system properties so that the
+ * same launch script can be used to A/B different settings:
+ *
+ *   -Dchat.transport=blocking|virtual|nio
+ *                                   I/O model (default: blocking)
+ *   -Dchat.io.threads=N             event-loop threads in nio mode
+ *                                   (default: available processors)
+ *   -Dchat.outbound.capacity=N      messages queued per client before the
+ *                                   overflow policy applies (default: 1024)
+ *   -Dchat.outbound.overflow=drop-oldest|disconnect
+ *                                   what to do with a slow consumer
+ *                                   (default: drop-oldest)
+ *   -Dchat.flush.maxBatch=N         most messages sent in one gathering
+ *                                   write (default: 64)
+ *   -Dchat.flush.maxDelayMs=N       how long a queued message may wait for
+ *                                   others to share its write (default: 0,
+ *                                   i.e. only coalesce what is already queued)
+ *   -Dchat.compression=true|false   let binary clients negotiate compressed
+ *                                   output (default: true)
+ *   -Dchat.limit.client.rate=N      lines per second one client may send;
+ *                                   a client over budget is not read from
+ *                                   until it is back within it (default: 0,
+ *                                   no limit)
+ *   -Dchat.limit.client.burst=N     lines a client may send at once before
+ *                                   the rate applies (default: 2 x rate,
+ *                                   at least 1)
+ *   -Dchat.limit.room.rate=N        chat messages per second one room
+ *                                   accepts; excess messages are refused
+ *                                   (default: 0, no limit)
+ *   -Dchat.limit.room.burst=N       (default: 2 x rate, at least 1)
+ *   -Dchat.heartbeat.intervalSec=N  send PING to a client silent this long
+ *                                   (default: 30, 0 = never)
+ *   -Dchat.idle.timeoutSec=N        drop a client silent this long
+ *                                   (default: 120, 0 = never)
+ *   -Dchat.drain.timeoutSec=N       on shutdown, how long clients get to
+ *                                   receive their queued output (default: 10)
+ *   -Dchat.reusePort=true|false     bind with SO_REUSEPORT so a new server
+ *                                   can start on the port while the old one
+ *                                   drains (default: false; while two
+ *                                   servers hold the port the kernel splits
+ *                                   new clients between them, so only turn
+ *                                   it on for overlapping restarts)
+ *   -Dchat.room.history=N           recent chat messages each room keeps for
+ *                                   /history and for clients that /resume
+ *                                   (default: 256, 0 = none)
+ *   -Dchat.shards=N                 single-threaded executors that own the
+ *                                   rooms; 0 fans out on the sender's thread
+ *                                   (default: available processors)
+ *   -Dchat.stats.file=PATH          append a stats line to PATH periodically
+ *                                   (default: off)
+ *   -Dchat.stats.intervalSec=N      seconds between stats lines (default: 10)
+ *   -Dchat.stats.remote=true|false  allow /stats from non-loopback clients
+ *                                   (default: false)
+ *   -Dchat.log.dir=PATH             keep an on-disk log of every room under
+ *                                   PATH and replay it on join (default: off)
+ *   -Dchat.log.replay.count=N       most messages replayed on join (default: 50)
+ *   -Dchat.log.replay.minutes=N     only replay messages this recent
+ *                                   (default: 0, no age limit)
+ *   -Dchat.log.segmentMb=N          size at which a room's log rolls over
+ *                                   to a new segment file (default: 64);
+ *                                   older segments that replay can no
+ *                                   longer reach are then deleted
+ *   -Dchat.cluster=none|loopback|tcp
+ *                                   share rooms with other server nodes
+ *                                   (default: none). loopback runs
+ *                                   chat.cluster.nodes servers in this JVM
+ *                                   on consecutive ports
+ *   -Dchat.cluster.nodes=N          loopback nodes to run (default: 2)
+ *   -Dchat.cluster.port=N           tcp: port peers connect to
+ *                                   (default: client port + 1000)
+ *   -Dchat.cluster.peers=host:port,...
+ *                                   tcp: cluster ports of the other nodes
+ */
+final class ServerConfig {
+
+    /** How (and whether) nodes share rooms. */
+    enum Cluster {
+        /** A single stand-alone server. */
+        NONE,
+        /** Several nodes in one JVM, joined by a {@link LoopbackBus}. */
+        LOOPBACK,
+        /** Separate processes, joined by a {@link TcpMeshBus}. */
+        TCP
+    }
+
+    /** How client sockets are serviced. */
+    enum Transport {
+        /** One thread per socket, blocking reads (the original model). */
+        BLOCKING,
+        /** Same blocking code, but each socket gets a virtual thread. */
+        VIRTUAL,
+        /** A small fixed pool of selector-driven event loops. */
+        NIO
+    }
+
+    final int port;
+    final Transport transport;
+    final int ioThreads;
+    final int outboundCapacity;
+    final OutboundQueue.OverflowPolicy overflowPolicy;
+    final int flushMaxBatch;
+    final long flushMaxDelayNanos;
+    final boolean compression;
+    final int clientRate;               // 0 = unlimited
+    final int clientBurst;
+    final int roomRate;                 // 0 = unlimited
+    final int roomBurst;
+    final int heartbeatSec;             // 0 = no PINGs
+    final int idleTimeoutSec;           // 0 = never reap
+    final long drainTimeoutNanos;
+    final boolean reusePort;
+    final int roomHistory;              // 0 = no /history, no catch-up on /resume
+    final int shards;                   // 0 = no room executors
+    final Path statsFile;               // null = no periodic dump
+    final int statsIntervalSec;
+    final boolean statsRemote;
+    final Path logDir;                  // null = no message log
+    final int logReplayCount;
+    final int logReplayMinutes;
+    final long logSegmentBytes;
+    final int logQueueCapacity;
+    final Cluster cluster;
+    final int clusterNodes;
+    final int clusterPort;
+    final List<InetSocketAddress> clusterPeers;
+
+    private ServerConfig(int port, Transport transport, int ioThreads,
+                         int outboundCapacity, OutboundQueue.OverflowPolicy overflowPolicy,
+                         int flushMaxBatch, long flushMaxDelayNanos, boolean compression,
+                         int clientRate, int clientBurst, int roomRate, int roomBurst,
+                         int heartbeatSec, int idleTimeoutSec,
+                         long drainTimeoutNanos, boolean reusePort, int roomHistory, int shards,
+                         Path statsFile, int statsIntervalSec, boolean statsRemote,
+                         Path logDir, int logReplayCount, int logReplayMinutes,
+                         long logSegmentBytes, Cluster cluster, int clusterNodes,
+                         int clusterPort, List<InetSocketAddress> clusterPeers) {
+        this.port = port;
+        this.transport = transport;
+        this.ioThreads = ioThreads;
+        this.outboundCapacity = outboundCapacity;
+        this.overflowPolicy = overflowPolicy;
+        this.flushMaxBatch = flushMaxBatch;
+        this.flushMaxDelayNanos = flushMaxDelayNanos;
+        this.compression = compression;
+        this.clientRate = clientRate;
+        this.clientBurst = clientBurst;
+        this.roomRate = roomRate;
+        this.roomBurst = roomBurst;
+        this.heartbeatSec = heartbeatSec;
+        this.idleTimeoutSec = idleTimeoutSec;
+        this.drainTimeoutNanos = drainTimeoutNanos;
+        this.reusePort = reusePort;
+        this.roomHistory = roomHistory;
+        this.shards = shards;
+        this.statsFile = statsFile;
+        this.statsIntervalSec = statsIntervalSec;
+        this.statsRemote = statsRemote;
+        this.logDir = logDir;
+        this.logReplayCount = logReplayCount;
+        this.logReplayMinutes = logReplayMinutes;
+        this.logSegmentBytes = logSegmentBytes;
+        this.logQueueCapacity = 64 * 1024;
+        this.cluster = cluster;
+        this.clusterNodes = clusterNodes;
+        this.clusterPort = clusterPort;
+        this.clusterPeers = clusterPeers;
+    }
+
+    static ServerConfig load(int port) {
+        Transport transport = parseTransport(System.getProperty("chat.transport", "blocking"));
+        int ioThreads = Integer.getInteger("chat.io.threads",
+                Runtime.getRuntime().availableProcessors());
+        int outboundCapacity = Integer.getInteger("chat.outbound.capacity", 1024);
+        OutboundQueue.OverflowPolicy overflowPolicy =
+                parsePolicy(System.getProperty("chat.outbound.overflow", "drop-oldest"));
+        int flushMaxBatch = Integer.getInteger("chat.flush.maxBatch", 64);
+        long flushMaxDelayMs = Long.getLong("chat.flush.maxDelayMs", 0L);
+        boolean compression = Boolean.parseBoolean(System.getProperty("chat.compression", "true"));
+        int clientRate = Math.max(0, Integer.getInteger("chat.limit.client.rate", 0));
+        int clientBurst = Math.max(1, Integer.getInteger("chat.limit.client.burst", twice(clientRate)));
+        int roomRate = Math.max(0, Integer.getInteger("chat.limit.room.rate", 0));
+        int roomBurst = Math.max(1, Integer.getInteger("chat.limit.room.burst", twice(roomRate)));
+        int heartbeatSec = Integer.getInteger("chat.heartbeat.intervalSec", 30);
+        int idleTimeoutSec = Integer.getInteger("chat.idle.timeoutSec", 120);
+        int drainTimeoutSec = Integer.getInteger("chat.drain.timeoutSec", 10);
+        boolean reusePort = Boolean.parseBoolean(System.getProperty("chat.reusePort", "false"));
+        int roomHistory = Integer.getInteger("chat.room.history", 256);
+        int shards = Integer.getInteger("chat.shards", Runtime.getRuntime().availableProcessors());
+        String statsFile = System.getProperty("chat.stats.file");
+        int statsIntervalSec = Integer.getInteger("chat.stats.intervalSec", 10);
+        boolean statsRemote = Boolean.getBoolean("chat.stats.remote");
+        String logDir = System.getProperty("chat.log.dir");
+        int logReplayCount = Integer.getInteger("chat.log.replay.count", 50);
+        int logReplayMinutes = Integer.getInteger("chat.log.replay.minutes", 0);
+        int logSegmentMb = Integer.getInteger("chat.log.segmentMb", 64);
+        Cluster cluster = parseCluster(System.getProperty("chat.cluster", "none"));
+        int clusterNodes = Integer.getInteger("chat.cluster.nodes", 2);
+        int clusterPort = Integer.getInteger("chat.cluster.port", port + 1000);
+        List<InetSocketAddress> clusterPeers = parsePeers(System.getProperty("chat.cluster.peers", ""));
+        return new ServerConfig(port, transport, Math.max(1, ioThreads),
+                Math.max(1, outboundCapacity), overflowPolicy,
+                Math.max(1, flushMaxBatch), TimeUnit.MILLISECONDS.toNanos(Math.max(0, flushMaxDelayMs)),
+                compression, clientRate, clientBurst, roomRate, roomBurst,
+                Math.max(0, heartbeatSec), Math.max(0, idleTimeoutSec),
+                TimeUnit.SECONDS.toNanos(Math.max(0, drainTimeoutSec)), reusePort,
+                Math.max(0, roomHistory), Math.max(0, shards), toPath(statsFile),
+                Math.max(1, statsIntervalSec), statsRemote,
+                toPath(logDir), Math.max(0, logReplayCount), Math.max(0, logReplayMinutes),
+                Math.min(1024, Math.max(1, logSegmentMb)) * 1024L * 1024L,
+                cluster, Math.max(1, clusterNodes), clusterPort, clusterPeers);
+    }
+
+    /**
+     * The settings of node {@code index} of a loopback cluster: the next
+     * port up, its own subdirectory of the message log, and its own stats
+     * file ("stats.log" becomes "stats-node-1.log", ...), so the nodes do
+     * not write over each other.
+     */
+    ServerConfig forLoopbackNode(int index) {
+        return new ServerConfig(port + index, transport, ioThreads, outboundCapacity, overflowPolicy,
+                flushMaxBatch, flushMaxDelayNanos, compression, clientRate, clientBurst, roomRate, roomBurst,
+                heartbeatSec, idleTimeoutSec, drainTimeoutNanos, reusePort, roomHistory, shards,
+                (statsFile != null) ? forNode(statsFile, index) : null, statsIntervalSec, statsRemote,
+                (logDir != null) ? logDir.resolve("node-" + (index + 1)) : null,
+                logReplayCount, logReplayMinutes, logSegmentBytes,
+                cluster, clusterNodes, clusterPort, clusterPeers);
+    }
+
+    /** "name.ext" becomes "name-node-N.ext" for node {@code index} (N = index + 1). */
+    private static Path forNode(Path file, int index) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String suffix = "-node-" + (index + 1);
+        return file.resolveSibling((dot > 0)
+                ? name.substring(0, dot) + suffix + name.substring(dot)
+                : name + suffix);
+    }
+
+    /** Builder for per-connection reader/writer threads in the thread-per-socket modes. */
+    Thread.Builder threadBuilder() {
+        return (transport == Transport.VIRTUAL)
+                ? Thread.ofVirtual()
+                : Thread.ofPlatform().daemon();
+    }
+
+    /** The default burst for a rate: two seconds' worth. */
+    private static int twice(int rate) {
+        return (int) Math.min(Integer.MAX_VALUE, 2L * rate);
+    }
+
+    private static Path toPath(String value) {
+        return (value == null || value.isBlank()) ? null : Path.of(value);
+    }
+
+    private static Transport parseTransport(String value) {
+        try {
+            return Transport.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Unknown chat.transport '" + value + "'. Using blocking.");
+            return Transport.BLOCKING;
+        }
+    }
+
+    private static Cluster parseCluster(String value) {
+        try {
+            return Cluster.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Unknown chat.cluster '" + value + "'. Running stand-alone.");
+            return Cluster.NONE;
+        }
+    }
+
+    private static List<InetSocketAddress> parsePeers(String value) {
+        List<InetSocketAddress> peers = new ArrayList<>();
+        for (String peer : value.split(",")) {
+            peer = peer.trim();
+            if (peer.isEmpty()) continue;
+            int colon = peer.lastIndexOf(':');
+            try {
+                peers.add(InetSocketAddress.createUnresolved(
+                        peer.substring(0, colon), Integer.parseInt(peer.substring(colon + 1))));
+            } catch (RuntimeException e) {
+                System.err.println("Ignoring chat.cluster.peers entry '" + peer + "' (expected host:port).");
+            }
+        }
+        return List.copyOf(peers);
+    }
+
+    private static OutboundQueue.OverflowPolicy parsePolicy(String value) {
+        try {
+            return OutboundQueue.OverflowPolicy.parse(value);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Unknown chat.outbound.overflow '" + value + "'. Using drop-oldest.");
+            return OutboundQueue.OverflowPolicy.DROP_OLDEST;
+        }
+    }
+}
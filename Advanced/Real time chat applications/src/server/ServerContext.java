@@ -0,0 +1,46 @@
+package server;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Server-wide state shared by every connection: configuration, the room
+ * registry, the stats, the optional message log and the optional cluster
+ * bus, every connected client for {@link Drain}, and the same clients by
+ * name for /msg, /whois and /who *. One instance per running server (per
+ * node, in a loopback cluster).
+ */
+final class ServerContext {
+
+    final ServerConfig config;
+    final ServerStats stats;
+    final MessageLog log;               // null unless -Dchat.log.dir is set
+    final RoomManager rooms;
+    final ClusterBus bus;               // null unless -Dchat.cluster is set
+    final IdleReaper reaper;            // null if heartbeats and reaping are off
+    final Set<ClientHandler> clients = ConcurrentHashMap.newKeySet();
+    final PresenceIndex presence = new PresenceIndex();
+    volatile boolean draining;          // shutting down: turn new clients away
+
+    ServerContext(ServerConfig config) {
+        this(config, null);
+    }
+
+    /** @param hub the in-JVM cluster this node joins when clustering is {@code loopback} */
+    ServerContext(ServerConfig config, LoopbackBus.Hub hub) {
+        this.config = config;
+        this.stats = new ServerStats();
+        this.log = (config.logDir != null) ? new MessageLog(config, stats) : null;
+        RoomShards shards = (config.shards > 0) ? new RoomShards(config.shards, stats) : null;
+        this.reaper = IdleReaper.create(config, stats);
+        this.bus = switch (config.cluster) {
+            case NONE -> null;
+            case LOOPBACK -> hub.join(stats);
+            case TCP -> new TcpMeshBus(config, stats);
+        };
+        this.rooms = new RoomManager(config, stats, log, shards, bus);
+        if (bus != null) {
+            bus.start(rooms::deliver);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package server;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Live server counters and histograms.
+ *
+ * Everything recorded from the message path is a {@link LongAdder} or a
+ * fixed-bucket {@link Histogram}, so recording never allocates or locks.
+ * Rates are derived once a second by a background sampler, which also
+ * appends a line to the stats file when one is configured.
+ *
+ * Read via the {@code /stats} command, JMX ({@code javachat:type=ServerStats})
+ * or the periodic file dump.
+ */
+public final class ServerStats implements ServerStatsMBean {
+
+    private static final DateTimeFormatter STAMP = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
+
+    private final LongAdder connectionsOpened = new LongAdder();
+    private final LongAdder connectionsClosed = new LongAdder();
+    private final LongAdder roomsCreated = new LongAdder();
+    private final LongAdder roomsRemoved = new LongAdder();
+    private final LongAdder memberships = new LongAdder();
+    private final LongAdder messagesIn = new LongAdder();
+    private final LongAdder messagesOut = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder queuedMessages = new LongAdder();
+    private final LongAdder slowConsumerDrops = new LongAdder();
+    private final LongAdder slowConsumerDisconnects = new LongAdder();
+    private final LongAdder logAppends = new LongAdder();
+    private final LongAdder logDrops = new LongAdder();
+    private final LongAdder logSyncs = new LongAdder();
+    private final LongAdder readerPauses = new LongAdder();
+    private final LongAdder roomRefusals = new LongAdder();
+    private final LongAdder directMessages = new LongAdder();
+    private final LongAdder deliveriesFiltered = new LongAdder();
+    private final LongAdder pingsSent = new LongAdder();
+    private final LongAdder connectionsReaped = new LongAdder();
+    private final LongAdder shardQueued = new LongAdder();
+    private volatile int shards;
+    private volatile long launchToAcceptMillis;
+    private final LongAdder clusterPeers = new LongAdder();
+    private final LongAdder clusterSent = new LongAdder();
+    private final LongAdder clusterReceived = new LongAdder();
+    private final LongAdder clusterDrops = new LongAdder();
+    private final Histogram fanOutNanos = new Histogram();
+
+    // Written by the sampler thread only
+    private volatile double inPerSecond;
+    private volatile double outPerSecond;
+    private long lastIn;
+    private long lastOut;
+    private long lastSampleNanos;
+
+    // ── Recording (hot path) ────────────────────────────────────────────────
+
+    void connectionOpened()            { connectionsOpened.increment(); }
+    void connectionClosed()            { connectionsClosed.increment(); }
+    void roomCreated()                 { roomsCreated.increment(); }
+    void roomRemoved()                 { roomsRemoved.increment(); }
+    void memberJoined()                { memberships.increment(); }
+    void memberLeft()                  { memberships.decrement(); }
+    void messageIn()                   { messagesIn.increment(); }
+    void messageQueued()               { messagesOut.increment(); queuedMessages.increment(); }
+    void messagesDequeued(int n)       { queuedMessages.add(-n); }
+    void bytesWritten(long n)          { bytesWritten.add(n); }
+    void slowConsumerDisconnect()      { slowConsumerDisconnects.increment(); }
+    void fanOut(long nanos)            { fanOutNanos.record(nanos); }
+    void logAppend()                   { logAppends.increment(); }
+    void logDrop()                     { logDrops.increment(); }
+    void logSyncs(int n)               { logSyncs.add(n); }
+    void readerPaused()                { readerPauses.increment(); }
+    void roomRefused()                 { roomRefusals.increment(); }
+    void directMessage()               { directMessages.increment(); }
+    void deliveriesFiltered(int n)     { deliveriesFiltered.add(n); }
+    void pingSent()                    { pingsSent.increment(); }
+    void connectionsReaped(int n)      { connectionsReaped.add(n); }
+    void accepting(long launchMillis)  { launchToAcceptMillis = launchMillis; }
+    void shards(int n)                 { shards = n; }
+    void shardTaskQueued()             { shardQueued.increment(); }
+    void shardTasksRun(int n)          { shardQueued.add(-n); }
+    void clusterPeerConnected()        { clusterPeers.increment(); }
+    void clusterPeerLost()             { clusterPeers.decrement(); }
+    void clusterSent()                 { clusterSent.increment(); }
+    void clusterReceived()             { clusterReceived.increment(); }
+    void clusterDrop()                 { clusterDrops.increment(); }
+
+    /** Messages discarded from a queue (they were counted as queued). */
+    void slowConsumerDrops(long n) {
+        slowConsumerDrops.add(n);
+        queuedMessages.add(-n);
+    }
+
+    // ── Lifecycle ───────────────────────────────────────────────────────────
+
+    /** Starts the rate sampler, the optional file dump and the JMX bean. */
+    void start(ServerConfig config) {
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "chat-stats");
+            t.setDaemon(true);
+            return t;
+        });
+        lastSampleNanos = System.nanoTime();
+        sampler.scheduleAtFixedRate(this::sampleRates, 1, 1, TimeUnit.SECONDS);
+        if (config.statsFile != null) {
+            sampler.scheduleAtFixedRate(() -> dump(config.statsFile),
+                    config.statsIntervalSec, config.statsIntervalSec, TimeUnit.SECONDS);
+        }
+
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("javachat:type=ServerStats");
+            if (server.isRegistered(name)) {
+                // Another node in this JVM (loopback cluster) got there first
+                name = new ObjectName("javachat:type=ServerStats,port=" + config.port);
+            }
+            server.registerMBean(this, name);
+        } catch (JMException e) {
+            System.err.println("[Server] Could not register stats MBean: " + e.getMessage());
+        }
+    }
+
+    private void sampleRates() {
+        long now = System.nanoTime();
+        long in = messagesIn.sum();
+        long out = messagesOut.sum();
+        double seconds = (now - lastSampleNanos) / 1e9;
+        inPerSecond = (in - lastIn) / seconds;
+        outPerSecond = (out - lastOut) / seconds;
+        lastIn = in;
+        lastOut = out;
+        lastSampleNanos = now;
+    }
+
+    private void dump(Path file) {
+        long[] fanOut = fanOutNanos.snapshot();
+        String line = String.format("%s connections=%d rooms=%d in/s=%.1f out/s=%.1f bytes=%d "
+                        + "queued=%d drops=%d slowDisconnects=%d reaped=%d throttled=%d refused=%d shardQueued=%d "
+                        + "peers=%d clusterDrops=%d fanOutP50us=%d fanOutP99us=%d%n",
+                LocalDateTime.now().format(STAMP), getActiveConnections(), getActiveRooms(),
+                inPerSecond, outPerSecond, bytesWritten.sum(), queuedMessages.sum(),
+                slowConsumerDrops.sum(), slowConsumerDisconnects.sum(), connectionsReaped.sum(),
+                readerPauses.sum(), roomRefusals.sum(), shardQueued.sum(),
+                clusterPeers.sum(), clusterDrops.sum(),
+                Histogram.percentile(fanOut, 50) / 1000, Histogram.percentile(fanOut, 99) / 1000);
+        try {
+            Files.writeString(file, line, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            System.err.println("[Server] Could not write stats to " + file + ": " + e.getMessage());
+        }
+    }
+
+    // ── Reporting ───────────────────────────────────────────────────────────
+
+    /** Human-readable report for the /stats command. */
+    List<String> report() {
+        long[] fanOut = fanOutNanos.snapshot();
+        List<String> lines = new ArrayList<>();
+        lines.add(String.format("  connections     : %d active (%d total)",
+                getActiveConnections(), connectionsOpened.sum()));
+        lines.add(String.format("  startup         : accepting %d ms after launch", launchToAcceptMillis));
+        lines.add(String.format("  rooms           : %d (%.1f members avg)",
+                getActiveRooms(), getAverageMembersPerRoom()));
+        lines.add(String.format("  messages in     : %d total, %.1f/s", messagesIn.sum(), inPerSecond));
+        lines.add(String.format("  messages out    : %d total, %.1f/s", messagesOut.sum(), outPerSecond));
+        lines.add(String.format("  bytes           : %d written, %d encoded",
+                bytesWritten.sum(), EncodedMessage.encodedBytes()));
+        long deflateIn = EncodedMessage.deflateInBytes();
+        lines.add(String.format("  compression     : %d message(s), %d -> %d bytes (%.1f%%)",
+                EncodedMessage.deflatedMessages(), deflateIn, EncodedMessage.deflateOutBytes(),
+                deflateIn == 0 ? 100.0 : 100.0 * EncodedMessage.deflateOutBytes() / deflateIn));
+        lines.add(String.format("  direct messages : %d", directMessages.sum()));
+        lines.add(String.format("  topic filters   : %d deliveries skipped", deliveriesFiltered.sum()));
+        lines.add(String.format("  outbound queued : %d", queuedMessages.sum()));
+        lines.add(String.format("  slow consumers  : %d messages dropped, %d disconnected",
+                slowConsumerDrops.sum(), slowConsumerDisconnects.sum()));
+        lines.add(String.format("  heartbeats      : %d ping(s) sent, %d idle connection(s) reaped",
+                pingsSent.sum(), connectionsReaped.sum()));
+        lines.add(String.format("  rate limits     : %d client pause(s), %d message(s) refused by busy rooms",
+                readerPauses.sum(), roomRefusals.sum()));
+        lines.add(shards == 0
+                ? "  room shards     : none (fan-out on the sender's thread)"
+                : String.format("  room shards     : %d, %d task(s) queued", shards, shardQueued.sum()));
+        lines.add(String.format("  cluster         : %d peer(s), %d sent, %d received, %d dropped",
+                clusterPeers.sum(), clusterSent.sum(), clusterReceived.sum(), clusterDrops.sum()));
+        lines.add(String.format("  fan-out         : %d broadcasts, p50 %d us, p99 %d us, p99.9 %d us",
+                Histogram.count(fanOut), Histogram.percentile(fanOut, 50) / 1000,
+                Histogram.percentile(fanOut, 99) / 1000, Histogram.percentile(fanOut, 99.9) / 1000));
+        lines.add(String.format("  message log     : %d appended, %d syncs, %d dropped",
+                logAppends.sum(), logSyncs.sum(), logDrops.sum()));
+        return lines;
+    }
+
+    @Override public long getActiveConnections()  { return connectionsOpened.sum() - connectionsClosed.sum(); }
+    @Override public long getActiveRooms()        { return roomsCreated.sum() - roomsRemoved.sum(); }
+    @Override public double getMessagesInPerSecond()  { return inPerSecond; }
+    @Override public double getMessagesOutPerSecond() { return outPerSecond; }
+    @Override public long getMessagesIn()         { return messagesIn.sum(); }
+    @Override public long getMessagesOut()        { return messagesOut.sum(); }
+    @Override public long getBytesWritten()       { return bytesWritten.sum(); }
+    @Override public long getQueuedMessages()     { return queuedMessages.sum(); }
+    @Override public long getSlowConsumerDrops()  { return slowConsumerDrops.sum(); }
+    @Override public long getSlowConsumerDisconnects() { return slowConsumerDisconnects.sum(); }
+    @Override public long getLaunchToAcceptMillis() { return launchToAcceptMillis; }
+    @Override public long getPingsSent()          { return pingsSent.sum(); }
+    @Override public long getReapedConnections()  { return connectionsReaped.sum(); }
+    @Override public long getReaderPauses()       { return readerPauses.sum(); }
+    @Override public long getRoomRefusals()       { return roomRefusals.sum(); }
+    @Override public long getDirectMessages()     { return directMessages.sum(); }
+    @Override public long getFilteredDeliveries() { return deliveriesFiltered.sum(); }
+    @Override public int getShards()              { return shards; }
+    @Override public long getShardQueuedTasks()   { return shardQueued.sum(); }
+    @Override public long getClusterPeers()       { return clusterPeers.sum(); }
+    @Override public long getClusterSent()        { return clusterSent.sum(); }
+    @Override public long getClusterReceived()    { return clusterReceived.sum(); }
+    @Override public long getClusterDrops()       { return clusterDrops.sum(); }
+    @Override public long getFanOutP50Micros()    { return Histogram.percentile(fanOutNanos.snapshot(), 50) / 1000; }
+    @Override public long getFanOutP99Micros()    { return Histogram.percentile(fanOutNanos.snapshot(), 99) / 1000; }
+
+    @Override
+    public double getAverageMembersPerRoom() {
+        long rooms = getActiveRooms();
+        return rooms == 0 ? 0 : (double) memberships.sum() / rooms;
+    }
+}
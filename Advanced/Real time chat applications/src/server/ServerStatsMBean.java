@@ -0,0 +1,57 @@
+package server;
+
+/** JMX view of {@link ServerStats}, registered as {@code javachat:type=ServerStats}. */
+public interface ServerStatsMBean {
+
+    long getActiveConnections();
+
+    long getLaunchToAcceptMillis();
+
+    long getActiveRooms();
+
+    double getAverageMembersPerRoom();
+
+    double getMessagesInPerSecond();
+
+    double getMessagesOutPerSecond();
+
+    long getMessagesIn();
+
+    long getMessagesOut();
+
+    long getBytesWritten();
+
+    long getQueuedMessages();
+
+    long getSlowConsumerDrops();
+
+    long getSlowConsumerDisconnects();
+
+    long getPingsSent();
+
+    long getReapedConnections();
+
+    long getReaderPauses();
+
+    long getRoomRefusals();
+
+    long getDirectMessages();
+
+    long getFilteredDeliveries();
+
+    int getShards();
+
+    long getShardQueuedTasks();
+
+    long getClusterPeers();
+
+    long getClusterSent();
+
+    long getClusterReceived();
+
+    long getClusterDrops();
+
+    long getFanOutP50Micros();
+
+    long getFanOutP99Micros();
+}
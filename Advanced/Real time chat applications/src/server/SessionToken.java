@@ -0,0 +1,52 @@
+package server;
+
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.HexFormat;
+import protocol.Session;
+
+/**
+ * What a client needs to {@link Session#RESUME resume} its session: the
+ * session id, its name and its room ("" for none), as
+ * {@code <id>.<name>.<room>} with the name and room in URL-safe Base64.
+ *
+ * Tokens are not signed: they only restore what the client could also ask
+ * for with /nick and /join, and their name and room must pass the same
+ * {@link Names} rules. The id is what lets a resumed session take its name
+ * back from a connection of the same session that the server has not yet
+ * noticed is dead, dropping that connection; so it comes from a
+ * SecureRandom, and nobody else can guess it.
+ */
+record SessionToken(String id, String name, String room) {
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /** A new random session id. */
+    static String newId() {
+        return HexFormat.of().toHexDigits(RANDOM.nextLong());
+    }
+
+    String encode() {
+        return id + "." + ENCODER.encodeToString(name.getBytes(StandardCharsets.UTF_8))
+                + "." + ENCODER.encodeToString(room.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** @return null unless {@code token} is well-formed with a valid name and room */
+    static SessionToken parse(String token) {
+        String[] parts = token.split("\\.", -1);
+        if (parts.length != 3 || parts[0].length() != 16) return null;
+        try {
+            HexFormat.fromHexDigitsToLong(parts[0]);
+            String name = new String(DECODER.decode(parts[1]), StandardCharsets.UTF_8);
+            String room = new String(DECODER.decode(parts[2]), StandardCharsets.UTF_8);
+            if (Names.checkName(name) != null
+                    || (!room.isEmpty() && Names.checkRoom(room) != null)) return null;
+            return new SessionToken(parts[0], name, room);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package server;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Connection for the thread-per-socket transports.
+ *
+ * {@link #send} only enqueues; a dedicated writer thread (virtual in
+ * virtual-thread mode) drains the {@link OutboundQueue} into the socket,
+ * so a client with a full TCP window stalls only its own writer. The
+ * writer takes everything pending (optionally lingering up to the
+ * configured flush delay) and sends it with one gathering write.
+ */
+class SocketConnection implements Connection {
+
+    private final Socket socket;
+    private final WritableByteChannel out;
+    private final OutboundQueue queue;
+    private final int maxBatch;
+    private final long lingerNanos;
+    private final ServerStats stats;
+
+    SocketConnection(Socket socket, ServerContext context) throws IOException {
+        ServerConfig config = context.config;
+        this.socket = socket;
+        this.out = (socket.getChannel() != null)
+                ? socket.getChannel()
+                : Channels.newChannel(socket.getOutputStream());
+        this.queue = new OutboundQueue(config.outboundCapacity, config.overflowPolicy, context.stats);
+        this.maxBatch = config.flushMaxBatch;
+        this.lingerNanos = config.flushMaxDelayNanos;
+        this.stats = context.stats;
+        config.threadBuilder().name("writer-" + remoteAddress()).start(this::writeLoop);
+    }
+
+    /** Thread-safe send: called by other ClientHandlers' threads. */
+    @Override
+    public void send(ByteBuffer bytes) {
+        if (!queue.offer(bytes)) {
+            // Slow consumer under the DISCONNECT policy: the reader thread
+            // sees the closed socket and runs the normal disconnect path.
+            abort();
+        }
+    }
+
+    @Override
+    public void close() {
+        queue.close();
+    }
+
+    @Override
+    public String remoteAddress() {
+        return socket.getInetAddress().getHostAddress() + ":" + socket.getPort();
+    }
+
+    @Override
+    public boolean isLoopback() {
+        return socket.getInetAddress().isLoopbackAddress();
+    }
+
+    @Override
+    public long droppedMessages() {
+        return queue.droppedCount();
+    }
+
+    private void writeLoop() {
+        ByteBuffer[] batch = new ByteBuffer[maxBatch];
+        try {
+            int n;
+            while ((n = queue.takeBatch(batch, lingerNanos)) > 0) {
+                writeFully(batch, n);
+                Arrays.fill(batch, 0, n, null);
+            }
+        } catch (IOException | InterruptedException e) {
+            // Broken socket – reader side will notice and disconnect
+        } finally {
+            queue.discard();
+            abort();
+        }
+    }
+
+    private void writeFully(ByteBuffer[] batch, int n) throws IOException {
+        if (out instanceof GatheringByteChannel) {
+            GatheringByteChannel gather = (GatheringByteChannel) out;
+            int first = 0;
+            while (first < n) {
+                stats.bytesWritten(gather.write(batch, first, n - first));
+                while (first < n && !batch[first].hasRemaining()) first++;
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                while (batch[i].hasRemaining()) stats.bytesWritten(out.write(batch[i]));
+            }
+        }
+    }
+
+    @Override
+    public void abort() {
+        try { socket.close(); } catch (IOException ignored) {}
+    }
+}
@@ -0,0 +1,325 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import protocol.BinaryProtocol;
+
+/**
+ * {@link ClusterBus} between server processes over TCP (-Dchat.cluster=tcp).
+ *
+ * Every node listens on -Dchat.cluster.port and dials every address in
+ * -Dchat.cluster.peers, so two nodes are joined by two connections, one
+ * per direction. On each connection the dialing node sends broadcasts and
+ * the accepting node sends back the rooms it has members in – the full
+ * list when the connection opens, then every change – so a node only sends
+ * a room's messages to peers that asked for them, one copy per peer.
+ *
+ * Frames are [int length][byte type][payload], big-endian, where
+ * {@code length} counts the bytes after itself:
+ *   SUBSCRIBE, UNSUBSCRIBE – acceptor to dialer. One or more room names,
+ *                            each [short length][UTF-8].
+ *   MESSAGE                – dialer to acceptor. [byte opcode][short length]
+ *                            [room name][line, including its '\n'].
+ *
+ * Every connection has a bounded send queue and its own writer thread.
+ * Broadcasts to a peer that falls behind are dropped (and counted); a
+ * subscription update that does not fit closes the connection instead,
+ * and the peer gets the full list again when it redials. Lost connections
+ * are redialed once a second.
+ */
+final class TcpMeshBus implements ClusterBus {
+
+    private static final byte SUBSCRIBE = 1;
+    private static final byte UNSUBSCRIBE = 2;
+    private static final byte MESSAGE = 3;
+
+    private static final int MAX_FRAME_BYTES = 1 << 20;
+    private static final int QUEUE_CAPACITY = 16 * 1024;
+    private static final int MAX_BATCH = 64;
+    private static final long REDIAL_MILLIS = 1000;
+
+    private final int port;
+    private final List<InetSocketAddress> peers;
+    private final ServerStats stats;
+
+    // Accepted connections, which carry our subscriptions; both guarded by 'subscribers'
+    private final List<Link> subscribers = new ArrayList<>();
+    private final Set<String> localRooms = new HashSet<>();
+
+    /** Dialed connections, which carry our broadcasts, each with the peer's subscriptions. */
+    private final List<Link> publishers = new CopyOnWriteArrayList<>();
+
+    private volatile Listener listener;
+
+    TcpMeshBus(ServerConfig config, ServerStats stats) {
+        this.port = config.clusterPort;
+        this.peers = config.clusterPeers;
+        this.stats = stats;
+    }
+
+    @Override
+    public void start(Listener listener) {
+        this.listener = listener;
+        daemon("cluster-accept", this::acceptLoop);
+        for (InetSocketAddress peer : peers) {
+            daemon("cluster-dial-" + peer.getHostString() + ":" + peer.getPort(), () -> dialLoop(peer));
+        }
+    }
+
+    @Override
+    public void interest(String room, boolean interested) {
+        synchronized (subscribers) {
+            boolean changed = interested ? localRooms.add(room) : localRooms.remove(room);
+            if (!changed) return;
+            ByteBuffer frame = roomsFrame(interested ? SUBSCRIBE : UNSUBSCRIBE, List.of(room));
+            for (Link link : subscribers) {
+                if (!link.send(frame.duplicate())) link.close();
+            }
+        }
+    }
+
+    @Override
+    public void publish(String room, byte opcode, ByteBuffer line) {
+        ByteBuffer frame = null;
+        for (Link link : publishers) {
+            if (!link.peerRooms.contains(room)) continue;
+            if (frame == null) frame = messageFrame(room, opcode, line);
+            if (link.send(frame.duplicate())) {
+                stats.clusterSent();
+            } else {
+                stats.clusterDrop();
+            }
+        }
+    }
+
+    @Override
+    public String describe() {
+        return "tcp mesh on port " + port + ", " + peers.size() + " peer(s)";
+    }
+
+    // ── Accepting side: receives broadcasts, sends subscriptions ────────────
+
+    private void acceptLoop() {
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(port));
+            while (true) {
+                SocketChannel channel = server.accept();
+                daemon("cluster-in-" + channel.getRemoteAddress(), () -> serveSubscriber(channel));
+            }
+        } catch (IOException e) {
+            System.err.println("[Server] Cluster port " + port + " failed: " + e.getMessage());
+        }
+    }
+
+    private void serveSubscriber(SocketChannel channel) {
+        Link link;
+        try {
+            link = new Link(channel);
+        } catch (IOException e) {
+            try { channel.close(); } catch (IOException ignored) {}
+            return;
+        }
+        synchronized (subscribers) {
+            subscribers.add(link);
+            List<String> rooms = new ArrayList<>(localRooms);
+            int from = 0;
+            while (from < rooms.size()) {
+                // Keep each frame well under the limit: a name is at most 30 chars
+                int to = Math.min(rooms.size(), from + 4096);
+                if (!link.send(roomsFrame(SUBSCRIBE, rooms.subList(from, to)))) link.close();
+                from = to;
+            }
+        }
+        System.out.println("[Server] Cluster peer connected from " + link.peer);
+        try {
+            DataInputStream in = link.input();
+            while (true) {
+                int length = in.readInt();
+                if (length < 4 || length > MAX_FRAME_BYTES || in.readByte() != MESSAGE) {
+                    throw new IOException("bad frame from " + link.peer);
+                }
+                byte opcode = in.readByte();
+                int nameLength = in.readUnsignedShort();
+                int lineLength = length - 1 - 1 - 2 - nameLength;
+                if (lineLength <= 0) throw new IOException("bad frame from " + link.peer);
+                byte[] name = new byte[nameLength];
+                in.readFully(name);
+                byte[] framed = new byte[BinaryProtocol.HEADER_BYTES + lineLength];
+                in.readFully(framed, BinaryProtocol.HEADER_BYTES, lineLength);
+                stats.clusterReceived();
+                listener.deliver(new String(name, StandardCharsets.UTF_8), opcode, framed);
+            }
+        } catch (IOException e) {
+            if (!(e instanceof EOFException) && !link.closed) {
+                System.err.println("[Server] Cluster link from " + link.peer + " failed: " + e.getMessage());
+            }
+        } finally {
+            synchronized (subscribers) {
+                subscribers.remove(link);
+            }
+            link.close();
+        }
+    }
+
+    // ── Dialing side: sends broadcasts, receives subscriptions ──────────────
+
+    private void dialLoop(InetSocketAddress address) {
+        boolean reported = false;
+        while (true) {
+            try (SocketChannel channel = SocketChannel.open(
+                    new InetSocketAddress(address.getHostString(), address.getPort()))) {
+                reported = false;
+                servePublisher(new Link(channel));
+            } catch (IOException e) {
+                if (!reported) {
+                    System.err.println("[Server] Cluster peer " + address.getHostString() + ":"
+                            + address.getPort() + " unreachable: "
+                            + e.getMessage() + " (retrying)");
+                    reported = true;
+                }
+            }
+            try {
+                Thread.sleep(REDIAL_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void servePublisher(Link link) {
+        publishers.add(link);
+        stats.clusterPeerConnected();
+        System.out.println("[Server] Cluster peer " + link.peer + " connected");
+        try {
+            DataInputStream in = link.input();
+            while (true) {
+                int length = in.readInt();
+                if (length < 1 || length > MAX_FRAME_BYTES) {
+                    throw new IOException("bad frame from " + link.peer);
+                }
+                byte type = in.readByte();
+                if (type != SUBSCRIBE && type != UNSUBSCRIBE) {
+                    throw new IOException("bad frame from " + link.peer);
+                }
+                int remaining = length - 1;
+                while (remaining > 0) {
+                    byte[] name = new byte[in.readUnsignedShort()];
+                    in.readFully(name);
+                    remaining -= 2 + name.length;
+                    String room = new String(name, StandardCharsets.UTF_8);
+                    if (type == SUBSCRIBE) {
+                        link.peerRooms.add(room);
+                    } else {
+                        link.peerRooms.remove(room);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("[Server] Cluster peer " + link.peer + " lost");
+        } finally {
+            publishers.remove(link);
+            stats.clusterPeerLost();
+            link.close();
+        }
+    }
+
+    // ── Frames ──────────────────────────────────────────────────────────────
+
+    private static ByteBuffer roomsFrame(byte type, List<String> rooms) {
+        List<byte[]> names = new ArrayList<>(rooms.size());
+        int length = 1;
+        for (String room : rooms) {
+            byte[] name = room.getBytes(StandardCharsets.UTF_8);
+            names.add(name);
+            length += 2 + name.length;
+        }
+        ByteBuffer frame = ByteBuffer.allocate(4 + length).putInt(length).put(type);
+        for (byte[] name : names) {
+            frame.putShort((short) name.length).put(name);
+        }
+        return frame.flip().asReadOnlyBuffer();
+    }
+
+    private static ByteBuffer messageFrame(String room, byte opcode, ByteBuffer line) {
+        byte[] name = room.getBytes(StandardCharsets.UTF_8);
+        int length = 1 + 1 + 2 + name.length + line.remaining();
+        return ByteBuffer.allocate(4 + length)
+                .putInt(length).put(MESSAGE).put(opcode)
+                .putShort((short) name.length).put(name)
+                .put(line.duplicate())
+                .flip().asReadOnlyBuffer();
+    }
+
+    private static Thread daemon(String name, Runnable task) {
+        return Thread.ofPlatform().name(name).daemon().start(task);
+    }
+
+    // ── Connection ──────────────────────────────────────────────────────────
+
+    /** One peer connection: a bounded send queue drained by its own writer thread. */
+    private static final class Link {
+        final SocketChannel channel;
+        final String peer;
+        final Set<String> peerRooms = ConcurrentHashMap.newKeySet();  // dialed links only
+        private final BlockingQueue<ByteBuffer> outbound = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        private final Thread writer;
+        volatile boolean closed;
+
+        Link(SocketChannel channel) throws IOException {
+            this.channel = channel;
+            this.peer = String.valueOf(channel.getRemoteAddress());
+            channel.socket().setTcpNoDelay(true);
+            this.writer = Thread.ofPlatform().name("cluster-out-" + peer).daemon().unstarted(this::writeLoop);
+            writer.start();
+        }
+
+        DataInputStream input() {
+            return new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 64 * 1024));
+        }
+
+        /** @return false if the frame did not fit in the queue (or the link is closed) */
+        boolean send(ByteBuffer frame) {
+            return !closed && outbound.offer(frame);
+        }
+
+        private void writeLoop() {
+            List<ByteBuffer> batch = new ArrayList<>(MAX_BATCH);
+            try {
+                while (true) {
+                    batch.add(outbound.take());
+                    outbound.drainTo(batch, MAX_BATCH - 1);
+                    ByteBuffer[] buffers = batch.toArray(new ByteBuffer[0]);
+                    while (buffers[buffers.length - 1].hasRemaining()) {
+                        channel.write(buffers);
+                    }
+                    batch.clear();
+                }
+            } catch (InterruptedException | IOException e) {
+                close();
+            }
+        }
+
+        void close() {
+            if (closed) return;
+            closed = true;
+            writer.interrupt();
+            try { channel.close(); } catch (IOException ignored) {}
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package server;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * The "[HH:mm:ss] " stamp in front of every chat line, formatted once per
+ * second for the whole server instead of once per message.
+ */
+final class Timestamps {
+
+    private static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+    private record Stamp(long second, byte[] text) {}
+
+    private static volatile Stamp current = new Stamp(Long.MIN_VALUE, null);
+
+    private Timestamps() {}
+
+    /**
+     * The stamp for the current second, in the server's time zone. The array
+     * is shared: copy from it, never write to it. Threads racing across a
+     * second boundary may each format it; any of their results is right.
+     */
+    static byte[] now() {
+        long second = System.currentTimeMillis() / 1000;
+        Stamp stamp = current;
+        if (stamp.second != second) {
+            LocalTime time = LocalTime.ofInstant(Instant.ofEpochSecond(second), ZoneId.systemDefault());
+            stamp = new Stamp(second, ("[" + time.format(FORMAT) + "] ").getBytes(StandardCharsets.US_ASCII));
+            current = stamp;
+        }
+        return stamp.text;
+    }
+}
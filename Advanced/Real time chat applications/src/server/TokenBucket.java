@@ -0,0 +1,66 @@
+package server;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket: {@code rate} tokens per second, holding at most
+ * {@code burst}.
+ *
+ * The whole state is one timestamp – the moment the bucket will be full
+ * again – so taking a token is a single compare-and-set and nothing is
+ * refilled by a timer. Every token moves that moment one interval
+ * ({@code 1s / rate}) further out; the bucket is empty once it lies more
+ * than {@code burst} intervals ahead of now. Times are
+ * {@link System#nanoTime()} values.
+ */
+final class TokenBucket {
+
+    private final long intervalNanos;
+    private final long capacityNanos;
+    private final AtomicLong fullAt;
+
+    TokenBucket(int ratePerSecond, int burst) {
+        this.intervalNanos = Math.max(1, 1_000_000_000L / ratePerSecond);
+        this.capacityNanos = intervalNanos * burst;
+        this.fullAt = new AtomicLong(System.nanoTime());
+    }
+
+    /** A bucket for the given settings, or null when {@code ratePerSecond} is 0 (no limit). */
+    static TokenBucket of(int ratePerSecond, int burst) {
+        return (ratePerSecond > 0) ? new TokenBucket(ratePerSecond, burst) : null;
+    }
+
+    /**
+     * Takes a token if there is one.
+     *
+     * @return 0 if a token was taken; otherwise how many nanoseconds until
+     *         one is available (nothing is taken)
+     */
+    long tryAcquire(long now) {
+        while (true) {
+            long current = fullAt.get();
+            long next = later(current, now) + intervalNanos;
+            long excess = next - now - capacityNanos;
+            if (excess > 0) return excess;
+            if (fullAt.compareAndSet(current, next)) return 0;
+        }
+    }
+
+    /** Takes a token even if the bucket is empty; later callers wait for it. */
+    void acquire(long now) {
+        while (true) {
+            long current = fullAt.get();
+            if (fullAt.compareAndSet(current, later(current, now) + intervalNanos)) return;
+        }
+    }
+
+    /** Nanoseconds until a token is available; 0 if one is available now. */
+    long delayNanos(long now) {
+        long excess = later(fullAt.get(), now) + intervalNanos - now - capacityNanos;
+        return Math.max(0, excess);
+    }
+
+    private static long later(long a, long b) {
+        return (a - b > 0) ? a : b;
+    }
+}
@@ -0,0 +1,163 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The compiled subscriptions of one room's members. A member with no
+ * subscriptions gets every chat message; a member with some only gets
+ * messages whose text has one of its topics as a word – "@name" for
+ * mentions, "#tag", or "~thread" – matched ignoring ASCII letter case.
+ *
+ * Immutable: {@link ChatRoom} compiles a new one under its membership lock
+ * whenever a member with subscriptions joins, leaves or changes them, and
+ * each broadcast reads the current one once. {@link #match} scans the text
+ * once and looks every topic word up in a hash map, so a message costs
+ * O(text + matched members) however many subscriptions the room has.
+ */
+final class TopicIndex {
+
+    /** Longest topic, in UTF-8 bytes including its '@', '#' or '~'. */
+    static final int MAX_TOPIC_BYTES = 32;
+
+    /** Topics one member may hold in one room. */
+    static final int MAX_TOPICS_PER_MEMBER = 20;
+
+    /** The index of a room where nobody has subscribed: everyone gets everything. */
+    static final TopicIndex NONE = new TopicIndex(null, Map.of(), Set.of(), 0);
+
+    private static final ClientHandler[] NO_MEMBERS = new ClientHandler[0];
+
+    private final ClientHandler[] unfiltered;           // members without subscriptions
+    private final Map<String, ClientHandler[]> byTopic;
+    private final Set<ClientHandler> filtered;          // members with subscriptions
+    private final int memberCount;
+
+    private TopicIndex(ClientHandler[] unfiltered, Map<String, ClientHandler[]> byTopic,
+                       Set<ClientHandler> filtered, int memberCount) {
+        this.unfiltered = unfiltered;
+        this.byTopic = byTopic;
+        this.filtered = filtered;
+        this.memberCount = memberCount;
+    }
+
+    /** @param subscriptions topic keys (see {@link #key}) by member; only members count */
+    static TopicIndex compile(ClientHandler[] members, Map<ClientHandler, Set<String>> subscriptions) {
+        if (subscriptions.isEmpty()) return NONE;
+        List<ClientHandler> unfiltered = new ArrayList<>(members.length);
+        Set<ClientHandler> filtered = Collections.newSetFromMap(new IdentityHashMap<>());
+        Map<String, List<ClientHandler>> topics = new HashMap<>();
+        for (ClientHandler member : members) {
+            Set<String> keys = subscriptions.get(member);
+            if (keys == null) {
+                unfiltered.add(member);
+                continue;
+            }
+            filtered.add(member);
+            for (String key : keys) {
+                topics.computeIfAbsent(key, k -> new ArrayList<>()).add(member);
+            }
+        }
+        Map<String, ClientHandler[]> byTopic = new HashMap<>();
+        topics.forEach((key, subscribers) -> byTopic.put(key, subscribers.toArray(NO_MEMBERS)));
+        return new TopicIndex(unfiltered.toArray(NO_MEMBERS), byTopic, filtered, members.length);
+    }
+
+    /** True if nobody is filtering: send to every member. */
+    boolean isEmpty() {
+        return byTopic.isEmpty();
+    }
+
+    /** Members that get every chat message; shared, do not modify. */
+    ClientHandler[] unfiltered() {
+        return unfiltered;
+    }
+
+    boolean isFiltered(ClientHandler member) {
+        return filtered.contains(member);
+    }
+
+    int memberCount() {
+        return memberCount;
+    }
+
+    /**
+     * Members subscribed to a topic that occurs in a chat line
+     * ("[time] name: text"; only the text counts), each once. A single
+     * matching topic returns its shared array: do not modify the result.
+     */
+    ClientHandler[] match(ByteBuffer line) {
+        int from = textStart(line);
+        int to = line.limit();
+        ClientHandler[] first = null;
+        Set<ClientHandler> more = null;
+        for (int i = from; i < to; i++) {
+            byte b = line.get(i);
+            if ((b != '@' && b != '#' && b != '~') || (i > from && isWordByte(line.get(i - 1)))) continue;
+            int end = i + 1;
+            while (end < to && isWordByte(line.get(end))) end++;
+            if (end - i >= 2 && end - i <= MAX_TOPIC_BYTES) {
+                byte[] word = new byte[end - i];
+                line.get(i, word);
+                ClientHandler[] subscribers = byTopic.get(normalize(word));
+                if (subscribers != null && subscribers != first) {
+                    if (first == null) {
+                        first = subscribers;
+                    } else {
+                        if (more == null) {
+                            more = Collections.newSetFromMap(new IdentityHashMap<>());
+                            Collections.addAll(more, first);
+                        }
+                        Collections.addAll(more, subscribers);
+                    }
+                }
+            }
+            i = end - 1;
+        }
+        if (more != null) return more.toArray(NO_MEMBERS);
+        return (first != null) ? first : NO_MEMBERS;
+    }
+
+    /**
+     * The key a topic is indexed under, or null if it is not one: a '@',
+     * '#' or '~' and at least one word character (letters, digits, '_',
+     * '-' or anything outside ASCII), {@link #MAX_TOPIC_BYTES} at most.
+     */
+    static String key(String topic) {
+        byte[] word = topic.getBytes(StandardCharsets.UTF_8);
+        if (word.length < 2 || word.length > MAX_TOPIC_BYTES) return null;
+        if (word[0] != '@' && word[0] != '#' && word[0] != '~') return null;
+        for (int i = 1; i < word.length; i++) {
+            if (!isWordByte(word[i])) return null;
+        }
+        return normalize(word);
+    }
+
+    private static String normalize(byte[] word) {
+        for (int i = 0; i < word.length; i++) {
+            if (word[i] >= 'A' && word[i] <= 'Z') word[i] += 'a' - 'A';
+        }
+        return new String(word, StandardCharsets.UTF_8);
+    }
+
+    private static boolean isWordByte(byte b) {
+        return b < 0                            // part of a non-ASCII character
+                || (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9')
+                || b == '_' || b == '-';
+    }
+
+    /** After the first ": ", which ends the name; the whole line if there is none. */
+    private static int textStart(ByteBuffer line) {
+        for (int i = line.position(); i < line.limit() - 1; i++) {
+            if (line.get(i) == ':' && line.get(i + 1) == ' ') return i + 2;
+        }
+        return line.position();
+    }
+}
@@ -1,50 +1,77 @@
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A bank account that any number of threads can use at once without locking.
+ *
+ * The account holds only a reference to its newest transaction, which
+ * records the balance after it and links to the transaction before it, so
+ * that one reference is the balance and the whole history at once.
+ * Deposits and withdrawals create the next transaction and swap it in with
+ * a compare-and-set, trying again if another thread got there first.
+ * Readers take the reference once, so a balance always matches the history
+ * next to it.
+ *
+ * All amounts are whole cents in a long (see {@link Money}): 1050 is $10.50.
+ */
 public class BankAccount {
-    private String accountNumber;
-    private String accountHolder;
-    private double balance;
-    private List<Transaction> transactionHistory;
+    private final String accountNumber;
+    private final String accountHolder;
+    private final AtomicReference<Transaction> latest; // null until the first transaction
 
-    public BankAccount(String accountNumber, String accountHolder, double initialBalance) {
+    public BankAccount(String accountNumber, String accountHolder, long initialBalance) {
         if (initialBalance < 0) {
             throw new IllegalArgumentException("Initial balance cannot be negative");
         }
         this.accountNumber = accountNumber;
         this.accountHolder = accountHolder;
-        this.balance = initialBalance;
-        this.transactionHistory = new ArrayList<>();
-        if (initialBalance > 0) {
-            addTransaction("INITIAL_DEPOSIT", initialBalance, "Initial deposit");
-        }
+        this.latest = new AtomicReference<>(initialBalance > 0
+                ? new Transaction(null, "INITIAL_DEPOSIT", initialBalance, initialBalance, "Initial deposit")
+                : null);
     }
 
-    public synchronized boolean deposit(double amount) {
+    public boolean deposit(long amount) {
         if (amount <= 0) {
             throw new IllegalArgumentException("Deposit amount must be positive");
         }
-        balance += amount;
-        addTransaction("DEPOSIT", amount, "Deposit");
+        Transaction current;
+        Transaction next;
+        do {
+            current = latest.get();
+            long balanceAfter;
+            try {
+                balanceAfter = Money.add(balance(current), amount);
+            } catch (ArithmeticException e) {
+                throw new IllegalArgumentException("Deposit too large: the balance would overflow");
+            }
+            next = new Transaction(current, "DEPOSIT", amount, balanceAfter, "Deposit");
+        } while (!latest.compareAndSet(current, next));
         return true;
     }
 
-    public synchronized boolean withdraw(double amount) {
+    public boolean withdraw(long amount) {
         if (amount <= 0) {
             throw new IllegalArgumentException("Withdrawal amount must be positive");
         }
-        if (amount > balance) {
-            return false; // Insufficient funds
-        }
-        balance -= amount;
-        addTransaction("WITHDRAWAL", amount, "Withdrawal");
+        Transaction current;
+        Transaction next;
+        do {
+            current = latest.get();
+            long balance = balance(current);
+            if (amount > balance) {
+                return false; // Insufficient funds
+            }
+            next = new Transaction(current, "WITHDRAWAL", amount, Money.subtract(balance, amount), "Withdrawal");
+        } while (!latest.compareAndSet(current, next));
         return true;
     }
 
-    public double getBalance() {
-        return balance;
+    public long getBalance() {
+        return balance(latest.get());
     }
 
     public String getAccountNumber() {
@@ -56,55 +83,83 @@ public class BankAccount {
     }
 
     public List<Transaction> getTransactionHistory() {
-        return new ArrayList<>(transactionHistory);
-    }
-
-    private void addTransaction(String type, double amount, String description) {
-        Transaction transaction = new Transaction(type, amount, balance, description);
-        transactionHistory.add(transaction);
+        return history(latest.get());
     }
 
     public void printTransactionHistory() {
-        System.out.println("\n=== Transaction History for Account: " + accountNumber + " ===");
-        System.out.println("Account Holder: " + accountHolder);
-        System.out.println("Current Balance: $" + String.format("%.2f", balance));
-        System.out.println("\nTransactions:");
-        System.out.println("---------------------------------------------------------------");
-        
+        Transaction snapshot = latest.get(); // balance and history from the same moment
+        List<Transaction> transactionHistory = history(snapshot);
+        // Built in one buffer and printed with a single call
+        StringBuilder out = new StringBuilder(256 + 96 * transactionHistory.size());
+        out.append("\n=== Transaction History for Account: ").append(accountNumber).append(" ===\n");
+        out.append("Account Holder: ").append(accountHolder).append('\n');
+        Money.appendTo(out.append("Current Balance: $"), balance(snapshot)).append('\n');
+        out.append("\nTransactions:\n");
+        out.append("---------------------------------------------------------------\n");
+
         if (transactionHistory.isEmpty()) {
-            System.out.println("No transactions yet.");
+            out.append("No transactions yet.\n");
         } else {
             for (Transaction transaction : transactionHistory) {
-                System.out.println(transaction);
+                transaction.appendTo(out).append('\n');
             }
         }
-        System.out.println("---------------------------------------------------------------\n");
+        out.append("---------------------------------------------------------------\n");
+        System.out.println(out);
+    }
+
+    private static long balance(Transaction latest) {
+        return latest == null ? 0 : latest.balanceAfter;
+    }
+
+    // Oldest first; a new list each time, so callers may change it
+    private static List<Transaction> history(Transaction latest) {
+        Transaction[] transactions = new Transaction[latest == null ? 0 : latest.number];
+        for (Transaction t = latest; t != null; t = t.previous) {
+            transactions[t.number - 1] = t;
+        }
+        return new ArrayList<>(Arrays.asList(transactions));
     }
 
     public static class Transaction {
-        private String type;
-        private double amount;
-        private double balanceAfter;
-        private String description;
-        private LocalDateTime timestamp;
+        private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+        private final String type;
+        private final long amount;
+        private final long balanceAfter;
+        private final String description;
+        private final LocalDateTime timestamp;
+        // Kept by BankAccount: the transaction before this one in its account, and this one's
+        // place there (1 for the first)
+        private final Transaction previous;
+        private final int number;
+
+        public Transaction(String type, long amount, long balanceAfter, String description) {
+            this(null, type, amount, balanceAfter, description);
+        }
 
-        public Transaction(String type, double amount, double balanceAfter, String description) {
+        private Transaction(Transaction previous, String type, long amount, long balanceAfter,
+                            String description) {
             this.type = type;
             this.amount = amount;
             this.balanceAfter = balanceAfter;
             this.description = description;
             this.timestamp = LocalDateTime.now();
+            this.previous = previous;
+            this.number = previous == null ? 1 : previous.number + 1;
         }
 
         public String getType() {
             return type;
         }
 
-        public double getAmount() {
+        // In cents
+        public long getAmount() {
             return amount;
         }
 
-        public double getBalanceAfter() {
+        // In cents
+        public long getBalanceAfter() {
             return balanceAfter;
         }
 
@@ -116,15 +171,28 @@ public class BankAccount {
             return timestamp;
         }
 
+        // Appends the same text as toString() without building it separately
+        public StringBuilder appendTo(StringBuilder out) {
+            out.append('[');
+            TIMESTAMP_FORMAT.formatTo(timestamp, out);
+            out.append("] ");
+            padTo(out.append(type), out.length() - type.length() + 18);
+            out.append(" $");
+            int amountStart = out.length();
+            padTo(Money.appendTo(out, amount), amountStart + 10);
+            Money.appendTo(out.append(" Balance: $"), balanceAfter);
+            return out.append(" - ").append(description);
+        }
+
+        private static void padTo(StringBuilder out, int length) {
+            while (out.length() < length) {
+                out.append(' ');
+            }
+        }
+
         @Override
         public String toString() {
-            DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-            return String.format("[%s] %-18s $%-10.2f Balance: $%.2f - %s",
-                    timestamp.format(formatter),
-                    type,
-                    amount,
-                    balanceAfter,
-                    description);
+            return appendTo(new StringBuilder(96)).toString();
         }
     }
 }
@@ -17,15 +17,14 @@ public class BankAccountManagementSystem {
         String accountHolder = scanner.nextLine();
         
         System.out.print("Enter Initial Balance: $");
-        double initialBalance = scanner.nextDouble();
-        scanner.nextLine(); // Consume newline
+        String initialBalance = scanner.nextLine();
 
         try {
-            account = new BankAccount(accountNumber, accountHolder, initialBalance);
+            account = new BankAccount(accountNumber, accountHolder, Money.parse(initialBalance));
             System.out.println("\nAccount created successfully!");
             System.out.println("Account Number: " + account.getAccountNumber());
             System.out.println("Account Holder: " + account.getAccountHolder());
-            System.out.println("Initial Balance: $" + String.format("%.2f", account.getBalance()));
+            System.out.println("Initial Balance: $" + Money.format(account.getBalance()));
         } catch (IllegalArgumentException e) {
             System.out.println("Error: " + e.getMessage());
             scanner.close();
@@ -49,13 +48,12 @@ public class BankAccountManagementSystem {
             switch (choice) {
                 case 1: // Deposit
                     System.out.print("Enter deposit amount: $");
-                    double depositAmount = scanner.nextDouble();
-                    scanner.nextLine();
+                    String depositAmount = scanner.nextLine();
                     
                     try {
-                        if (account.deposit(depositAmount)) {
+                        if (account.deposit(Money.parse(depositAmount))) {
                             System.out.println("Deposit successful!");
-                            System.out.println("New Balance: $" + String.format("%.2f", account.getBalance()));
+                            System.out.println("New Balance: $" + Money.format(account.getBalance()));
                         }
                     } catch (IllegalArgumentException e) {
                         System.out.println("Error: " + e.getMessage());
@@ -64,16 +62,15 @@ public class BankAccountManagementSystem {
 
                 case 2: // Withdraw
                     System.out.print("Enter withdrawal amount: $");
-                    double withdrawAmount = scanner.nextDouble();
-                    scanner.nextLine();
+                    String withdrawAmount = scanner.nextLine();
                     
                     try {
-                        if (account.withdraw(withdrawAmount)) {
+                        if (account.withdraw(Money.parse(withdrawAmount))) {
                             System.out.println("Withdrawal successful!");
-                            System.out.println("New Balance: $" + String.format("%.2f", account.getBalance()));
+                            System.out.println("New Balance: $" + Money.format(account.getBalance()));
                         } else {
                             System.out.println("Error: Insufficient funds!");
-                            System.out.println("Current Balance: $" + String.format("%.2f", account.getBalance()));
+                            System.out.println("Current Balance: $" + Money.format(account.getBalance()));
                         }
                     } catch (IllegalArgumentException e) {
                         System.out.println("Error: " + e.getMessage());
@@ -84,7 +81,7 @@ public class BankAccountManagementSystem {
                     System.out.println("\n===== Balance Inquiry =====");
                     System.out.println("Account Number: " + account.getAccountNumber());
                     System.out.println("Account Holder: " + account.getAccountHolder());
-                    System.out.println("Current Balance: $" + String.format("%.2f", account.getBalance()));
+                    System.out.println("Current Balance: $" + Money.format(account.getBalance()));
                     break;
 
                 case 4: // View Transaction History
@@ -93,7 +90,7 @@ public class BankAccountManagementSystem {
 
                 case 5: // Exit
                     System.out.println("\nThank you for using Bank Account Management System!");
-                    System.out.println("Final Balance: $" + String.format("%.2f", account.getBalance()));
+                    System.out.println("Final Balance: $" + Money.format(account.getBalance()));
                     running = false;
                     break;
 
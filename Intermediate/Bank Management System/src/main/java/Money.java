@@ -0,0 +1,82 @@
+/**
+ * Amounts of money as a primitive long number of cents, e.g. 1250 for $12.50.
+ *
+ * There is no Money object: accounts and transactions store plain longs, so
+ * arithmetic is exact integer arithmetic and nothing is allocated for it.
+ * These helpers check for overflow, read amounts typed by a user, and write
+ * amounts as text straight into a StringBuilder instead of going through
+ * String.format.
+ */
+public final class Money {
+    private Money() {
+    }
+
+    // a + b; throws ArithmeticException instead of wrapping around
+    public static long add(long a, long b) {
+        return Math.addExact(a, b);
+    }
+
+    // a - b; throws ArithmeticException instead of wrapping around
+    public static long subtract(long a, long b) {
+        return Math.subtractExact(a, b);
+    }
+
+    /**
+     * Reads an amount such as "12", "12.5", "12.50" or "-3.25" exactly, with
+     * no rounding through double.
+     *
+     * @throws IllegalArgumentException if the text is not such an amount
+     */
+    public static long parse(String text) {
+        String s = text.trim();
+        int i = 0;
+        boolean negative = s.startsWith("-");
+        if (negative) {
+            i++;
+        }
+        int dot = s.indexOf('.');
+        int end = dot < 0 ? s.length() : dot;
+        int decimals = dot < 0 ? 0 : s.length() - dot - 1;
+        if (end == i || decimals > 2 || (dot >= 0 && decimals == 0)) {
+            throw new IllegalArgumentException("Invalid amount: " + text);
+        }
+        try {
+            long cents = 0;
+            for (; i < s.length(); i++) {
+                if (i == dot) {
+                    continue;
+                }
+                char c = s.charAt(i);
+                if (c < '0' || c > '9') {
+                    throw new IllegalArgumentException("Invalid amount: " + text);
+                }
+                cents = Math.addExact(Math.multiplyExact(cents, 10), c - '0');
+            }
+            if (decimals < 2) {
+                cents = Math.multiplyExact(cents, decimals == 0 ? 100 : 10);
+            }
+            return negative ? -cents : cents;
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("Amount too large: " + text);
+        }
+    }
+
+    // Appends the amount with two decimals, e.g. 1250 -> "12.50", -5 -> "-0.05"
+    public static StringBuilder appendTo(StringBuilder out, long cents) {
+        long dollars = cents / 100;
+        int fraction = (int) Math.abs(cents % 100);
+        if (cents < 0 && dollars == 0) {
+            out.append('-');
+        }
+        out.append(dollars).append('.');
+        if (fraction < 10) {
+            out.append('0');
+        }
+        return out.append(fraction);
+    }
+
+    // The amount with two decimals, e.g. 1250 -> "12.50"
+    public static String format(long cents) {
+        return appendTo(new StringBuilder(24), cents).toString();
+    }
+}
@@ -0,0 +1,151 @@
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Throughput of payment workers hammering a few hot accounts: the lock-free
+ * BankAccount against SynchronizedBankAccount, the synchronized version it
+ * replaced, at 1 to 64 threads.
+ *
+ * Each operation picks one of {@value #ACCOUNTS} accounts at random and
+ * deposits (3 in 8), withdraws (3 in 8) or reads the balance (2 in 8). Every
+ * thread count gets {@value #WARMUP_ROUNDS} warm-up rounds and then
+ * {@value #ROUNDS} measured rounds per version; the median is printed in
+ * operations per microsecond, all threads together.
+ *
+ * Every write keeps a transaction, and both versions keep all of them, so
+ * rounds are short and each starts with fresh accounts: with long rounds
+ * the result is mostly the garbage collector copying ever longer histories.
+ *
+ * Run with: mvn -Pbench test [-Dbench.args="1 4 16 64"]
+ * (JMH cannot be used here: it does not accept benchmarks in the default
+ * package, which is where the bank classes live.)
+ */
+public class BankAccountBenchmark {
+    private static final int ACCOUNTS = 4;
+    private static final int WARMUP_ROUNDS = 10;
+    private static final int ROUNDS = 21;
+    private static final long ROUND_MILLIS = 100;
+    private static final int[] DEFAULT_THREADS = {1, 2, 4, 8, 16, 32, 64};
+
+    private static volatile boolean stop;
+    private static volatile long sink;
+
+    public static void main(String[] args) throws InterruptedException {
+        int[] threadCounts = args.length == 0
+                ? DEFAULT_THREADS
+                : Arrays.stream(args).mapToInt(Integer::parseInt).toArray();
+
+        System.out.println("Hot accounts: " + ACCOUNTS + ", cores: "
+                + Runtime.getRuntime().availableProcessors() + ", median of " + ROUNDS + " x "
+                + ROUND_MILLIS + " ms, ops/us (all threads)");
+        System.out.printf("%8s %12s %14s %8s%n", "threads", "lock-free", "synchronized", "ratio");
+        for (int threads : threadCounts) {
+            double lockFree = measure(threads, LockFreeAccounts::new);
+            double locked = measure(threads, SynchronizedAccounts::new);
+            System.out.printf("%8d %12.2f %14.2f %7.2fx%n", threads, lockFree, locked, lockFree / locked);
+        }
+    }
+
+    // Median ops/us over the measured rounds, after the warm-up rounds
+    private static double measure(int threads, AccountsFactory factory) throws InterruptedException {
+        double[] results = new double[ROUNDS];
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            round(threads, factory.create());
+        }
+        for (int i = 0; i < ROUNDS; i++) {
+            results[i] = round(threads, factory.create());
+        }
+        Arrays.sort(results);
+        return results[ROUNDS / 2];
+    }
+
+    private static double round(int threads, Accounts accounts) throws InterruptedException {
+        long[] counts = new long[threads];
+        Thread[] workers = new Thread[threads];
+        stop = false;
+        for (int t = 0; t < threads; t++) {
+            int index = t;
+            workers[t] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long count = 0;
+                long balances = 0;
+                while (!stop) {
+                    balances += accounts.operate(random.nextInt(ACCOUNTS * 8));
+                    count++;
+                }
+                counts[index] = count;
+                sink = balances;
+            });
+        }
+        long start = System.nanoTime();
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        Thread.sleep(ROUND_MILLIS);
+        stop = true;
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsedNanos = System.nanoTime() - start;
+        return Arrays.stream(counts).sum() * 1000.0 / elapsedNanos;
+    }
+
+    private interface AccountsFactory {
+        Accounts create();
+    }
+
+    // One random operation on one of the hot accounts, chosen by pick (0 to ACCOUNTS * 8 - 1)
+    private interface Accounts {
+        long operate(int pick);
+    }
+
+    private static final class LockFreeAccounts implements Accounts {
+        private final BankAccount[] accounts = new BankAccount[ACCOUNTS];
+
+        LockFreeAccounts() {
+            for (int i = 0; i < ACCOUNTS; i++) {
+                accounts[i] = new BankAccount("ACC" + i, "Hot Account " + i, 1_000_000_00L);
+            }
+        }
+
+        @Override
+        public long operate(int pick) {
+            BankAccount account = accounts[pick >> 3];
+            switch (pick & 7) {
+                case 0: case 1: case 2:
+                    account.deposit(25_00);
+                    return 0;
+                case 3: case 4: case 5:
+                    account.withdraw(25_00);
+                    return 0;
+                default:
+                    return account.getBalance();
+            }
+        }
+    }
+
+    private static final class SynchronizedAccounts implements Accounts {
+        private final SynchronizedBankAccount[] accounts = new SynchronizedBankAccount[ACCOUNTS];
+
+        SynchronizedAccounts() {
+            for (int i = 0; i < ACCOUNTS; i++) {
+                accounts[i] = new SynchronizedBankAccount("ACC" + i, "Hot Account " + i, 1_000_000_00L);
+            }
+        }
+
+        @Override
+        public long operate(int pick) {
+            SynchronizedBankAccount account = accounts[pick >> 3];
+            switch (pick & 7) {
+                case 0: case 1: case 2:
+                    account.deposit(25_00);
+                    return 0;
+                case 3: case 4: case 5:
+                    account.withdraw(25_00);
+                    return 0;
+                default:
+                    return account.getBalance();
+            }
+        }
+    }
+}
@@ -3,7 +3,11 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.DisplayName;
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @DisplayName("Bank Account Management System Tests")
 public class BankAccountTest {
@@ -11,7 +15,7 @@ public class BankAccountTest {
 
     @BeforeEach
     public void setUp() {
-        account = new BankAccount("ACC001", "John Doe", 1000.0);
+        account = new BankAccount("ACC001", "John Doe", 1000_00);
     }
 
     @Test
@@ -19,45 +23,45 @@ public class BankAccountTest {
     public void testAccountCreation() {
         assertEquals("ACC001", account.getAccountNumber());
         assertEquals("John Doe", account.getAccountHolder());
-        assertEquals(1000.0, account.getBalance(), 0.01);
+        assertEquals(1000_00, account.getBalance());
     }
 
     @Test
     @DisplayName("Test account creation with zero initial balance")
     public void testAccountCreationWithZeroBalance() {
-        BankAccount zeroAccount = new BankAccount("ACC002", "Jane Smith", 0.0);
-        assertEquals(0.0, zeroAccount.getBalance(), 0.01);
+        BankAccount zeroAccount = new BankAccount("ACC002", "Jane Smith", 0);
+        assertEquals(0, zeroAccount.getBalance());
     }
 
     @Test
     @DisplayName("Test account creation with negative balance throws exception")
     public void testAccountCreationWithNegativeBalance() {
         assertThrows(IllegalArgumentException.class, () -> {
-            new BankAccount("ACC003", "Invalid User", -100.0);
+            new BankAccount("ACC003", "Invalid User", -100_00);
         });
     }
 
     @Test
     @DisplayName("Test deposit with valid amount")
     public void testDeposit() {
-        assertTrue(account.deposit(500.0));
-        assertEquals(1500.0, account.getBalance(), 0.01);
+        assertTrue(account.deposit(500_00));
+        assertEquals(1500_00, account.getBalance());
     }
 
     @Test
     @DisplayName("Test multiple deposits")
     public void testMultipleDeposits() {
-        account.deposit(200.0);
-        account.deposit(300.0);
-        account.deposit(500.0);
-        assertEquals(2000.0, account.getBalance(), 0.01);
+        account.deposit(200_00);
+        account.deposit(300_00);
+        account.deposit(500_00);
+        assertEquals(2000_00, account.getBalance());
     }
 
     @Test
     @DisplayName("Test deposit with zero amount throws exception")
     public void testDepositZeroAmount() {
         assertThrows(IllegalArgumentException.class, () -> {
-            account.deposit(0.0);
+            account.deposit(0);
         });
     }
 
@@ -65,45 +69,45 @@ public class BankAccountTest {
     @DisplayName("Test deposit with negative amount throws exception")
     public void testDepositNegativeAmount() {
         assertThrows(IllegalArgumentException.class, () -> {
-            account.deposit(-100.0);
+            account.deposit(-100_00);
         });
     }
 
     @Test
     @DisplayName("Test withdrawal with valid amount")
     public void testWithdrawal() {
-        assertTrue(account.withdraw(300.0));
-        assertEquals(700.0, account.getBalance(), 0.01);
+        assertTrue(account.withdraw(300_00));
+        assertEquals(700_00, account.getBalance());
     }
 
     @Test
     @DisplayName("Test multiple withdrawals")
     public void testMultipleWithdrawals() {
-        account.withdraw(100.0);
-        account.withdraw(200.0);
-        account.withdraw(150.0);
-        assertEquals(550.0, account.getBalance(), 0.01);
+        account.withdraw(100_00);
+        account.withdraw(200_00);
+        account.withdraw(150_00);
+        assertEquals(550_00, account.getBalance());
     }
 
     @Test
     @DisplayName("Test withdrawal with insufficient funds")
     public void testWithdrawalInsufficientFunds() {
-        assertFalse(account.withdraw(1500.0));
-        assertEquals(1000.0, account.getBalance(), 0.01); // Balance should remain unchanged
+        assertFalse(account.withdraw(1500_00));
+        assertEquals(1000_00, account.getBalance()); // Balance should remain unchanged
     }
 
     @Test
     @DisplayName("Test withdrawal with exact balance")
     public void testWithdrawalExactBalance() {
-        assertTrue(account.withdraw(1000.0));
-        assertEquals(0.0, account.getBalance(), 0.01);
+        assertTrue(account.withdraw(1000_00));
+        assertEquals(0, account.getBalance());
     }
 
     @Test
     @DisplayName("Test withdrawal with zero amount throws exception")
     public void testWithdrawalZeroAmount() {
         assertThrows(IllegalArgumentException.class, () -> {
-            account.withdraw(0.0);
+            account.withdraw(0);
         });
     }
 
@@ -111,21 +115,21 @@ public class BankAccountTest {
     @DisplayName("Test withdrawal with negative amount throws exception")
     public void testWithdrawalNegativeAmount() {
         assertThrows(IllegalArgumentException.class, () -> {
-            account.withdraw(-50.0);
+            account.withdraw(-50_00);
         });
     }
 
     @Test
     @DisplayName("Test balance inquiry")
     public void testBalanceInquiry() {
-        double initialBalance = account.getBalance();
-        assertEquals(1000.0, initialBalance, 0.01);
+        long initialBalance = account.getBalance();
+        assertEquals(1000_00, initialBalance);
         
-        account.deposit(500.0);
-        assertEquals(1500.0, account.getBalance(), 0.01);
+        account.deposit(500_00);
+        assertEquals(1500_00, account.getBalance());
         
-        account.withdraw(300.0);
-        assertEquals(1200.0, account.getBalance(), 0.01);
+        account.withdraw(300_00);
+        assertEquals(1200_00, account.getBalance());
     }
 
     @Test
@@ -134,42 +138,42 @@ public class BankAccountTest {
         List<BankAccount.Transaction> history = account.getTransactionHistory();
         assertEquals(1, history.size()); // Initial deposit
         assertEquals("INITIAL_DEPOSIT", history.get(0).getType());
-        assertEquals(1000.0, history.get(0).getAmount(), 0.01);
+        assertEquals(1000_00, history.get(0).getAmount());
     }
 
     @Test
     @DisplayName("Test transaction history after deposit")
     public void testTransactionHistoryAfterDeposit() {
-        account.deposit(500.0);
+        account.deposit(500_00);
         List<BankAccount.Transaction> history = account.getTransactionHistory();
         assertEquals(2, history.size()); // Initial + 1 deposit
         
         BankAccount.Transaction lastTransaction = history.get(history.size() - 1);
         assertEquals("DEPOSIT", lastTransaction.getType());
-        assertEquals(500.0, lastTransaction.getAmount(), 0.01);
-        assertEquals(1500.0, lastTransaction.getBalanceAfter(), 0.01);
+        assertEquals(500_00, lastTransaction.getAmount());
+        assertEquals(1500_00, lastTransaction.getBalanceAfter());
     }
 
     @Test
     @DisplayName("Test transaction history after withdrawal")
     public void testTransactionHistoryAfterWithdrawal() {
-        account.withdraw(300.0);
+        account.withdraw(300_00);
         List<BankAccount.Transaction> history = account.getTransactionHistory();
         assertEquals(2, history.size()); // Initial + 1 withdrawal
         
         BankAccount.Transaction lastTransaction = history.get(history.size() - 1);
         assertEquals("WITHDRAWAL", lastTransaction.getType());
-        assertEquals(300.0, lastTransaction.getAmount(), 0.01);
-        assertEquals(700.0, lastTransaction.getBalanceAfter(), 0.01);
+        assertEquals(300_00, lastTransaction.getAmount());
+        assertEquals(700_00, lastTransaction.getBalanceAfter());
     }
 
     @Test
     @DisplayName("Test transaction history with multiple operations")
     public void testTransactionHistoryMultipleOperations() {
-        account.deposit(500.0);
-        account.withdraw(200.0);
-        account.deposit(300.0);
-        account.withdraw(100.0);
+        account.deposit(500_00);
+        account.withdraw(200_00);
+        account.deposit(300_00);
+        account.withdraw(100_00);
         
         List<BankAccount.Transaction> history = account.getTransactionHistory();
         assertEquals(5, history.size()); // Initial + 4 operations
@@ -182,7 +186,7 @@ public class BankAccountTest {
         assertEquals("WITHDRAWAL", history.get(4).getType());
         
         // Verify final balance
-        assertEquals(1500.0, account.getBalance(), 0.01);
+        assertEquals(1500_00, account.getBalance());
     }
 
     @Test
@@ -191,7 +195,7 @@ public class BankAccountTest {
         List<BankAccount.Transaction> history1 = account.getTransactionHistory();
         int initialSize = history1.size();
         
-        account.deposit(100.0);
+        account.deposit(100_00);
         
         // Original list should not be modified
         assertEquals(initialSize, history1.size());
@@ -204,9 +208,9 @@ public class BankAccountTest {
     @Test
     @DisplayName("Test transaction timestamps")
     public void testTransactionTimestamps() throws InterruptedException {
-        account.deposit(100.0);
+        account.deposit(100_00);
         Thread.sleep(10); // Small delay
-        account.withdraw(50.0);
+        account.withdraw(50_00);
         
         List<BankAccount.Transaction> history = account.getTransactionHistory();
         assertTrue(history.get(1).getTimestamp().isBefore(history.get(2).getTimestamp()) ||
@@ -216,30 +220,30 @@ public class BankAccountTest {
     @Test
     @DisplayName("Test account with zero balance after creation")
     public void testZeroBalanceAccount() {
-        BankAccount zeroAccount = new BankAccount("ACC999", "Zero Balance", 0.0);
-        assertEquals(0.0, zeroAccount.getBalance(), 0.01);
+        BankAccount zeroAccount = new BankAccount("ACC999", "Zero Balance", 0);
+        assertEquals(0, zeroAccount.getBalance());
         
-        zeroAccount.deposit(100.0);
-        assertEquals(100.0, zeroAccount.getBalance(), 0.01);
+        zeroAccount.deposit(100_00);
+        assertEquals(100_00, zeroAccount.getBalance());
         
-        assertTrue(zeroAccount.withdraw(100.0));
-        assertEquals(0.0, zeroAccount.getBalance(), 0.01);
+        assertTrue(zeroAccount.withdraw(100_00));
+        assertEquals(0, zeroAccount.getBalance());
     }
 
     @Test
     @DisplayName("Test concurrent deposits (thread safety)")
     public void testConcurrentDeposits() throws InterruptedException {
-        BankAccount concurrentAccount = new BankAccount("ACC100", "Concurrent User", 0.0);
+        BankAccount concurrentAccount = new BankAccount("ACC100", "Concurrent User", 0);
         
         Thread t1 = new Thread(() -> {
             for (int i = 0; i < 100; i++) {
-                concurrentAccount.deposit(10.0);
+                concurrentAccount.deposit(10_00);
             }
         });
         
         Thread t2 = new Thread(() -> {
             for (int i = 0; i < 100; i++) {
-                concurrentAccount.deposit(10.0);
+                concurrentAccount.deposit(10_00);
             }
         });
         
@@ -248,6 +252,126 @@ public class BankAccountTest {
         t1.join();
         t2.join();
         
-        assertEquals(2000.0, concurrentAccount.getBalance(), 0.01);
+        assertEquals(2000_00, concurrentAccount.getBalance());
+    }
+
+    @Test
+    @DisplayName("Test concurrent withdrawals never overdraw")
+    public void testConcurrentWithdrawalsNeverOverdraw() throws InterruptedException {
+        AtomicInteger succeeded = new AtomicInteger();
+        runConcurrently(16, () -> {
+            for (int i = 0; i < 100; i++) {
+                if (account.withdraw(1_00)) {
+                    succeeded.incrementAndGet();
+                }
+            }
+        });
+
+        assertEquals(1000, succeeded.get());
+        assertEquals(0, account.getBalance());
+        assertEquals(1001, account.getTransactionHistory().size());
+    }
+
+    @Test
+    @DisplayName("Test concurrent deposits and withdrawals keep history consistent")
+    public void testConcurrentOperationsKeepHistoryConsistent() throws InterruptedException {
+        List<String> problems = new ArrayList<>();
+        Thread reader = new Thread(() -> {
+            for (int i = 0; i < 200; i++) {
+                String problem = checkHistory(account.getTransactionHistory());
+                if (problem != null) {
+                    synchronized (problems) {
+                        problems.add(problem);
+                    }
+                }
+            }
+        });
+        reader.start();
+        runConcurrently(8, () -> {
+            for (int i = 0; i < 500; i++) {
+                account.deposit(10_00);
+                account.withdraw(5_00);
+            }
+        });
+        reader.join();
+
+        List<BankAccount.Transaction> history = account.getTransactionHistory();
+        assertEquals(List.of(), problems);
+        assertNull(checkHistory(history));
+        assertEquals(1 + 8 * 500 * 2, history.size());
+        assertEquals(1000_00 + 8 * 500 * 5_00, account.getBalance());
+        assertEquals(account.getBalance(), history.get(history.size() - 1).getBalanceAfter());
+    }
+
+    @Test
+    @DisplayName("Test amounts in cents are exact")
+    public void testAmountsInCentsAreExact() {
+        for (int i = 0; i < 10; i++) {
+            account.deposit(10);
+        }
+        assertEquals(1001_00, account.getBalance());
+        assertTrue(account.withdraw(30));
+        assertEquals(1000_70, account.getBalance());
+        assertEquals(30, account.getTransactionHistory().get(11).getAmount());
+    }
+
+    @Test
+    @DisplayName("Test deposit that would overflow the balance throws exception")
+    public void testDepositOverflow() {
+        BankAccount fullAccount = new BankAccount("ACC200", "Full Account", Long.MAX_VALUE);
+        assertThrows(IllegalArgumentException.class, () -> fullAccount.deposit(1));
+        assertEquals(Long.MAX_VALUE, fullAccount.getBalance());
+        assertEquals(1, fullAccount.getTransactionHistory().size());
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> account.deposit(Long.MAX_VALUE - 500_00));
+        assertTrue(e.getMessage().contains("overflow"));
+        assertEquals(1000_00, account.getBalance());
+        assertTrue(account.deposit(Long.MAX_VALUE - 1000_00));
+        assertEquals(Long.MAX_VALUE, account.getBalance());
+    }
+
+    @Test
+    @DisplayName("Test transaction text")
+    public void testTransactionToString() {
+        account.withdraw(12_05);
+        BankAccount.Transaction transaction = account.getTransactionHistory().get(1);
+        String timestamp = transaction.getTimestamp().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
+        assertEquals("[" + timestamp + "] WITHDRAWAL         $12.05      Balance: $987.95 - Withdrawal",
+                transaction.toString());
+    }
+
+    private static void runConcurrently(int threads, Runnable task) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                task.run();
+            });
+            workers[t].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+    }
+
+    // Each transaction must move the balance by exactly its amount; null if they all do
+    private static String checkHistory(List<BankAccount.Transaction> history) {
+        long balance = 0;
+        for (BankAccount.Transaction transaction : history) {
+            balance += transaction.getType().equals("WITHDRAWAL")
+                    ? -transaction.getAmount()
+                    : transaction.getAmount();
+            if (balance != transaction.getBalanceAfter()) {
+                return "balance after " + transaction + " should be " + Money.format(balance);
+            }
+        }
+        return null;
     }
 }
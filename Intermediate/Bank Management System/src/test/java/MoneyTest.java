@@ -0,0 +1,62 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.DisplayName;
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Money Tests")
+public class MoneyTest {
+
+    @Test
+    @DisplayName("Test formatting with two decimals")
+    public void testFormat() {
+        assertEquals("0.00", Money.format(0));
+        assertEquals("0.05", Money.format(5));
+        assertEquals("12.50", Money.format(1250));
+        assertEquals("1000000.01", Money.format(1_000_000_01));
+    }
+
+    @Test
+    @DisplayName("Test formatting negative amounts")
+    public void testFormatNegative() {
+        assertEquals("-0.05", Money.format(-5));
+        assertEquals("-12.50", Money.format(-1250));
+        assertEquals("-92233720368547758.08", Money.format(Long.MIN_VALUE));
+    }
+
+    @Test
+    @DisplayName("Test appending to an existing buffer")
+    public void testAppendTo() {
+        StringBuilder out = new StringBuilder("Balance: $");
+        assertSame(out, Money.appendTo(out, 98_765));
+        assertEquals("Balance: $987.65", out.toString());
+    }
+
+    @Test
+    @DisplayName("Test parsing amounts exactly")
+    public void testParse() {
+        assertEquals(1200, Money.parse("12"));
+        assertEquals(1250, Money.parse("12.5"));
+        assertEquals(1205, Money.parse("12.05"));
+        assertEquals(10, Money.parse("0.10"));
+        assertEquals(30, Money.parse(" 0.3 "));
+        assertEquals(-325, Money.parse("-3.25"));
+        assertEquals(Long.MAX_VALUE, Money.parse("92233720368547758.07"));
+    }
+
+    @Test
+    @DisplayName("Test parsing invalid amounts throws exception")
+    public void testParseInvalid() {
+        for (String text : new String[] {"", "-", ".", "12.", ".5", "1.234", "1,000", "12.5x", "+5", "abc",
+                "92233720368547758.08"}) {
+            assertThrows(IllegalArgumentException.class, () -> Money.parse(text), text);
+        }
+    }
+
+    @Test
+    @DisplayName("Test arithmetic throws on overflow")
+    public void testArithmetic() {
+        assertEquals(1500, Money.add(1000, 500));
+        assertEquals(500, Money.subtract(1000, 500));
+        assertThrows(ArithmeticException.class, () -> Money.add(Long.MAX_VALUE, 1));
+        assertThrows(ArithmeticException.class, () -> Money.subtract(Long.MIN_VALUE, 1));
+    }
+}
@@ -0,0 +1,70 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The account as it was before BankAccount went lock-free: deposit and
+ * withdraw synchronized on the account, getBalance unsynchronized (amounts
+ * since changed to cents, like BankAccount's).
+ * Kept only as the baseline for BankAccountBenchmark.
+ */
+public class SynchronizedBankAccount {
+    private String accountNumber;
+    private String accountHolder;
+    private long balance;
+    private List<BankAccount.Transaction> transactionHistory;
+
+    public SynchronizedBankAccount(String accountNumber, String accountHolder, long initialBalance) {
+        if (initialBalance < 0) {
+            throw new IllegalArgumentException("Initial balance cannot be negative");
+        }
+        this.accountNumber = accountNumber;
+        this.accountHolder = accountHolder;
+        this.balance = initialBalance;
+        this.transactionHistory = new ArrayList<>();
+        if (initialBalance > 0) {
+            addTransaction("INITIAL_DEPOSIT", initialBalance, "Initial deposit");
+        }
+    }
+
+    public synchronized boolean deposit(long amount) {
+        if (amount <= 0) {
+            throw new IllegalArgumentException("Deposit amount must be positive");
+        }
+        balance += amount;
+        addTransaction("DEPOSIT", amount, "Deposit");
+        return true;
+    }
+
+    public synchronized boolean withdraw(long amount) {
+        if (amount <= 0) {
+            throw new IllegalArgumentException("Withdrawal amount must be positive");
+        }
+        if (amount > balance) {
+            return false; // Insufficient funds
+        }
+        balance -= amount;
+        addTransaction("WITHDRAWAL", amount, "Withdrawal");
+        return true;
+    }
+
+    public long getBalance() {
+        return balance;
+    }
+
+    public String getAccountNumber() {
+        return accountNumber;
+    }
+
+    public String getAccountHolder() {
+        return accountHolder;
+    }
+
+    public List<BankAccount.Transaction> getTransactionHistory() {
+        return new ArrayList<>(transactionHistory);
+    }
+
+    private void addTransaction(String type, long amount, String description) {
+        BankAccount.Transaction transaction = new BankAccount.Transaction(type, amount, balance, description);
+        transactionHistory.add(transaction);
+    }
+}